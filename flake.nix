@@ -26,6 +26,8 @@
           buildInputs = [ pkgs.jdk25 ];
           mvnJdk = pkgs.jdk25;
           mvnHash = "sha256-J7Nkc4MMQm6h32h9/8ik0Tzv7EQkYJorCa23I0Z8xsY=";
+          # The AOT cache is recorded against the installed jar below instead.
+          mvnParameters = "-Djcmdshell.aot.skip";
 
           installPhase = ''
             runHook preInstall
@@ -33,7 +35,16 @@
             mkdir -p $out/bin $out/share/jcmdshell
             install -Dm644 target/Jcmdshell-fat.jar $out/share/jcmdshell/jcmdshell.jar
 
+            # The cache only applies to the jar it was trained on, down to its
+            # modification time, so train on the installed jar with the time
+            # the store will give it.
+            touch -d @1 $out/share/jcmdshell/jcmdshell.jar
+            ${pkgs.jdk25}/bin/java src/aot/AotTraining.java ${pkgs.jdk25}/bin/java \
+              $out/share/jcmdshell/jcmdshell.jar $out/share/jcmdshell/jcmdshell.aot \
+              src/aot/training-session.txt $TMPDIR/aot-training
+
             makeWrapper ${pkgs.jdk25}/bin/java $out/bin/jcmdshell \
+              --add-flags "-XX:AOTCache=$out/share/jcmdshell/jcmdshell.aot" \
               --add-flags "--enable-native-access=ALL-UNNAMED" \
               --add-flags "-jar $out/share/jcmdshell/jcmdshell.jar"
 
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Build step that records an ahead-of-time cache for the shell and reports
+ * what it buys.  It is started as a single-file program by the {@code aot}
+ * Maven profile and by the Nix package:
+ * <pre>
+ * java src/aot/AotTraining.java &lt;java&gt; &lt;jar&gt; &lt;cache&gt; &lt;session&gt; &lt;work-dir&gt;
+ * </pre>
+ * The training run starts the interactive shell on the jar with
+ * {@code -XX:AOTCacheOutput} and types the session file into it, so the
+ * cache holds the classes of startup, the line reader and its completers,
+ * the common built-ins, redirection and pipelines, already loaded and
+ * linked.  Afterwards the shell is started repeatedly with and without the
+ * cache and the time until the first prompt appears is printed and written
+ * next to the cache.  The shell runs with its home directory inside the work
+ * directory, so training leaves no trace in the real one.
+ */
+public final class AotTraining
+{
+    private static final String[] RUNTIME_FLAGS = { "--enable-native-access=ALL-UNNAMED" };
+    private static final byte[] PROMPT = "> ".getBytes(StandardCharsets.UTF_8);
+    private static final int RUNS = 5;
+
+    private AotTraining() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length != 5)
+        {
+            System.err.println("usage: java AotTraining.java <java> <jar> <cache> <session> <work-dir>");
+            System.exit(2);
+        }
+        String java = args[0];
+        Path jar = Path.of(args[1]).toAbsolutePath();
+        Path cache = Path.of(args[2]).toAbsolutePath();
+        Path session = Path.of(args[3]).toAbsolutePath();
+        Path work = Path.of(args[4]).toAbsolutePath();
+
+        deleteRecursively(work);
+        Files.createDirectories(work.resolve("home"));
+        Files.deleteIfExists(cache);
+
+        Path log = work.resolve("training.log");
+        List<String> training = command(java, work, jar, "-XX:AOTCacheOutput=" + cache);
+        Process process = new ProcessBuilder(training)
+                .directory(work.toFile())
+                .redirectInput(session.toFile())
+                .redirectOutput(log.toFile())
+                .redirectErrorStream(true)
+                .start();
+        int exit = process.waitFor();
+        if (exit != 0 || !Files.isRegularFile(cache))
+        {
+            System.err.println("[AOT] Training run failed with exit code " + exit + ", see " + log);
+            System.exit(1);
+        }
+        System.out.println("[AOT] Wrote " + cache + " (" + Files.size(cache) / 1024 + " KiB)");
+
+        long without = medianMillis(command(java, work, jar, null), work);
+        long with = medianMillis(command(java, work, jar, "-XX:AOTCache=" + cache), work);
+        String report = String.format("Time to first prompt, median of %d runs: %d ms without the AOT cache, %d ms with it (%.1fx)%n",
+                RUNS, without, with, with == 0 ? 0.0 : (double) without / with);
+        System.out.print("[AOT] " + report);
+        Files.writeString(cache.resolveSibling(cache.getFileName() + ".txt"), report, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> command(String java, Path work, Path jar, String cacheFlag)
+    {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (cacheFlag != null)
+            command.add(cacheFlag);
+        command.addAll(Arrays.asList(RUNTIME_FLAGS));
+        command.add("-Duser.home=" + work.resolve("home"));
+        command.add("-jar");
+        command.add(jar.toString());
+        return command;
+    }
+
+    private static long medianMillis(List<String> command, Path work) throws IOException, InterruptedException
+    {
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++)
+            times[i] = timeToPrompt(command, work);
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    /**
+     * Starts the shell, waits for the first prompt, then types EXIT and
+     * waits for it to end.
+     */
+    private static long timeToPrompt(List<String> command, Path work) throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(work.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        long elapsed = -1;
+        try (InputStream out = process.getInputStream())
+        {
+            int matched = 0;
+            int b;
+            while ((b = out.read()) >= 0)
+            {
+                matched = b == PROMPT[matched] ? matched + 1 : (b == PROMPT[0] ? 1 : 0);
+                if (matched == PROMPT.length)
+                {
+                    elapsed = (System.nanoTime() - start) / 1_000_000;
+                    break;
+                }
+            }
+            try (OutputStream in = process.getOutputStream())
+            {
+                in.write("exit\n".getBytes(StandardCharsets.UTF_8));
+            }
+            out.transferTo(OutputStream.nullOutputStream());
+        }
+        process.waitFor();
+        if (elapsed < 0)
+            throw new IOException("The shell exited without showing a prompt: " + String.join(" ", command));
+        return elapsed;
+    }
+
+    private static void deleteRecursively(Path root) throws IOException
+    {
+        if (!Files.exists(root))
+            return;
+        try (Stream<Path> paths = Files.walk(root))
+        {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+    }
+}
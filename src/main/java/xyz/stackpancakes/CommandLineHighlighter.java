@@ -0,0 +1,63 @@
+package xyz.stackpancakes;
+
+import org.jline.reader.Highlighter;
+import org.jline.reader.LineReader;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+
+import xyz.stackpancakes.shell.core.CommandLexer;
+import xyz.stackpancakes.shell.core.CommandRegistry;
+
+/**
+ * Colours the line as it is typed from the same {@link CommandLexer} tokens
+ * the shell will run: built-in commands in green, pipes, redirections and
+ * command separators in yellow, quoted words in cyan, and a quote that is
+ * never closed in red.
+ */
+final class CommandLineHighlighter implements Highlighter
+{
+    private static final AttributedStyle COMMAND = AttributedStyle.DEFAULT.foreground(AttributedStyle.GREEN);
+    private static final AttributedStyle OPERATOR = AttributedStyle.DEFAULT.foreground(AttributedStyle.YELLOW);
+    private static final AttributedStyle QUOTED = AttributedStyle.DEFAULT.foreground(AttributedStyle.CYAN);
+    private static final AttributedStyle UNTERMINATED = AttributedStyle.DEFAULT.foreground(AttributedStyle.RED);
+
+    private final CommandRegistry commands;
+
+    CommandLineHighlighter(CommandRegistry commands)
+    {
+        this.commands = commands;
+    }
+
+    @Override
+    public AttributedString highlight(LineReader reader, String buffer)
+    {
+        CommandLexer.Tokens tokens = CommandLexer.lex(buffer);
+        AttributedStringBuilder sb = new AttributedStringBuilder(buffer.length());
+        int written = 0;
+        boolean commandPosition = true;
+        for (int i = 0; i < tokens.size(); i++)
+        {
+            int type = tokens.type(i);
+            int flags = tokens.flags(i);
+            sb.append(buffer, written, tokens.start(i));
+            AttributedStyle style = AttributedStyle.DEFAULT;
+            if (type != CommandLexer.WORD)
+                style = OPERATOR;
+            else if ((flags & CommandLexer.UNTERMINATED) != 0)
+                style = UNTERMINATED;
+            else if (commandPosition && commands.contains(tokens.text(i)))
+                style = COMMAND;
+            else if ((flags & CommandLexer.QUOTED) != 0)
+                style = QUOTED;
+            sb.styled(style, buffer.substring(tokens.start(i), tokens.end(i)));
+            written = tokens.end(i);
+            if (type == CommandLexer.WORD)
+                commandPosition = false;
+            else if (type == CommandLexer.PIPE || CommandLexer.isConnector(type))
+                commandPosition = true;
+        }
+        sb.append(buffer, written, buffer.length());
+        return sb.toAttributedString();
+    }
+}
@@ -0,0 +1,110 @@
+package xyz.stackpancakes;
+
+import org.jline.reader.CompletingParsedLine;
+import org.jline.reader.ParsedLine;
+import org.jline.reader.Parser;
+
+import xyz.stackpancakes.shell.core.CommandLexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line parser for the line reader, built on {@link CommandLexer} so that
+ * completion splits words exactly the way the command will be run.  The words
+ * it reports are those of the command under the cursor only, so after a pipe,
+ * {@code &&} or {@code ;} the next word is completed as a command again.  It
+ * never rejects a line; an open quote is simply closed at the end.
+ */
+final class CommandLineParser implements Parser
+{
+    @Override
+    public ParsedLine parse(String line, int cursor, ParseContext context)
+    {
+        CommandLexer.Tokens tokens = CommandLexer.lex(line);
+
+        int from = 0;
+        for (int i = 0; i < tokens.size() && tokens.end(i) <= cursor; i++)
+            if (tokens.type(i) == CommandLexer.PIPE || CommandLexer.isConnector(tokens.type(i)))
+                from = i + 1;
+
+        int current = tokens.tokenAt(cursor);
+        if (current >= 0 && tokens.type(current) != CommandLexer.WORD)
+            current = -1;
+
+        List<String> words = new ArrayList<>();
+        int wordIndex = -1;
+        int rawStart = cursor;
+        int rawEnd = cursor;
+        boolean quoted = false;
+        for (int i = from; i < tokens.size(); i++)
+        {
+            int type = tokens.type(i);
+            if (type == CommandLexer.PIPE || CommandLexer.isConnector(type))
+                break;
+            if (wordIndex < 0 && current < 0 && tokens.start(i) >= cursor)
+            {
+                wordIndex = words.size();
+                words.add("");
+            }
+            if (type != CommandLexer.WORD)
+                continue;
+            if (i == current)
+            {
+                wordIndex = words.size();
+                rawStart = tokens.start(i);
+                rawEnd = tokens.end(i);
+                quoted = (tokens.flags(i) & CommandLexer.QUOTED) != 0;
+            }
+            words.add(tokens.text(i));
+        }
+        if (wordIndex < 0)
+        {
+            wordIndex = words.size();
+            words.add("");
+        }
+
+        int wordCursor = CommandLexer.unquote(line, rawStart, cursor).length();
+        return new Line(line, cursor, words, wordIndex, wordCursor, cursor - rawStart, rawEnd - rawStart, quoted);
+    }
+
+    @Override
+    public boolean isEscapeChar(char ch)
+    {
+        return ch == '^';
+    }
+
+    private record Line(String line, int cursor, List<String> words, int wordIndex, int wordCursor,
+                        int rawWordCursor, int rawWordLength, boolean quoted) implements CompletingParsedLine
+    {
+        @Override
+        public String word()
+        {
+            return words.get(wordIndex);
+        }
+
+        /**
+         * Puts a completed word in double quotes if it was typed with them
+         * or needs them, leaving the closing quote off while the word is not
+         * complete yet, such as a directory the user will type on from.
+         */
+        @Override
+        public CharSequence escape(CharSequence candidate, boolean complete)
+        {
+            if (!quoted && !needsQuotes(candidate))
+                return candidate;
+            return "\"" + candidate + (complete ? "\"" : "");
+        }
+
+        private static boolean needsQuotes(CharSequence candidate)
+        {
+            for (int i = 0; i < candidate.length(); i++)
+            {
+                char c = candidate.charAt(i);
+                if (Character.isWhitespace(c) || "|&<>;^\"".indexOf(c) >= 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+}
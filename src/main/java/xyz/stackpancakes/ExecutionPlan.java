@@ -0,0 +1,161 @@
+package xyz.stackpancakes;
+
+import xyz.stackpancakes.shell.core.CommandLexer;
+import xyz.stackpancakes.shell.core.CommandRegistry;
+import xyz.stackpancakes.shell.core.ParsedCommand;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A command line taken apart once so it can be run any number of times:
+ * the commands between {@code &&}, {@code ||}, {@code &} and {@code ;},
+ * each with the commands of its pipeline, their arguments, the built-in each
+ * name stands for and the files it redirects from and to.  Only the built-ins
+ * depend on the state of the shell, and only on the registry's generation,
+ * so a plan is cached by the text of the line.  What does depend on it, the
+ * executables found on the PATH and the redirect files resolved against the
+ * current directory, is kept per step in a {@link Resolution} that is only
+ * trusted while the directory and the PATH are the ones it was made with.
+ */
+final class ExecutionPlan
+{
+    record Stage(ParsedCommand command, CommandRegistry.Entry builtin) {}
+
+    /**
+     * Where the commands of a step and its redirect files were found.  An
+     * executable is {@code null} for a built-in.
+     */
+    record Resolution(Path directory, String pathVariable, Path[] executables, Path input, Path output)
+    {
+        boolean isFor(Path directory, String pathVariable)
+        {
+            return this.directory.equals(directory)
+                    && (this.pathVariable == null ? pathVariable == null : this.pathVariable.equals(pathVariable));
+        }
+    }
+
+    static final class Step
+    {
+        final int connector;
+        final List<Stage> stages;
+        final boolean pipeline;
+        final String inputFile;
+        final String outputFile;
+        final boolean append;
+        final String error;
+        volatile Resolution resolution;
+
+        private Step(int connector, List<Stage> stages, boolean pipeline, String inputFile, String outputFile, boolean append, String error)
+        {
+            this.connector = connector;
+            this.stages = stages;
+            this.pipeline = pipeline;
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.append = append;
+            this.error = error;
+        }
+    }
+
+    private final List<Step> steps;
+    private final int generation;
+
+    private ExecutionPlan(List<Step> steps, int generation)
+    {
+        this.steps = steps;
+        this.generation = generation;
+    }
+
+    List<Step> steps()
+    {
+        return steps;
+    }
+
+    /**
+     * The {@link CommandRegistry#generation()} the built-ins were looked up
+     * in.
+     */
+    int generation()
+    {
+        return generation;
+    }
+
+    static ExecutionPlan of(String line, CommandRegistry registry)
+    {
+        int generation = registry.generation();
+        CommandLexer.Tokens tokens = CommandLexer.lex(line);
+        List<Step> steps = new ArrayList<>();
+        int connector = CommandLexer.SEQUENCE;
+        int from = 0;
+        while (true)
+        {
+            int to = tokens.nextConnector(from);
+            steps.add(step(tokens, registry, connector, from, to));
+            if (to == tokens.size())
+                break;
+            connector = tokens.type(to);
+            from = to + 1;
+        }
+        return new ExecutionPlan(List.copyOf(steps), generation);
+    }
+
+    /**
+     * The commands of one pipeline.  Only the first may read from a file with
+     * {@code <} and only the last may write to one with {@code >} or
+     * {@code >>}.
+     */
+    private static Step step(CommandLexer.Tokens tokens, CommandRegistry registry, int connector, int from, int to)
+    {
+        List<Stage> stages = new ArrayList<>();
+        boolean pipeline = false;
+        String inputFile = null;
+        String outputFile = null;
+        boolean append = false;
+        int start = from;
+        for (int i = from; i <= to; i++)
+        {
+            if (i < to && tokens.type(i) != CommandLexer.PIPE)
+                continue;
+            pipeline |= i < to;
+            boolean first = start == from;
+            boolean last = i == to;
+            List<String> words = new ArrayList<>();
+            for (int j = start; j < i; j++)
+            {
+                int type = tokens.type(j);
+                if (type == CommandLexer.WORD)
+                {
+                    words.add(tokens.text(j));
+                    continue;
+                }
+                pipeline = true;
+                if (j + 1 >= i || tokens.type(j + 1) != CommandLexer.WORD)
+                    return failed(connector, "Error: Missing file name after '" + tokens.raw(j) + "'");
+                String file = tokens.text(++j);
+                if (type == CommandLexer.REDIRECT_IN && first)
+                    inputFile = file;
+                else if (type != CommandLexer.REDIRECT_IN && last)
+                {
+                    outputFile = file;
+                    append = type == CommandLexer.REDIRECT_APPEND;
+                }
+                else
+                    return failed(connector, "Error: Only the first command of a pipeline can read from a file and only the last can write to one");
+            }
+            if (!words.isEmpty())
+            {
+                String name = words.getFirst();
+                stages.add(new Stage(new ParsedCommand(name, words.subList(1, words.size())), registry.find(name)));
+            }
+            start = i + 1;
+        }
+        return new Step(connector, List.copyOf(stages), pipeline, inputFile, outputFile, append, null);
+    }
+
+    private static Step failed(int connector, String error)
+    {
+        return new Step(connector, List.of(), true, null, null, false, error);
+    }
+}
@@ -0,0 +1,288 @@
+package xyz.stackpancakes;
+
+import org.jline.reader.*;
+import org.jline.terminal.Terminal;
+
+import xyz.stackpancakes.shell.core.CommandRegistry;
+import xyz.stackpancakes.shell.core.ReservedWords;
+import xyz.stackpancakes.shell.util.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The interactive side of the shell: the JLine line reader with its parser,
+ * highlighter and completers, the prompt, and the read-eval loop.  It is
+ * kept apart from {@link Main} so that running a single command with
+ * {@code -e} never loads any of it.
+ */
+final class InteractiveShell
+{
+    private InteractiveShell() {}
+
+    private static Completer createCommandCompleter(CommandRegistry commands)
+    {
+        return (_, parsedLine, candidates) ->
+        {
+            String currentWord = parsedLine.word();
+            if (currentWord == null || currentWord.isEmpty())
+                return;
+
+            boolean toLower = Character.isLowerCase(currentWord.charAt(0));
+
+            for (CommandRegistry.Entry word : commands.entries())
+            {
+                String name = word.name();
+                String transformedName = toLower ? name.toLowerCase() : name.toUpperCase();
+                String comparedWord = toLower ? currentWord.toLowerCase() : currentWord.toUpperCase();
+
+                if (transformedName.startsWith(comparedWord))
+                    candidates.add(new Candidate(
+                            transformedName,
+                            transformedName,
+                            null,
+                            word.description(),
+                            null,
+                            null,
+                            false
+                    ));
+            }
+        };
+    }
+
+    private static Completer createCustomFileCompleter()
+    {
+        return (reader, parsedLine, candidates) ->
+        {
+            String buffer = parsedLine.word().substring(0, parsedLine.wordCursor());
+            String separator = reader.isSet(LineReader.Option.USE_FORWARD_SLASH) ? "/" : File.separator;
+            int lastSeparator = buffer.lastIndexOf(separator);
+            String prefix = lastSeparator >= 0 ? buffer.substring(0, lastSeparator + 1) : "";
+            boolean showHidden = buffer.substring(prefix.length()).startsWith(".");
+
+            MetadataCache.Listing listing;
+            try
+            {
+                listing = MetadataCache.list(resolveCompletionDirectory(prefix, separator));
+            }
+            catch (IOException | RuntimeException e)
+            {
+                return;
+            }
+
+            for (MetadataCache.EntryInfo entry : listing.entries())
+            {
+                if (entry.name().startsWith(".") && !showHidden)
+                    continue;
+
+                String value = prefix + entry.name();
+
+                if (entry.directory())
+                {
+                    String completed = value + (reader.isSet(LineReader.Option.AUTO_PARAM_SLASH) ? separator : "");
+                    String displ = Ansi.withBackground(
+                            Ansi.withForeground(completed, Ansi.Foreground.WHITE),
+                            Ansi.Background.BLUE
+                    );
+
+                    candidates.add(new Candidate(
+                            completed,
+                            displ,
+                            null,
+                            "Directory",
+                            reader.isSet(LineReader.Option.AUTO_REMOVE_SLASH) ? separator : null,
+                            null,
+                            false
+                    ));
+
+                    continue;
+                }
+
+                if (entry.executable())
+                {
+                    String displ = Ansi.withForeground(value, Ansi.Foreground.GREEN);
+
+                    candidates.add(new Candidate(
+                            value,
+                            displ,
+                            null,
+                            "Executable",
+                            null,
+                            null,
+                            true
+                    ));
+
+                    continue;
+                }
+
+                candidates.add(new Candidate(value, value, null, null, null, null, true));
+            }
+        };
+    }
+
+    private static Path resolveCompletionDirectory(String prefix, String separator)
+    {
+        if (prefix.startsWith("~"))
+        {
+            Path home = Paths.get(FileSystemUtils.getHomeDirectory());
+            if (prefix.startsWith("~" + separator))
+                return home.resolve(prefix.substring(2));
+            return home.getParent().resolve(prefix.substring(1));
+        }
+        return CurrentDirectory.get().resolve(prefix);
+    }
+
+    private static Completer createPathExecutableCompleter()
+    {
+        return (_, parsedLine, candidates) ->
+        {
+            String pathEnv = Environment.get("PATH");
+            if (pathEnv == null || pathEnv.isEmpty())
+                return;
+
+            String currentWord = parsedLine.word();
+            if (currentWord == null || currentWord.isEmpty())
+                return;
+
+            String[] pathDirs = pathEnv.split(File.pathSeparator);
+            Set<String> executables = new HashSet<>();
+
+            for (String pathDir : pathDirs)
+            {
+                if (pathDir.isEmpty())
+                    continue;
+
+                try
+                {
+                    for (MetadataCache.EntryInfo entry : MetadataCache.list(Paths.get(pathDir)).entries())
+                        if (entry.regularFile() && entry.executable() && entry.name().startsWith(currentWord))
+                            executables.add(entry.name());
+                }
+                catch (IOException | RuntimeException ignored)
+                {
+                }
+            }
+
+            for (String exe : executables)
+                candidates.add(new Candidate(
+                        exe,
+                        Ansi.withForeground(exe, Ansi.Foreground.GREEN),
+                        null,
+                        "PATH executable",
+                        null,
+                        null,
+                        false
+                ));
+        };
+    }
+
+    private static Completer createFallbackCompleter(CommandRegistry commands)
+    {
+        Completer commandCompleter = createCommandCompleter(commands);
+        TimeBoxedCompleter fileCompleter = new TimeBoxedCompleter("files", createCustomFileCompleter());
+        TimeBoxedCompleter pathCompleter = new TimeBoxedCompleter("path", createPathExecutableCompleter());
+
+        return (reader, parsedLine, candidates) ->
+        {
+            int before = candidates.size();
+
+            commandCompleter.complete(reader, parsedLine, candidates);
+
+            if (candidates.size() == before || parsedLine.wordIndex() > 0)
+            {
+                if (parsedLine.wordIndex() == 0)
+                    TimeBoxedCompleter.completeAll(reader, parsedLine, candidates, pathCompleter, fileCompleter);
+                else
+                    TimeBoxedCompleter.completeAll(reader, parsedLine, candidates, fileCompleter);
+            }
+        };
+    }
+
+    static void run(REPL repl)
+    {
+        run(repl, TerminalShare.getSharedTerminal());
+    }
+
+    /**
+     * Runs the shell of one session of the session server on the terminal of
+     * its client.  EXIT ends only that session.
+     */
+    static int serve(Terminal terminal)
+    {
+        try
+        {
+            run(new REPL(code -> { throw new Main.ExitRequest(code); }), terminal);
+            return 0;
+        }
+        catch (Main.ExitRequest e)
+        {
+            return e.code;
+        }
+    }
+
+    private static void run(REPL repl, Terminal terminal)
+    {
+        CommandRegistry commands = REPL.getRegistry();
+
+        LineReader reader = LineReaderBuilder.builder()
+                .terminal(terminal)
+                .parser(new CommandLineParser())
+                .highlighter(new CommandLineHighlighter(commands))
+                .completer(createFallbackCompleter(commands))
+                .option(LineReader.Option.INSERT_TAB, false)
+                .option(LineReader.Option.DISABLE_EVENT_EXPANSION, true)
+                .option(LineReader.Option.CASE_INSENSITIVE, true)
+                .build();
+
+        repl.executeCommand("ver");
+
+        while (true)
+        {
+            String prompt = getString(commands);
+            String input;
+
+            try
+            {
+                input = reader.readLine(prompt);
+            }
+            catch (UserInterruptException e)
+            {
+                System.out.printf("^C%nInterrupted.%n");
+                continue;
+            }
+            catch (EndOfFileException e)
+            {
+                break;
+            }
+
+            if (input == null || input.isBlank())
+                continue;
+
+            reader.getHistory().add(input);
+
+            if (repl.executeCommand(input))
+                System.out.flush();
+        }
+    }
+
+    private static String getString(CommandRegistry commands)
+    {
+        String home = FileSystemUtils.getHomeDirectory();
+        String currentDir = CurrentDirectory.get().toString();
+
+        String prompt;
+
+        if (commands.contains(ReservedWords.WHEREAMI.name()))
+            prompt = currentDir + Ansi.withForeground("> ", Ansi.Foreground.YELLOW);
+        else
+            prompt = "> ";
+
+        if (home != null && !home.isEmpty() && prompt.startsWith(home))
+            prompt = Ansi.withForeground("~", Ansi.Foreground.GREEN) + prompt.substring(home.length());
+
+        return prompt;
+    }
+}
@@ -1,194 +1,63 @@
 package xyz.stackpancakes;
 
-import org.jline.builtins.Completers;
-import org.jline.reader.*;
-import org.jline.reader.impl.DefaultParser;
-import org.jline.terminal.Terminal;
-import org.jline.terminal.TerminalBuilder;
-
-import xyz.stackpancakes.shell.core.CommandResult;
-import xyz.stackpancakes.shell.core.ReservedWords;
+import xyz.stackpancakes.shell.daemon.DaemonClient;
+import xyz.stackpancakes.shell.daemon.DaemonServer;
+import xyz.stackpancakes.shell.daemon.SessionClient;
+import xyz.stackpancakes.shell.daemon.SessionServer;
 import xyz.stackpancakes.shell.util.*;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.Console;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Stream;
-
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Entry point.  With {@code -e} the command runs headless: nothing but the
+ * command table is set up, and the terminal is only created if a command
+ * actually asks for it.  When standard input and output are not a terminal
+ * the JLine classes are never loaded at all.  {@code -f} runs a script the
+ * same way, every line in this one process.  {@code --daemon} keeps a
+ * headless shell running for {@code --client}, which hands its command to
+ * that daemon instead of starting the shell, or runs it itself when no
+ * daemon is listening.  {@code --server} hosts interactive shells for any
+ * number of {@code --attach} clients in this one process.  Without any of
+ * these the interactive shell starts.
+ */
 public final class Main
 {
     private Main() {}
 
-    private static Completer createCommandCompleter(Map<ReservedWords, ?> commands)
-    {
-        return (_, parsedLine, candidates) ->
-        {
-            String currentWord = parsedLine.word();
-            if (currentWord == null || currentWord.isEmpty())
-                return;
+    private static final String USAGE = "usage: jcmdshell [--client] [(-e <command> | -e=<command> | --EXECUTE <command>) | (-f <script> | -f=<script> | --FILE <script>)]\n"
+            + "       jcmdshell --daemon [--idle <minutes>]\n"
+            + "       jcmdshell --server | --attach\n"
+            + "       a script of - is read from standard input";
+    private static final long DEFAULT_IDLE_MINUTES = 30;
 
-            boolean toLower = Character.isLowerCase(currentWord.charAt(0));
+    private record Options(String eval, String script, boolean daemon, boolean client, boolean server, boolean attach, long idleMinutes) {}
 
-            for (ReservedWords word : commands.keySet())
-            {
-                String name = word.name();
-                String transformedName = toLower ? name.toLowerCase() : name.toUpperCase();
-                String comparedWord = toLower ? currentWord.toLowerCase() : currentWord.toUpperCase();
-
-                if (transformedName.startsWith(comparedWord))
-                    candidates.add(new Candidate(
-                            transformedName,
-                            transformedName,
-                            null,
-                            word.info(),
-                            null,
-                            null,
-                            false
-                    ));
-            }
-        };
-    }
-
-    private static Completer createCustomFileCompleter()
+    static final class ExitRequest extends RuntimeException
     {
-        Completer originalFileCompleter = new Completers.FileNameCompleter();
+        final int code;
 
-        return (reader, parsedLine, candidates) ->
+        ExitRequest(int code)
         {
-            List<Candidate> temp = new ArrayList<>();
-            originalFileCompleter.complete(reader, parsedLine, temp);
-
-            for (Candidate c : temp)
-            {
-                String value = c.value();
-
-                if (value != null && !value.isEmpty())
-                {
-                    Path p = Paths.get(value);
-                    if (!p.isAbsolute())
-                        p = CurrentDirectory.get().resolve(p).normalize();
-
-                    if (Files.isDirectory(p))
-                    {
-                        String displ = Ansi.withBackground(
-                                Ansi.withForeground(c.value(), Ansi.Foreground.WHITE),
-                                Ansi.Background.BLUE
-                        );
-
-                        candidates.add(new Candidate(
-                                c.value(),
-                                displ,
-                                c.group(),
-                                "Directory",
-                                c.suffix(),
-                                c.key(),
-                                c.complete()
-                        ));
-
-                        continue;
-                    }
-
-                    if (FileSystemUtils.isExecutable(p))
-                    {
-                        String displ = Ansi.withForeground(c.value(), Ansi.Foreground.GREEN);
-
-                        candidates.add(new Candidate(
-                                c.value(),
-                                displ,
-                                c.group(),
-                                "Executable",
-                                c.suffix(),
-                                c.key(),
-                                c.complete()
-                        ));
-
-                        continue;
-                    }
-                }
-
-                candidates.add(c);
-            }
-        };
-    }
-
-    private static Completer createPathExecutableCompleter()
-    {
-        return (_, parsedLine, candidates) ->
-        {
-            String pathEnv = System.getenv("PATH");
-            if (pathEnv == null || pathEnv.isEmpty())
-                return;
-
-            String currentWord = parsedLine.word();
-            if (currentWord == null || currentWord.isEmpty())
-                return;
-
-            String[] pathDirs = pathEnv.split(File.pathSeparator);
-            Set<String> executables = new HashSet<>();
-
-            for (String pathDir : pathDirs)
-            {
-                Path dirPath = Paths.get(pathDir);
-                if (!Files.isDirectory(dirPath))
-                    continue;
-
-                try (Stream<Path> stream = Files.list(dirPath))
-                {
-                    stream.filter(Files::isRegularFile)
-                            .filter(FileSystemUtils::isExecutable)
-                            .map(p -> p.getFileName().toString())
-                            .filter(name -> name.startsWith(currentWord))
-                            .forEach(executables::add);
-                }
-                catch (IOException ignored)
-                {
-                }
-            }
-
-            for (String exe : executables)
-                candidates.add(new Candidate(
-                        exe,
-                        Ansi.withForeground(exe, Ansi.Foreground.GREEN),
-                        null,
-                        "PATH executable",
-                        null,
-                        null,
-                        false
-                ));
-        };
+            super(null, null, false, false);
+            this.code = code;
+        }
     }
 
-    private static Completer createFallbackCompleter(Map<ReservedWords, ?> commands)
+    public static void main(String[] args)
     {
-        Completer commandCompleter = createCommandCompleter(commands);
-        Completer fileCompleter = createCustomFileCompleter();
-        Completer pathCompleter = createPathExecutableCompleter();
-
-        return (reader, parsedLine, candidates) ->
-        {
-            int before = candidates.size();
-
-            commandCompleter.complete(reader, parsedLine, candidates);
-
-            if (candidates.size() == before || parsedLine.wordIndex() > 0)
-            {
-                if (parsedLine.wordIndex() == 0)
-                {
-                    pathCompleter.complete(reader, parsedLine, candidates);
-                    fileCompleter.complete(reader, parsedLine, candidates);
-                }
-                else
-                    fileCompleter.complete(reader, parsedLine, candidates);
-            }
-        };
-    }
+        Options options = parseOptions(args);
+        if (options == null)
+            usage();
 
-    public static void main(String[] args) throws IOException
-    {
         try
         {
             StartupDirectory.ensureStartupDirectory();
@@ -201,137 +70,235 @@ public final class Main
             );
         }
 
-        REPL repl = new REPL();
-
-        Terminal terminal = TerminalBuilder.builder()
-                .system(true)
-                .build();
-
-        TerminalShare.setSharedTerminal(terminal);
-
-        Map<ReservedWords, Function<List<String>, CommandResult>> commands = REPL.getCommands();
-
-        DefaultParser parser = new DefaultParser();
-        parser.setEscapeChars(new char[0]);
-
-        terminal.handle(Terminal.Signal.INT, _ -> FileSystemUtils.interruptCurrentProcess());
-
-        LineReader reader = LineReaderBuilder.builder()
-                .terminal(terminal)
-                .parser(parser)
-                .completer(createFallbackCompleter(commands))
-                .option(LineReader.Option.INSERT_TAB, false)
-                .option(LineReader.Option.DISABLE_EVENT_EXPANSION, true)
-                .option(LineReader.Option.CASE_INSENSITIVE, true)
-                .build();
-
-        String eval = getString(args);
+        if (options.client())
+        {
+            List<String> forwarded = new ArrayList<>(List.of(args));
+            forwarded.removeIf(a -> a.equalsIgnoreCase("--client"));
+            try
+            {
+                OptionalInt code = DaemonClient.run(forwarded);
+                if (code.isPresent())
+                    System.exit(code.getAsInt());
+            }
+            catch (IOException e)
+            {
+                ErrorPrinter.print(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
 
-        if (eval != null)
+        if (options.daemon())
         {
-            if (!repl.executeCommand(eval))
+            TerminalShare.setHeadless(true);
+            try
+            {
+                System.out.println("Listening on " + DaemonServer.socket());
+                DaemonServer.serve(Duration.ofMinutes(options.idleMinutes()), Main::serveInvocation);
+            }
+            catch (IOException e)
             {
-                PrinterUtils.printFormatted("", System.err);
+                ErrorPrinter.print(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
                 System.exit(1);
             }
-            PrinterUtils.printFormatted("", System.out);
             System.exit(0);
         }
 
-        repl.executeCommand("ver");
-
-        while (true)
+        if (options.attach())
         {
-            String prompt = getString(commands);
-            String input;
-
             try
             {
-                input = reader.readLine(prompt);
+                System.exit(SessionClient.attach());
             }
-            catch (UserInterruptException e)
+            catch (IOException e)
             {
-                System.out.printf("^C%nInterrupted.%n");
-                continue;
+                ErrorPrinter.print(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+                System.exit(1);
             }
-            catch (EndOfFileException e)
+        }
+
+        if (options.server())
+        {
+            TerminalShare.setHeadless(true);
+            try
             {
-                break;
+                System.out.println("Listening on " + SessionServer.socket());
+                SessionServer.serve(InteractiveShell::serve);
             }
+            catch (IOException e)
+            {
+                ErrorPrinter.print(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
 
-            if (input == null || input.isBlank())
-                continue;
+        if (options.eval() != null || options.script() != null)
+        {
+            Console console = System.console();
+            TerminalShare.setHeadless(console == null || !console.isTerminal());
+            System.exit(runHeadless(options, new REPL()));
+        }
 
-            reader.getHistory().add(input);
+        InteractiveShell.run(new REPL());
+    }
 
-            if (repl.executeCommand(input))
-                System.out.flush();
+    private static int runHeadless(Options options, REPL repl)
+    {
+        if (options.script() != null)
+            return runScript(options.script(), repl);
+        if (!repl.executeCommand(options.eval()))
+        {
+            PrinterUtils.printFormatted("", System.err);
+            return 1;
         }
+        PrinterUtils.printFormatted("", System.out);
+        return 0;
     }
 
-    private static String getString(String[] args)
+    /**
+     * Runs one invocation forwarded by a client.  EXIT must not end the
+     * daemon, so it unwinds only the invocation, with the exit code.
+     */
+    private static int serveInvocation(List<String> args)
+    {
+        Options options = parseOptions(args.toArray(String[]::new));
+        if (options == null || options.daemon() || options.server() || options.attach() || (options.eval() == null && options.script() == null))
+        {
+            PrinterUtils.printFormatted(USAGE, System.err);
+            return 2;
+        }
+        try
+        {
+            return runHeadless(options, new REPL(code -> { throw new ExitRequest(code); }));
+        }
+        catch (ExitRequest e)
+        {
+            return e.code;
+        }
+    }
+
+    private static int runScript(String script, REPL repl)
+    {
+        try (BufferedReader reader = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(CurrentDirectory.get().resolve(script), StandardCharsets.UTF_8))
+        {
+            return ScriptRunner.run(repl, reader);
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.print(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": Cannot read script: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Returns the parsed options, or {@code null} when the arguments are not
+     * valid.
+     */
+    private static Options parseOptions(String[] args)
     {
         String eval = null;
+        String script = null;
+        boolean daemon = false;
+        boolean client = false;
+        boolean server = false;
+        boolean attach = false;
+        long idleMinutes = DEFAULT_IDLE_MINUTES;
+        boolean idleGiven = false;
 
         for (int i = 0; i < args.length; i++)
         {
             String a = args[i];
 
-            if (a.equals("-e"))
+            if (a.equals("-e") || a.equalsIgnoreCase("--EXECUTE"))
             {
-                if (eval != null)
-                    usage();
-                if (i + 1 >= args.length)
-                    usage();
+                if (eval != null || script != null || i + 1 >= args.length)
+                    return null;
                 eval = args[++i];
                 continue;
             }
 
-            if (a.equalsIgnoreCase("--EXECUTE"))
+            if (a.startsWith("-e="))
             {
-                if (eval != null)
-                    usage();
-                if (i + 1 >= args.length)
-                    usage();
-                eval = args[++i];
+                if (eval != null || script != null)
+                    return null;
+                eval = a.substring(3);
                 continue;
             }
 
-            if (a.startsWith("-e="))
+            if (a.equals("-f") || a.equalsIgnoreCase("--FILE"))
             {
-                if (eval != null)
-                    usage();
-                eval = a.substring(3);
+                if (eval != null || script != null || i + 1 >= args.length)
+                    return null;
+                script = args[++i];
                 continue;
             }
 
-            usage();
-        }
+            if (a.startsWith("-f="))
+            {
+                if (eval != null || script != null)
+                    return null;
+                script = a.substring(3);
+                continue;
+            }
 
-        return eval;
-    }
+            if (a.equalsIgnoreCase("--DAEMON"))
+            {
+                daemon = true;
+                continue;
+            }
 
-    private static String getString(Map<ReservedWords, Function<List<String>, CommandResult>> commands)
-    {
-        String home = FileSystemUtils.getHomeDirectory();
-        String currentDir = CurrentDirectory.get().toString();
+            if (a.equalsIgnoreCase("--CLIENT"))
+            {
+                client = true;
+                continue;
+            }
 
-        String prompt;
+            if (a.equalsIgnoreCase("--SERVER"))
+            {
+                server = true;
+                continue;
+            }
+
+            if (a.equalsIgnoreCase("--ATTACH"))
+            {
+                attach = true;
+                continue;
+            }
 
-        if (commands.containsKey(ReservedWords.WHEREAMI))
-            prompt = currentDir + Ansi.withForeground("> ", Ansi.Foreground.YELLOW);
-        else
-            prompt = "> ";
+            if (a.equalsIgnoreCase("--IDLE"))
+            {
+                if (i + 1 >= args.length)
+                    return null;
+                try
+                {
+                    idleMinutes = Long.parseLong(args[++i]);
+                }
+                catch (NumberFormatException e)
+                {
+                    return null;
+                }
+                if (idleMinutes < 0)
+                    return null;
+                idleGiven = true;
+                continue;
+            }
 
-        if (home != null && !home.isEmpty() && prompt.startsWith(home))
-            prompt = Ansi.withForeground("~", Ansi.Foreground.GREEN) + prompt.substring(home.length());
+            return null;
+        }
 
-        return prompt;
+        boolean command = eval != null || script != null;
+        if (daemon && (command || client) || client && !command || idleGiven && !daemon)
+            return null;
+        if ((server || attach) && (command || client || daemon || server && attach))
+            return null;
+        return new Options(eval, script, daemon, client, server, attach, idleMinutes);
     }
 
     private static void usage()
     {
-        PrinterUtils.printFormatted("usage: jcmdshell [(-e <command> | -e=<command> | --EXECUTE <command>)]", System.err);
+        PrinterUtils.printFormatted(USAGE, System.err);
         System.exit(2);
     }
 }
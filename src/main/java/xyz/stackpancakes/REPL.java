@@ -1,13 +1,15 @@
 package xyz.stackpancakes;
 
-import xyz.stackpancakes.shell.command.*;
-import xyz.stackpancakes.shell.command.function.FunctionCommands;
+import xyz.stackpancakes.shell.command.BuiltinCommands;
+import xyz.stackpancakes.shell.core.CommandLexer;
 import xyz.stackpancakes.shell.core.ParsedCommand;
-import xyz.stackpancakes.shell.core.ReservedWords;
+import xyz.stackpancakes.shell.core.CommandRegistry;
 import xyz.stackpancakes.shell.core.CommandResult;
+import xyz.stackpancakes.shell.core.ShellSession;
 import xyz.stackpancakes.shell.util.*;
 
 import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.InputStream;
@@ -18,7 +20,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.function.Function;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntConsumer;
 
 public final class REPL
 {
@@ -26,74 +29,151 @@ public final class REPL
     public static final byte MINOR = 1;
     public static final byte PATCH = 0;
 
-    private static final Map<ReservedWords, Function<List<String>, CommandResult>> commands = new EnumMap<>(ReservedWords.class);
+    private static final CommandRegistry registry = CommandRegistry.load(new BuiltinCommands());
+    private static final int PLAN_CACHE_SIZE = 256;
+    private static final int MAX_CACHED_LINE = 4096;
+    private static final LruCache<String, ExecutionPlan> plans = new LruCache<>(PLAN_CACHE_SIZE);
+
+    private final ShellSession session;
+    private final IntConsumer exit;
 
     public REPL()
     {
-        register(ReservedWords.DIR, args -> new ListDirectoriesCommand().execute(args));
-        register(ReservedWords.CHDIR, args -> new ChangeDirectoriesCommand().execute(args));
-        register(ReservedWords.COPY, args -> new CopyCommand().execute(args));
-        register(ReservedWords.DELETE, args -> new RemoveCommand().execute(args));
-        register(ReservedWords.MKDIR, args -> new MakeDirectoriesCommand().execute(args));
-        register(ReservedWords.RMDIR, args -> new RemoveDirectoriesCommand().execute(args));
-        register(ReservedWords.RENAME, args -> new RenameCommand().execute(args));
-        register(ReservedWords.HELP, _ -> FunctionCommands.helpCommand());
-        register(ReservedWords.NEW, FunctionCommands::newCommand);
-        register(ReservedWords.SHOW, FunctionCommands::showCommand);
-        register(ReservedWords.VERSION, _ -> FunctionCommands.versionCommand());
-        register(ReservedWords.PRINT, FunctionCommands::printCommand);
-        register(ReservedWords.MCD, FunctionCommands::MCDCommand);
-        register(ReservedWords.EXIT, _ -> { System.exit(0); return CommandResult.Exit; });
-        register(ReservedWords.CLEAR, _ -> { System.out.print(Ansi.CLEAR_SCREEN); return CommandResult.Success; });
-        register(ReservedWords.WHEREAMI, _ -> { System.out.println(CurrentDirectory.get()); return CommandResult.Success; });
-        register(ReservedWords.PAUSE, _ ->
-        {
-            try
-            {
-                ConsoleUtils.getch();
-            }
-            catch (Exception e)
-            {
-                throw new RuntimeException(e);
-            }
-            return CommandResult.Success;
-        });
-        alias(ReservedWords.VER, ReservedWords.VERSION);
-        alias(ReservedWords.CD, ReservedWords.CHDIR);
-        alias(ReservedWords.CLS, ReservedWords.CLEAR);
-        alias(ReservedWords.DEL, ReservedWords.DELETE);
-        alias(ReservedWords.ERASE, ReservedWords.DELETE);
-        alias(ReservedWords.MD, ReservedWords.MKDIR);
-        alias(ReservedWords.RD, ReservedWords.RMDIR);
-        alias(ReservedWords.REN, ReservedWords.RENAME);
+        this(System::exit);
     }
 
-    private void register(ReservedWords word, Function<List<String>, CommandResult> fn)
+    /**
+     * Creates the shell with {@code exit} in place of {@link System#exit} for
+     * the EXIT command, for hosts such as the daemon that must outlive the
+     * command.  Commands run in the session of the calling thread.
+     */
+    public REPL(IntConsumer exit)
     {
-        commands.put(word, fn);
+        this(null, exit);
     }
 
-    private void alias(ReservedWords alias, ReservedWords target)
+    /**
+     * Creates a shell whose commands always run in {@code session}, whichever
+     * thread calls it, for programs that embed the shell and keep one session
+     * per user.  Shells on different sessions can run at the same time.
+     */
+    public REPL(ShellSession session, IntConsumer exit)
     {
-        commands.put(alias, commands.get(target));
+        this.session = session;
+        this.exit = exit;
     }
 
     public boolean executeCommand(String input)
     {
         if (input == null || input.isBlank())
             return true;
+        if (session != null && session != ShellSession.current())
+            return session.call(() -> executeCommand(input));
+
+        ShellSession.current().addHistory(input);
+        Cancellation.reset();
+        ExecutionPlan plan = plans.get(input);
+        if (plan == null || plan.generation() != registry.generation())
+        {
+            plan = ExecutionPlan.of(input, registry);
+            if (input.length() <= MAX_CACHED_LINE)
+                plans.put(input, plan);
+        }
+        List<ExecutionPlan.Step> steps = plan.steps();
+        if (steps.size() == 1)
+            return execute(steps.getFirst());
+        return executeChain(steps);
+    }
+
+    /**
+     * Runs the commands of a line joined by {@code &&}, {@code ||}, {@code &}
+     * or {@code ;}.  A command after {@code &&} only runs if the one before
+     * it succeeded and after {@code ||} only if it failed.
+     */
+    private boolean executeChain(List<ExecutionPlan.Step> steps)
+    {
+        boolean ok = true;
+        for (ExecutionPlan.Step step : steps)
+        {
+            if (step.connector == CommandLexer.SEQUENCE || (step.connector == CommandLexer.AND) == ok)
+                ok = execute(step);
+            if (Cancellation.isRequested())
+                break;
+        }
+        return ok;
+    }
+
+    private boolean execute(ExecutionPlan.Step step)
+    {
+        if (step.error != null)
+            return pipelineError(step.error);
+        if (step.stages.isEmpty())
+            return true;
+        ExecutionPlan.Resolution resolution = resolve(step);
+        if (step.pipeline)
+            return executePipeline(step, resolution);
+        return executeSimple(step.stages.getFirst(), resolution.executables()[0]);
+    }
 
-        String trimmed = input.trim();
-        if (trimmed.contains("|") || trimmed.contains(">") || trimmed.contains("<"))
-            return executePipeline(trimmed);
+    /**
+     * Finds the executables of a step and its redirect files, or reuses what
+     * was found the last time it ran if the current directory, the PATH and
+     * the built-ins are still the same.  A command that was not found is
+     * looked up again next time.
+     */
+    private ExecutionPlan.Resolution resolve(ExecutionPlan.Step step)
+    {
+        Path directory = CurrentDirectory.get();
+        String pathVariable = Environment.get("PATH");
+        ExecutionPlan.Resolution resolution = step.resolution;
+        if (resolution != null && resolution.isFor(directory, pathVariable) && stillOnPath(step, resolution))
+            return resolution;
+
+        boolean complete = true;
+        Path[] executables = new Path[step.stages.size()];
+        for (int i = 0; i < executables.length; i++)
+        {
+            ExecutionPlan.Stage stage = step.stages.get(i);
+            String name = stage.command().command();
+            if (isPathLike(name))
+                executables[i] = directory.resolve(name).normalize();
+            else if (stage.builtin() == null)
+            {
+                executables[i] = findInPath(name).orElse(null);
+                complete &= executables[i] != null;
+            }
+        }
+        Path input = step.inputFile == null ? null : directory.resolve(step.inputFile).normalize();
+        Path output = step.outputFile == null ? null : directory.resolve(step.outputFile).normalize();
+        resolution = new ExecutionPlan.Resolution(directory, pathVariable, executables, input, output);
+        if (complete)
+            step.resolution = resolution;
+        return resolution;
+    }
 
-        ParsedCommand parsed = parseArgs(trimmed);
+    /**
+     * Whether the executables found on the PATH are still there.  Starting
+     * the process costs far more than this check.
+     */
+    private static boolean stillOnPath(ExecutionPlan.Step step, ExecutionPlan.Resolution resolution)
+    {
+        for (int i = 0; i < resolution.executables().length; i++)
+        {
+            Path executable = resolution.executables()[i];
+            if (executable != null && !isPathLike(step.stages.get(i).command().command()) && !Files.isRegularFile(executable))
+                return false;
+        }
+        return true;
+    }
 
+    private boolean executeSimple(ExecutionPlan.Stage stage, Path executable)
+    {
+        ParsedCommand parsed = stage.command();
         if (isPathLike(parsed.command()))
         {
             try
             {
-                Path cmdPath = CurrentDirectory.get().resolve(parsed.command()).normalize();
+                Path cmdPath = executable;
                 if (Files.isDirectory(cmdPath))
                 {
                     ErrorPrinter.setLastError("Error: '" + parsed.command() + "' is a directory");
@@ -114,11 +194,10 @@ public final class REPL
             }
         }
 
-        ReservedWords word = ReservedWords.fromString(parsed.command());
-        Function<List<String>, CommandResult> cmd = commands.get(word);
+        CommandRegistry.Entry cmd = stage.builtin();
         if (cmd != null)
         {
-            CommandResult result = cmd.apply(parsed.args());
+            CommandResult result = apply(cmd, parsed.args());
             if (result != CommandResult.Success)
             {
                 ErrorPrinter.print(ErrorPrinter.getLastError().orElse(""));
@@ -133,55 +212,32 @@ public final class REPL
             return true;
         }
 
-        Optional<Path> pathCommand = findInPath(parsed.command());
-        if (pathCommand.isPresent())
-            return FileSystemUtils.executeExecutable(pathCommand.get(), parsed.args());
+        if (executable != null)
+            return FileSystemUtils.executeExecutable(executable, parsed.args());
 
         ErrorPrinter.setLastError("Error: '" + parsed.command() + "' not found or not executable");
         System.err.println(ErrorPrinter.getLastError().orElse(""));
         return false;
     }
 
-    private ParsedCommand parseArgs(String input)
-    {
-        String[] parts = input.trim().split("\\s+", 2);
-        String cmd = parts[0];
-        String argsStr = parts.length > 1 ? parts[1] : "";
-        if (!isPathLike(cmd))
-            cmd = cmd.toUpperCase(Locale.ROOT);
-        List<String> args = splitQuotedArgs(argsStr);
-        return new ParsedCommand(cmd, args);
-    }
-
-    private List<String> splitQuotedArgs(String inputStr)
+    private CommandResult apply(CommandRegistry.Entry command, List<String> args)
     {
-        List<String> tokens = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-        for (char c : inputStr.toCharArray())
+        OutputPrinter.clearLastOutput();
+        try
         {
-            if (c == '"')
-            {
-                inQuotes = !inQuotes;
-                continue;
-            }
-            if (Character.isWhitespace(c) && !inQuotes)
-            {
-                if (!current.isEmpty())
-                {
-                    tokens.add(current.toString());
-                    current.setLength(0);
-                }
-            }
-            else
-                current.append(c);
+            CommandResult result = command.run(args);
+            if (result == CommandResult.Exit)
+                exit.accept(0);
+            return result;
+        }
+        catch (CancellationException e)
+        {
+            ErrorPrinter.setLastError("^C" + System.lineSeparator() + "Interrupted.");
+            return CommandResult.Interrupted;
         }
-        if (!current.isEmpty())
-            tokens.add(current.toString());
-        return tokens;
     }
 
-    private boolean isPathLike(String cmd)
+    private static boolean isPathLike(String cmd)
     {
         if (cmd == null || cmd.isEmpty())
             return false;
@@ -194,14 +250,22 @@ public final class REPL
         return cmd.length() >= 2 && cmd.charAt(1) == ':';
     }
 
-    public static Map<ReservedWords, Function<List<String>, CommandResult>> getCommands()
+    /**
+     * The session commands run in when called from this thread.
+     */
+    ShellSession session()
     {
-        return Collections.unmodifiableMap(commands);
+        return session == null ? ShellSession.current() : session;
+    }
+
+    public static CommandRegistry getRegistry()
+    {
+        return registry;
     }
 
     private Optional<Path> findInPath(String command)
     {
-        String pathEnv = System.getenv("PATH");
+        String pathEnv = Environment.get("PATH");
         if (pathEnv == null)
             return Optional.empty();
         String[] pathDirs = pathEnv.split(File.pathSeparator);
@@ -228,54 +292,18 @@ public final class REPL
         return Optional.empty();
     }
 
-    private boolean executePipeline(String commandLine)
+    /**
+     * Runs commands joined by pipes, passing the output of each to the next
+     * as its input, with the first reading from and the last writing to the
+     * redirect files of the step, if any.
+     */
+    private boolean executePipeline(ExecutionPlan.Step step, ExecutionPlan.Resolution resolution)
     {
         try
         {
-            List<String> segments = getStrings(commandLine);
-            if (segments.isEmpty())
-                return true;
-
-            String first = segments.getFirst();
-            Path inputFile = null;
-            {
-                List<String> tokens = splitQuotedArgs(first);
-                List<String> cleaned = new ArrayList<>();
-                for (int i = 0; i < tokens.size(); i++)
-                {
-                    String token = tokens.get(i);
-                    if (token.equals("<") && i + 1 < tokens.size())
-                    {
-                        String fname = tokens.get(i + 1);
-                        inputFile = CurrentDirectory.get().resolve(fname).normalize();
-                        i++;
-                    }
-                    else
-                        cleaned.add(token);
-                }
-                segments.set(0, String.join(" ", cleaned));
-            }
-
-            String last = segments.getLast();
-            Path outputFile = null;
-            boolean append = false;
-            {
-                List<String> tokens = splitQuotedArgs(last);
-                List<String> cleaned = new ArrayList<>();
-                for (int i = 0; i < tokens.size(); i++)
-                {
-                    String token = tokens.get(i);
-                    if ((token.equals(">") || token.equals(">>")) && i + 1 < tokens.size())
-                    {
-                        outputFile = CurrentDirectory.get().resolve(tokens.get(i + 1)).normalize();
-                        append = token.equals(">>");
-                        i++;
-                    }
-                    else
-                        cleaned.add(token);
-                }
-                segments.set(segments.size() - 1, String.join(" ", cleaned));
-            }
+            Path inputFile = resolution.input();
+            Path outputFile = resolution.output();
+            boolean append = step.append;
 
             byte[] data;
             if (inputFile != null)
@@ -283,34 +311,35 @@ public final class REPL
             else
                 data = new byte[0];
 
-            for (String segCmd : segments)
+            for (int i = 0; i < step.stages.size(); i++)
             {
-                String seg = segCmd.trim();
-                if (seg.isEmpty())
-                    continue;
-
-                ParsedCommand pc = parseArgs(seg);
+                ExecutionPlan.Stage stage = step.stages.get(i);
+                ParsedCommand pc = stage.command();
+                Path executable = resolution.executables()[i];
                 byte[] output;
 
                 if (!isPathLike(pc.command()))
                 {
-                    String cmdStr = pc.command().toUpperCase(Locale.ROOT);
-                    Function<List<String>, CommandResult> fn = commands.get(ReservedWords.fromString(cmdStr));
+                    CommandRegistry.Entry fn = stage.builtin();
                     if (fn != null)
                     {
                         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                        PrintStream originalOut = System.out;
+                        ShellSession current = ShellSession.current();
+                        PrintStream originalOut = current.out();
+                        InputStream originalIn = current.in();
                         PrintStream ps = new PrintStream(buffer);
-                        System.setOut(ps);
+                        current.setOut(ps);
+                        current.setIn(new ByteArrayInputStream(data));
                         CommandResult res;
                         try
                         {
-                            res = fn.apply(pc.args());
+                            res = apply(fn, pc.args());
                         }
                         finally
                         {
                             ps.flush();
-                            System.setOut(originalOut);
+                            current.setOut(originalOut);
+                            current.setIn(originalIn);
                         }
                         output = buffer.toByteArray();
 
@@ -330,18 +359,14 @@ public final class REPL
                     }
                     else
                     {
-                        Optional<Path> pathCmd = findInPath(pc.command());
-                        if (pathCmd.isPresent())
-                            output = runExternal(pathCmd.get().toString(), pc.args(), data);
+                        if (executable != null)
+                            output = runExternal(executable.toString(), pc.args(), data);
                         else
                             output = runExternal(pc.command(), pc.args(), data);
                     }
                 }
                 else
-                {
-                    Path abs = CurrentDirectory.get().resolve(pc.command()).normalize();
-                    output = runExternal(abs.toString(), pc.args(), data);
-                }
+                    output = runExternal(executable.toString(), pc.args(), data);
 
                 data = output;
             }
@@ -356,41 +381,25 @@ public final class REPL
             else
             {
                 if (data.length > 0)
+                {
                     System.out.write(data);
+                    System.out.flush();
+                }
             }
 
             return true;
         }
         catch (IOException e)
         {
-            ErrorPrinter.setLastError("Pipeline execution failed: " + e.getMessage());
-            return false;
+            return pipelineError("Pipeline execution failed: " + e.getMessage());
         }
     }
 
-    private static List<String> getStrings(String commandLine)
+    private static boolean pipelineError(String message)
     {
-        List<String> segments = new ArrayList<>();
-        StringBuilder seg = new StringBuilder();
-        boolean inQuotes = false;
-        for (char c : commandLine.toCharArray())
-        {
-            if (c == '"')
-            {
-                inQuotes = !inQuotes;
-                seg.append(c);
-                continue;
-            }
-            if (c == '|' && !inQuotes)
-            {
-                segments.add(seg.toString().trim());
-                seg.setLength(0);
-            }
-            else
-                seg.append(c);
-        }
-        segments.add(seg.toString().trim());
-        return segments;
+        ErrorPrinter.setLastError(message);
+        System.err.println(message);
+        return false;
     }
 
     private byte[] runExternal(String command, List<String> args, byte[] input)
@@ -402,6 +411,7 @@ public final class REPL
             cmdLine.addAll(args);
             ProcessBuilder pb = new ProcessBuilder(cmdLine);
             pb.directory(CurrentDirectory.get().toFile());
+            Environment.applyTo(pb);
             pb.redirectError(ProcessBuilder.Redirect.PIPE);
             Process process = pb.start();
             if (input != null && input.length > 0)
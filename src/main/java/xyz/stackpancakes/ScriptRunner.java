@@ -0,0 +1,210 @@
+package xyz.stackpancakes;
+
+import xyz.stackpancakes.shell.core.CommandLexer;
+import xyz.stackpancakes.shell.core.ShellSession;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a script of shell commands, one or more per line, in a single
+ * process.  Lines may chain commands with {@code &&}, {@code ||}, {@code ;}
+ * and {@code &}, and support the batch-file forms {@code REM} and
+ * {@code ::} comments, a leading {@code @}, {@code IF [NOT] ERRORLEVEL n}
+ * and {@code EXIT [/B] [n]}.  The error level is 0 after a command that
+ * succeeded and the exit code of an external command, or 1, after one that
+ * failed.  Standard output is buffered for the whole run and only flushed
+ * when something is about to be written to standard error, so the two
+ * streams still appear in order.
+ */
+final class ScriptRunner
+{
+    private static final int OUTPUT_BUFFER = 64 * 1024;
+    private static final Pattern IF_ERRORLEVEL = Pattern.compile("(?i)IF\\s+(NOT\\s+)?ERRORLEVEL\\s+(\\d{1,9})\\s+(.+)");
+
+    private enum Connector { ALWAYS, AND, OR }
+
+    private record Step(Connector connector, String command) {}
+
+    private final REPL repl;
+    private int errorLevel;
+
+    private ScriptRunner(REPL repl)
+    {
+        this.repl = repl;
+    }
+
+    /**
+     * Runs every line of {@code script} and returns the exit status of the
+     * script: the code given to {@code EXIT}, or the error level left by the
+     * last command.
+     */
+    static int run(REPL repl, BufferedReader script) throws IOException
+    {
+        ShellSession session = repl.session();
+        PrintStream originalOut = session.out();
+        PrintStream originalErr = session.err();
+        PrintStream out = new PrintStream(new BufferedOutputStream(originalOut, OUTPUT_BUFFER), false);
+        PrintStream err = new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                out.flush();
+                originalErr.write(b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                out.flush();
+                originalErr.write(b, off, len);
+            }
+            @Override
+            public void flush()
+            {
+                originalErr.flush();
+            }
+        }, true);
+        session.setOut(out);
+        session.setErr(err);
+        try
+        {
+            ScriptRunner runner = new ScriptRunner(repl);
+            String line;
+            while ((line = script.readLine()) != null)
+            {
+                Integer exit = runner.runLine(line);
+                if (exit != null)
+                    return exit;
+            }
+            return runner.errorLevel;
+        }
+        finally
+        {
+            out.flush();
+            session.setOut(originalOut);
+            session.setErr(originalErr);
+        }
+    }
+
+    private Integer runLine(String line)
+    {
+        String trimmed = stripAt(line.strip());
+        if (trimmed.isEmpty() || trimmed.startsWith(":") || isKeyword(trimmed, "REM"))
+            return null;
+        for (Step step : split(trimmed))
+        {
+            if (step.connector() == Connector.AND && errorLevel != 0)
+                continue;
+            if (step.connector() == Connector.OR && errorLevel == 0)
+                continue;
+            Integer exit = runCommand(stripAt(step.command()));
+            if (exit != null)
+                return exit;
+        }
+        return null;
+    }
+
+    private Integer runCommand(String command)
+    {
+        if (command.isEmpty() || isKeyword(command, "REM"))
+            return null;
+        if (isKeyword(command, "IF"))
+            return runIf(command);
+        if (isKeyword(command, "EXIT"))
+            return exitCode(command);
+        String lower = command.toLowerCase(Locale.ROOT);
+        if (lower.equals("echo off") || lower.equals("echo on"))
+            return null;
+        boolean ok = repl.executeCommand(command);
+        int code = repl.session().takeLastExitCode();
+        errorLevel = ok ? 0 : (code > 0 ? code : 1);
+        return null;
+    }
+
+    /**
+     * {@code IF [NOT] ERRORLEVEL n command} runs the command when the error
+     * level is at least {@code n}, or below it with {@code NOT}.
+     */
+    private Integer runIf(String command)
+    {
+        Matcher m = IF_ERRORLEVEL.matcher(command);
+        if (!m.matches())
+        {
+            System.err.println("Error: Unsupported IF condition: " + command);
+            errorLevel = 1;
+            return null;
+        }
+        boolean negate = m.group(1) != null;
+        if ((errorLevel >= Integer.parseInt(m.group(2))) != negate)
+            return runCommand(m.group(3));
+        return null;
+    }
+
+    private Integer exitCode(String command)
+    {
+        String[] words = command.split("\\s+");
+        for (int i = 1; i < words.length; i++)
+        {
+            if (words[i].equalsIgnoreCase("/B"))
+                continue;
+            try
+            {
+                return Integer.parseInt(words[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                break;
+            }
+        }
+        return errorLevel;
+    }
+
+    /**
+     * Splits a line at the {@code &&}, {@code ||}, {@code ;} and {@code &}
+     * the {@link CommandLexer} finds, keeping each command as it was typed.
+     */
+    private static List<Step> split(String line)
+    {
+        List<Step> steps = new ArrayList<>();
+        CommandLexer.Tokens tokens = CommandLexer.lex(line);
+        Connector connector = Connector.ALWAYS;
+        int start = 0;
+        int from = 0;
+        while (true)
+        {
+            int to = tokens.nextConnector(from);
+            int end = to < tokens.size() ? tokens.start(to) : line.length();
+            steps.add(new Step(connector, line.substring(start, end).strip()));
+            if (to == tokens.size())
+                return steps;
+            connector = switch (tokens.type(to))
+            {
+                case CommandLexer.AND -> Connector.AND;
+                case CommandLexer.OR -> Connector.OR;
+                default -> Connector.ALWAYS;
+            };
+            start = tokens.end(to);
+            from = to + 1;
+        }
+    }
+
+    private static String stripAt(String command)
+    {
+        return command.startsWith("@") ? command.substring(1).strip() : command;
+    }
+
+    private static boolean isKeyword(String command, String keyword)
+    {
+        return command.regionMatches(true, 0, keyword, 0, keyword.length())
+                && (command.length() == keyword.length() || Character.isWhitespace(command.charAt(keyword.length())));
+    }
+}
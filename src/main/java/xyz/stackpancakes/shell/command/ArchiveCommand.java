@@ -0,0 +1,231 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.ArchiveEntry;
+import xyz.stackpancakes.shell.util.Batch;
+import xyz.stackpancakes.shell.util.CopyEngine;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.Glob;
+import xyz.stackpancakes.shell.util.MetadataCache;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.util.ProgressReporter;
+import xyz.stackpancakes.shell.util.TarArchive;
+import xyz.stackpancakes.shell.util.ZipArchive;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Creates and extracts ZIP and gzip-compressed tar archives without any
+ * external tools.  Compression runs on all cores: ZIP entries are deflated
+ * side by side and large files, like the whole tar stream of a
+ * {@code .tar.gz}, are deflated in parallel blocks.  The format is chosen
+ * from the archive name when creating and from its first bytes when
+ * extracting.  A new archive is written under a temporary name and only
+ * renamed into place once it is complete.
+ */
+public final class ArchiveCommand implements Command
+{
+    private static final String USAGE = "ARCHIVE [-j <threads>] [-0..-9] <archive.zip | archive.tar.gz> <source>..."
+            + " | ARCHIVE -x [-j <threads>] <archive> [<destination>]";
+
+    private enum Format { ZIP, TAR_GZ }
+
+    private record ArchiveOptions(boolean extract, int parallelism, int level, Path archive, List<String> operands) {}
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        try
+        {
+            ArchiveOptions options = parseArguments(args);
+            return options.extract() ? extract(options) : create(options);
+        }
+        catch (InvalidArgumentsException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.InvalidSyntax;
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+    }
+    private ArchiveOptions parseArguments(List<String> args) throws InvalidArgumentsException
+    {
+        boolean extract = false;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int level = Deflater.DEFAULT_COMPRESSION;
+        List<String> operands = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++)
+        {
+            String arg = args.get(i);
+            if (arg.equalsIgnoreCase("-x"))
+                extract = true;
+            else if (arg.equalsIgnoreCase("-j"))
+            {
+                if (i + 1 >= args.size())
+                    throw new InvalidArgumentsException(USAGE);
+                parallelism = parsePositive(args.get(++i));
+            }
+            else if (arg.length() == 2 && arg.charAt(0) == '-' && Character.isDigit(arg.charAt(1)))
+                level = arg.charAt(1) - '0';
+            else if (arg.startsWith("-") && arg.length() > 1)
+                throw new InvalidArgumentsException("Unknown option: " + arg);
+            else
+                operands.add(arg);
+        }
+        if (operands.isEmpty() || (extract ? operands.size() > 2 : operands.size() < 2))
+            throw new InvalidArgumentsException(USAGE);
+        Path archive = CurrentDirectory.get().resolve(operands.getFirst()).normalize();
+        return new ArchiveOptions(extract, parallelism, level, archive, operands.subList(1, operands.size()));
+    }
+    private static int parsePositive(String value) throws InvalidArgumentsException
+    {
+        try
+        {
+            int n = Integer.parseInt(value);
+            if (n > 0)
+                return n;
+        }
+        catch (NumberFormatException ignored) {}
+        throw new InvalidArgumentsException("Thread count must be a positive number: " + value);
+    }
+    private CommandResult create(ArchiveOptions options) throws IOException, InvalidArgumentsException
+    {
+        Path archive = options.archive();
+        String name = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        Format format;
+        if (name.endsWith(".zip"))
+            format = Format.ZIP;
+        else if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+            format = Format.TAR_GZ;
+        else
+            throw new InvalidArgumentsException("The archive name must end in .zip, .tar.gz or .tgz: " + archive.getFileName());
+
+        Path partial = archive.resolveSibling(archive.getFileName() + CopyEngine.PARTIAL_SUFFIX);
+        List<ArchiveEntry> entries = new ArrayList<>();
+        for (Path source : expandSources(options.operands()))
+            ArchiveEntry.collect(source, archive, entries);
+        entries.removeIf(entry -> entry.path().equals(partial));
+        long files = 0;
+        long bytes = 0;
+        for (ArchiveEntry entry : entries)
+        {
+            if (entry.attributes().isRegularFile())
+            {
+                files++;
+                bytes += entry.attributes().size();
+            }
+        }
+
+        try (ProgressReporter progress = ProgressReporter.start("Archiving", files, bytes))
+        {
+            if (format == Format.ZIP)
+                ZipArchive.create(partial, entries, options.parallelism(), options.level(), progress);
+            else
+                TarArchive.create(partial, entries, options.parallelism(), options.level(), progress);
+            Files.move(partial, archive, StandardCopyOption.REPLACE_EXISTING);
+            MetadataCache.invalidateEntry(archive);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        OutputPrinter.setLastOutput(String.format("Archived %d files (%d bytes) into %s (%d bytes).%n",
+                files, bytes, archive.getFileName(), Files.size(archive)));
+        return CommandResult.Success;
+    }
+    private static List<Path> expandSources(List<String> operands) throws IOException
+    {
+        List<Path> sources = new ArrayList<>();
+        for (String operand : operands)
+        {
+            if (Glob.isPattern(CurrentDirectory.get(), operand))
+            {
+                if (Glob.compile(CurrentDirectory.get(), operand).forEach(sources::add) == 0)
+                    throw new IOException("File Not Found: " + operand);
+                continue;
+            }
+            Path source = CurrentDirectory.get().resolve(operand).normalize();
+            if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS))
+                throw new IOException("The system cannot find the path specified: " + operand);
+            sources.add(source);
+        }
+        return sources;
+    }
+    private CommandResult extract(ArchiveOptions options) throws IOException
+    {
+        Path archive = options.archive();
+        if (!Files.isRegularFile(archive))
+        {
+            ErrorPrinter.setLastError("The system cannot find the file specified: " + archive);
+            return CommandResult.PathNotFound;
+        }
+        Path destination = options.operands().isEmpty() ? CurrentDirectory.get()
+                : CurrentDirectory.get().resolve(options.operands().getFirst()).normalize();
+        Format format = detectFormat(archive);
+        if (format == null)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": Not a ZIP or TAR.GZ archive: " + archive.getFileName());
+            return CommandResult.Failure;
+        }
+        Files.createDirectories(destination);
+        List<Batch.Failure> failures;
+        try (ProgressReporter progress = ProgressReporter.start("Extracting", 0, 0))
+        {
+            failures = format == Format.ZIP
+                    ? ZipArchive.extract(archive, destination, options.parallelism(), progress)
+                    : TarArchive.extract(archive, destination, options.parallelism(), progress);
+        }
+        finally
+        {
+            MetadataCache.invalidateTree(destination);
+        }
+        if (!failures.isEmpty())
+        {
+            StringBuilder sb = new StringBuilder(Ansi.withForeground("Error", Ansi.Foreground.RED))
+                    .append(": ").append(failures.size()).append(" entries could not be extracted.");
+            for (Batch.Failure failure : failures)
+                sb.append(System.lineSeparator()).append("  ").append(failure.target()).append(": ").append(failure.message());
+            ErrorPrinter.setLastError(sb.toString());
+            return CommandResult.Failure;
+        }
+        OutputPrinter.setLastOutput("Extracted " + archive.getFileName() + " into " + destination + System.lineSeparator());
+        return CommandResult.Success;
+    }
+    private static Format detectFormat(Path archive) throws IOException
+    {
+        byte[] magic;
+        try (InputStream in = Files.newInputStream(archive))
+        {
+            magic = in.readNBytes(4);
+        }
+        if (magic.length >= 4 && magic[0] == 'P' && magic[1] == 'K' && (magic[2] == 3 || magic[2] == 5))
+            return Format.ZIP;
+        if (magic.length >= 2 && (magic[0] & 0xFF) == 0x1f && (magic[1] & 0xFF) == 0x8b)
+            return Format.TAR_GZ;
+        return null;
+    }
+    private static final class InvalidArgumentsException extends Exception
+    {
+        public InvalidArgumentsException(String message)
+        {
+            super(message);
+        }
+    }
+}
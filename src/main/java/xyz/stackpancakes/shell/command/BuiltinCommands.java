@@ -0,0 +1,84 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.command.function.FunctionCommands;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandProvider;
+import xyz.stackpancakes.shell.core.CommandRegistry;
+import xyz.stackpancakes.shell.core.CommandResult;
+import xyz.stackpancakes.shell.core.ReservedWords;
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.ConsoleUtils;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+
+import java.util.function.Supplier;
+
+/**
+ * The commands that ship with the shell, named by {@link ReservedWords}.
+ * Each factory is a lambda, so a command class is loaded the first time the
+ * command runs.  {@code EXIT} only reports {@link CommandResult#Exit}; the
+ * shell running it decides what exiting means.
+ */
+public final class BuiltinCommands implements CommandProvider
+{
+    @Override
+    public void registerCommands(CommandRegistry registry)
+    {
+        register(registry, ReservedWords.DIR, () -> new ListDirectoriesCommand());
+        register(registry, ReservedWords.CHDIR, () -> new ChangeDirectoriesCommand());
+        register(registry, ReservedWords.Z, () -> args -> new ChangeDirectoriesCommand().jump(args));
+        register(registry, ReservedWords.COPY, () -> new CopyCommand());
+        register(registry, ReservedWords.DELETE, () -> new RemoveCommand());
+        register(registry, ReservedWords.MKDIR, () -> new MakeDirectoriesCommand());
+        register(registry, ReservedWords.RMDIR, () -> new RemoveDirectoriesCommand());
+        register(registry, ReservedWords.RENAME, () -> new RenameCommand());
+        register(registry, ReservedWords.MOVE, () -> new MoveCommand());
+        register(registry, ReservedWords.ARCHIVE, () -> new ArchiveCommand());
+        register(registry, ReservedWords.SYNC, () -> new SyncCommand());
+        register(registry, ReservedWords.THROTTLE, () -> new ThrottleCommand());
+        register(registry, ReservedWords.COMPARE, () -> new CompareCommand());
+        register(registry, ReservedWords.FC, () -> new FileCompareCommand());
+        register(registry, ReservedWords.DUPES, () -> new DuplicatesCommand());
+        register(registry, ReservedWords.INDEX, () -> new IndexCommand());
+        register(registry, ReservedWords.LOCATE, () -> new LocateCommand());
+        register(registry, ReservedWords.HELP, () -> _ -> FunctionCommands.helpCommand(registry));
+        register(registry, ReservedWords.NEW, () -> args -> FunctionCommands.newCommand(args));
+        register(registry, ReservedWords.SHOW, () -> args -> FunctionCommands.showCommand(args));
+        register(registry, ReservedWords.VERSION, () -> _ -> FunctionCommands.versionCommand());
+        register(registry, ReservedWords.PRINT, () -> args -> FunctionCommands.printCommand(args));
+        register(registry, ReservedWords.MCD, () -> args -> FunctionCommands.MCDCommand(args));
+        register(registry, ReservedWords.EXIT, () -> _ -> CommandResult.Exit);
+        register(registry, ReservedWords.CLEAR, () -> _ -> { System.out.print(Ansi.CLEAR_SCREEN); return CommandResult.Success; });
+        register(registry, ReservedWords.WHEREAMI, () -> _ -> { System.out.println(CurrentDirectory.get()); return CommandResult.Success; });
+        register(registry, ReservedWords.PAUSE, () -> _ ->
+        {
+            try
+            {
+                ConsoleUtils.getch();
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+            return CommandResult.Success;
+        });
+        alias(registry, ReservedWords.VER, ReservedWords.VERSION);
+        alias(registry, ReservedWords.CD, ReservedWords.CHDIR);
+        alias(registry, ReservedWords.CLS, ReservedWords.CLEAR);
+        alias(registry, ReservedWords.DEL, ReservedWords.DELETE);
+        alias(registry, ReservedWords.DIFFDIR, ReservedWords.COMPARE);
+        alias(registry, ReservedWords.ERASE, ReservedWords.DELETE);
+        alias(registry, ReservedWords.MD, ReservedWords.MKDIR);
+        alias(registry, ReservedWords.RD, ReservedWords.RMDIR);
+        alias(registry, ReservedWords.REN, ReservedWords.RENAME);
+    }
+
+    private static void register(CommandRegistry registry, ReservedWords word, Supplier<Command> factory)
+    {
+        registry.register(word.name(), word.info(), factory);
+    }
+
+    private static void alias(CommandRegistry registry, ReservedWords alias, ReservedWords target)
+    {
+        registry.alias(alias.name(), target.name());
+    }
+}
@@ -4,6 +4,8 @@ import xyz.stackpancakes.shell.util.Ansi;
 import xyz.stackpancakes.shell.util.CurrentDirectory;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
 import xyz.stackpancakes.shell.util.FileSystemUtils;
+import xyz.stackpancakes.shell.util.FrecencyDatabase;
+import xyz.stackpancakes.shell.util.MetadataCache;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 
@@ -12,12 +14,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Optional;
 
 public final class ChangeDirectoriesCommand implements Command
 {
     @Override
     public CommandResult execute(List<String> args)
     {
+        if (args != null && !args.isEmpty() && isJumpOption(args.getFirst()))
+            return jump(args.subList(1, args.size()));
         try
         {
             Path target = resolveTargetDirectory(args);
@@ -34,6 +39,39 @@ public final class ChangeDirectoriesCommand implements Command
             return CommandResult.Failure;
         }
     }
+    public CommandResult jump(List<String> terms)
+    {
+        try
+        {
+            return changeDirectory(resolveFrecentDirectory(terms));
+        }
+        catch (InvalidArgumentsException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.InvalidSyntax;
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.PathNotFound;
+        }
+    }
+    private static boolean isJumpOption(String option)
+    {
+        return option.equalsIgnoreCase("-j") || option.equalsIgnoreCase("--jump");
+    }
+    private Path resolveFrecentDirectory(List<String> terms) throws InvalidArgumentsException, IOException
+    {
+        if (terms.isEmpty())
+            throw new InvalidArgumentsException("CD -j <fragment>...");
+        for (Path candidate : FrecencyDatabase.query(terms))
+        {
+            if (Files.isDirectory(candidate))
+                return candidate.toRealPath();
+            FrecencyDatabase.remove(candidate);
+        }
+        throw new IOException("No visited directory matches: " + String.join(" ", terms));
+    }
     private Path resolveTargetDirectory(List<String> args) throws InvalidArgumentsException, IOException
     {
         if (args == null || args.isEmpty())
@@ -74,9 +112,10 @@ public final class ChangeDirectoriesCommand implements Command
         if (target.isAbsolute())
             return target.toRealPath();
         Path resolved = currentDir.resolve(target).normalize();
-        if (!Files.exists(resolved))
+        Optional<MetadataCache.EntryInfo> info = MetadataCache.lookup(resolved);
+        if (info.isEmpty())
             throw new IOException("The system cannot find the path specified: " + targetPath);
-        if (!Files.isDirectory(resolved))
+        if (!info.get().directory())
             throw new IOException("The directory name is invalid: " + targetPath);
         return resolved.toRealPath();
     }
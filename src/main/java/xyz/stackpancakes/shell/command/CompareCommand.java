@@ -0,0 +1,201 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CopyEngine;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.FileHashing;
+import xyz.stackpancakes.shell.util.IoThrottle;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Compares two directory trees entry by entry.  Both sides of every directory
+ * are listed concurrently and matched by relative path; files of equal size
+ * are compared first by a head/tail partial hash and only then by a full hash.
+ * Added ({@code +}), removed ({@code -}) and changed ({@code ~}) entries are
+ * printed as soon as they are found, as is ({@code !}) every file that could
+ * not be read; any of those makes the compare fail, since it is incomplete.
+ */
+public final class CompareCommand implements Command
+{
+    private static final String USAGE = "COMPARE [--quick] <left> <right>";
+
+    private record Entry(boolean directory, long size) {}
+
+    private final Object printLock = new Object();
+    private final AtomicInteger added = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private final AtomicInteger identical = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private PrintStream out;
+    private boolean quick;
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        List<String> operands = new ArrayList<>();
+        for (String arg : args)
+        {
+            if (arg.equalsIgnoreCase("--quick"))
+                quick = true;
+            else if (arg.startsWith("-") && arg.length() > 1)
+            {
+                ErrorPrinter.setLastError(Ansi.withForeground("Unknown option", Ansi.Foreground.RED) + ": " + arg);
+                return CommandResult.UnknownOption;
+            }
+            else
+                operands.add(arg);
+        }
+        if (operands.size() != 2)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + USAGE);
+            return CommandResult.InvalidSyntax;
+        }
+        Path left = CurrentDirectory.get().resolve(operands.get(0)).normalize();
+        Path right = CurrentDirectory.get().resolve(operands.get(1)).normalize();
+        for (Path root : List.of(left, right))
+            if (!Files.isDirectory(root))
+            {
+                ErrorPrinter.setLastError("The system cannot find the directory specified: " + root);
+                return CommandResult.PathNotFound;
+            }
+        out = System.out;
+        try (ExecutorService hashers = Executors.newFixedThreadPool(CopyEngine.defaultParallelism(), IoThrottle.workerThreadFactory("compare")))
+        {
+            compareDirectory(left, right, "", hashers);
+        }
+        catch (UncheckedIOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+        String summary = String.format("%d added, %d removed, %d changed, %d identical, %d failed",
+                added.get(), removed.get(), changed.get(), identical.get(), failed.get());
+        if (failed.get() > 0)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + summary);
+            return CommandResult.Failure;
+        }
+        OutputPrinter.setLastOutput(summary + System.lineSeparator());
+        return CommandResult.Success;
+    }
+    private void compareDirectory(Path left, Path right, String relative, ExecutorService hashers)
+    {
+        Cancellation.check();
+        CompletableFuture<Map<String, Entry>> rightListing = CompletableFuture.supplyAsync(() -> list(right),
+                task -> Thread.ofVirtual().start(task));
+        Map<String, Entry> leftEntries = list(left);
+        Map<String, Entry> rightEntries;
+        try
+        {
+            rightEntries = rightListing.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof UncheckedIOException cause)
+                throw cause;
+            throw e;
+        }
+
+        List<String> subdirectories = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : leftEntries.entrySet())
+        {
+            String name = e.getKey();
+            String rel = relative.isEmpty() ? name : relative + "/" + name;
+            Entry l = e.getValue();
+            Entry r = rightEntries.remove(name);
+            if (r == null)
+                report(removed, "-", rel, l, Ansi.Foreground.RED);
+            else if (l.directory() != r.directory())
+                report(changed, "~", rel, r, Ansi.Foreground.YELLOW);
+            else if (l.directory())
+                subdirectories.add(name);
+            else if (l.size() != r.size())
+                report(changed, "~", rel, r, Ansi.Foreground.YELLOW);
+            else
+                hashers.execute(() -> compareContent(left.resolve(name), right.resolve(name), rel, l.size()));
+        }
+        for (Map.Entry<String, Entry> e : rightEntries.entrySet())
+            report(added, "+", relative.isEmpty() ? e.getKey() : relative + "/" + e.getKey(), e.getValue(), Ansi.Foreground.GREEN);
+        for (String name : subdirectories)
+            compareDirectory(left.resolve(name), right.resolve(name), relative.isEmpty() ? name : relative + "/" + name, hashers);
+    }
+    private void compareContent(Path left, Path right, String relative, long size)
+    {
+        if (Cancellation.isRequested())
+            return;
+        try
+        {
+            boolean same = FileHashing.partialHash(left, size, FileHashing.DEFAULT_WINDOW)
+                    .equals(FileHashing.partialHash(right, size, FileHashing.DEFAULT_WINDOW));
+            if (same && !quick && size > 2L * FileHashing.DEFAULT_WINDOW)
+                same = FileHashing.fullHash(left).equals(FileHashing.fullHash(right));
+            if (same)
+                identical.incrementAndGet();
+            else
+                report(changed, "~", relative, new Entry(false, size), Ansi.Foreground.YELLOW);
+        }
+        catch (IOException e)
+        {
+            failed.incrementAndGet();
+            synchronized (printLock)
+            {
+                out.println(Ansi.withForeground("!", Ansi.Foreground.RED) + " " + relative + ": " + e.getMessage());
+            }
+        }
+    }
+    private void report(AtomicInteger counter, String marker, String relative, Entry entry, Ansi.Foreground color)
+    {
+        counter.incrementAndGet();
+        synchronized (printLock)
+        {
+            out.println(Ansi.withForeground(marker, color) + " " + relative + (entry.directory() ? "/" : ""));
+        }
+    }
+    private static Map<String, Entry> list(Path dir)
+    {
+        Map<String, Entry> entries = new TreeMap<>();
+        try (Stream<Path> stream = Files.list(dir))
+        {
+            stream.forEach(p ->
+            {
+                try
+                {
+                    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    entries.put(p.getFileName().toString(), new Entry(attrs.isDirectory(), attrs.size()));
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+}
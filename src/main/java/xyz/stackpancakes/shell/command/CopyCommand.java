@@ -1,21 +1,32 @@
 package xyz.stackpancakes.shell.command;
 
 import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Batch;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CopyEngine;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.Glob;
+import xyz.stackpancakes.shell.util.MetadataCache;
+import xyz.stackpancakes.shell.util.ProgressReporter;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Stream;
 
 /**
  * Copies files and directories.  Supports a recursive flag ({@code -r} or
- * {@code --recursive}) to copy directories and their contents.
+ * {@code --recursive}) to copy directories and their contents.  A source
+ * containing wildcards copies every match into the destination directory,
+ * as do several sources, which may also be listed in a file
+ * ({@code @file}) or read from standard input ({@code -}).
  */
-record CopyArgs(String source, String destination, boolean recursive) {}
+record CopyArgs(List<String> sources, String destination, boolean recursive) {}
 
 public final class CopyCommand implements Command
 {
@@ -40,18 +51,17 @@ public final class CopyCommand implements Command
     }
     private CopyArgs parseArguments(List<String> args) throws InvalidArgumentsException
     {
-        if (args == null)
-            throw new InvalidArgumentsException("COPY [--RECURSIVE | -r] <source> <destination>");
-        if (args.size() == 2)
-            return new CopyArgs(args.get(0), args.get(1), false);
-        if (args.size() == 3)
-        {
-            boolean recursive = isRecursiveOption(args.get(0));
-            if (!recursive)
-                throw new InvalidArgumentsException("Unknown option: " + args.get(0));
-            return new CopyArgs(args.get(1), args.get(2), true);
-        }
-        throw new InvalidArgumentsException("COPY [--RECURSIVE | -r] <source> <destination>");
+        String usage = "COPY [--RECURSIVE | -r] <source>... <destination>";
+        if (args == null || args.size() < 2)
+            throw new InvalidArgumentsException(usage);
+        boolean recursive = isRecursiveOption(args.getFirst());
+        List<String> operands = recursive ? args.subList(1, args.size()) : args;
+        String first = operands.getFirst();
+        if (!recursive && first.startsWith("-") && first.length() > 1)
+            throw new InvalidArgumentsException("Unknown option: " + first);
+        if (operands.size() < 2)
+            throw new InvalidArgumentsException(usage);
+        return new CopyArgs(operands.subList(0, operands.size() - 1), operands.getLast(), recursive);
     }
     private boolean isRecursiveOption(String option)
     {
@@ -59,25 +69,124 @@ public final class CopyCommand implements Command
     }
     private CommandResult performCopy(CopyArgs args) throws CopyFailedException
     {
-        Path source = Paths.get(args.source());
-        Path dest = Paths.get(args.destination());
+        // One progress line for the whole command, which the sources of a
+        // batch add to from their own workers.
+        try (ProgressReporter progress = ProgressReporter.start("Copying", 0, 0))
+        {
+            return performCopy(args, progress);
+        }
+    }
+    private CommandResult performCopy(CopyArgs args, ProgressReporter progress) throws CopyFailedException
+    {
+        if (Batch.isBatch(args.sources()))
+            return copyAll(args, progress);
+        String pattern = args.sources().getFirst();
+        if (Glob.isPattern(CurrentDirectory.get(), pattern))
+        {
+            Path destDir = destinationDirectory(args.destination());
+            List<String> failures = new ArrayList<>();
+            if (copyMatches(pattern, destDir, args.recursive(), failures, progress) == 0)
+                throw new CopyFailedException("The system cannot find the file specified: " + pattern);
+            if (!failures.isEmpty())
+                throw new CopyFailedException(String.join(System.lineSeparator(), failures));
+            return CommandResult.Success;
+        }
+        Path source = CurrentDirectory.get().resolve(pattern);
+        Path dest = CurrentDirectory.get().resolve(args.destination());
         if (!Files.exists(source))
             throw new CopyFailedException("The system cannot find the path specified: " + source);
+        copyPath(source, dest, args.recursive(), progress);
+        return CommandResult.Success;
+    }
+    private CommandResult copyAll(CopyArgs args, ProgressReporter progress) throws CopyFailedException
+    {
+        List<String> sources;
         try
         {
-            if (args.recursive())
+            sources = Batch.expandTargets(args.sources());
+        }
+        catch (Exception e)
+        {
+            throw new CopyFailedException("The system cannot read the source list: " + e.getMessage());
+        }
+        Path destDir = destinationDirectory(args.destination());
+        List<Batch.Failure> failures = Batch.runAll(sources, source ->
+        {
+            if (Glob.isPattern(CurrentDirectory.get(), source))
+            {
+                List<String> matchFailures = new ArrayList<>();
+                if (copyMatches(source, destDir, args.recursive(), matchFailures, progress) == 0)
+                    throw new CopyFailedException("The system cannot find the file specified.");
+                if (!matchFailures.isEmpty())
+                    throw new CopyFailedException(String.join("; ", matchFailures));
+                return;
+            }
+            Path path = CurrentDirectory.get().resolve(source).normalize();
+            if (!Files.exists(path))
+                throw new CopyFailedException("The system cannot find the path specified.");
+            if (Files.isDirectory(path) && !args.recursive())
+                throw new CopyFailedException("The source is a directory. Use -r to copy recursively.");
+            copyPath(path, destDir.resolve(path.getFileName().toString()), args.recursive(), progress);
+        });
+        if (failures.isEmpty())
+            return CommandResult.Success;
+        ErrorPrinter.setLastError(Batch.describe("copied", sources.size(), failures));
+        return CommandResult.Failure;
+    }
+    private Path destinationDirectory(String destination) throws CopyFailedException
+    {
+        Path destDir = CurrentDirectory.get().resolve(destination).normalize();
+        try
+        {
+            Files.createDirectories(destDir);
+            MetadataCache.invalidateEntry(destDir);
+        }
+        catch (Exception e)
+        {
+            throw new CopyFailedException("The destination must be a directory: " + destDir);
+        }
+        return destDir;
+    }
+    private long copyMatches(String pattern, Path destDir, boolean recursive, List<String> failures, ProgressReporter progress)
+    {
+        return Glob.compile(CurrentDirectory.get(), pattern).forEach(source ->
+        {
+            if (source.startsWith(destDir) || (Files.isDirectory(source) && !recursive))
+                return;
+            try
+            {
+                copyPath(source, destDir.resolve(source.getFileName().toString()), recursive, progress);
+            }
+            catch (CopyFailedException e)
+            {
+                failures.add(source + ": " + e.getMessage());
+            }
+        });
+    }
+    private void copyPath(Path source, Path dest, boolean recursive, ProgressReporter progress) throws CopyFailedException
+    {
+        try
+        {
+            if (recursive)
             {
                 try (Stream<Path> paths = Files.walk(source))
                 {
                     paths.forEach(p ->
                     {
+                        Cancellation.check();
                         try
                         {
                             Path target = dest.resolve(source.relativize(p));
                             if (Files.isDirectory(p))
+                            {
                                 Files.createDirectories(target);
+                                MetadataCache.invalidateEntry(target);
+                            }
                             else
-                                Files.copy(p, target, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                            {
+                                CopyEngine.copyFile(p, target);
+                                progress.step(Files.size(target));
+                            }
                         }
                         catch (Exception ex)
                         {
@@ -88,9 +197,14 @@ public final class CopyCommand implements Command
             }
             else
             {
-                Files.copy(source, dest, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                CopyEngine.copyFile(source, dest);
+                progress.step(Files.size(dest));
             }
         }
+        catch (CancellationException e)
+        {
+            throw e;
+        }
         catch (RuntimeException re)
         {
             Throwable cause = re.getCause() != null ? re.getCause() : re;
@@ -100,7 +214,6 @@ public final class CopyCommand implements Command
         {
             throw new CopyFailedException(e.getMessage());
         }
-        return CommandResult.Success;
     }
     private static final class InvalidArgumentsException extends Exception
     {
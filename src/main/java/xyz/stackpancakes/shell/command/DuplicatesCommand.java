@@ -0,0 +1,244 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CopyEngine;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.FileHashing;
+import xyz.stackpancakes.shell.util.IoThrottle;
+import xyz.stackpancakes.shell.util.LongIntHashMap;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.util.PrinterUtils;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds duplicate files below one or more directories.  Files are grouped by
+ * size first, then by a hash of their first and last 64 KiB, and only the
+ * files that still collide are hashed completely.  Hard links to the same
+ * file are collapsed so that they are not reported as reclaimable copies.
+ */
+public final class DuplicatesCommand implements Command
+{
+    private static final String USAGE = "DUPES [--min-size <bytes>] [directory...]";
+
+    private final List<Path> files = new ArrayList<>();
+    private final List<Object> fileKeys = new ArrayList<>();
+    private long[] sizes = new long[1024];
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        long minSize = 1;
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++)
+        {
+            String arg = args.get(i);
+            if (arg.equalsIgnoreCase("--min-size"))
+            {
+                if (i + 1 >= args.size())
+                    return invalidUsage();
+                try
+                {
+                    minSize = Math.max(0, Long.parseLong(args.get(++i)));
+                }
+                catch (NumberFormatException e)
+                {
+                    return invalidUsage();
+                }
+            }
+            else if (arg.startsWith("-") && arg.length() > 1)
+            {
+                ErrorPrinter.setLastError(Ansi.withForeground("Unknown option", Ansi.Foreground.RED) + ": " + arg);
+                return CommandResult.UnknownOption;
+            }
+            else
+                roots.add(CurrentDirectory.get().resolve(arg).normalize());
+        }
+        if (roots.isEmpty())
+            roots.add(CurrentDirectory.get());
+        try
+        {
+            for (Path root : roots)
+            {
+                if (!Files.isDirectory(root))
+                {
+                    ErrorPrinter.setLastError("The system cannot find the directory specified: " + root);
+                    return CommandResult.PathNotFound;
+                }
+                collect(root, minSize);
+            }
+            List<List<Integer>> groups = findDuplicates();
+            OutputPrinter.setLastOutput(report(groups));
+            return CommandResult.Success;
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            ErrorPrinter.setLastError("Interrupted.");
+            return CommandResult.Failure;
+        }
+    }
+    private void collect(Path root, long minSize) throws IOException
+    {
+        Files.walkFileTree(root, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                Cancellation.check();
+                if (attrs.isRegularFile() && attrs.size() >= minSize)
+                {
+                    int index = files.size();
+                    if (index == sizes.length)
+                        sizes = Arrays.copyOf(sizes, index * 2);
+                    sizes[index] = attrs.size();
+                    files.add(file);
+                    fileKeys.add(attrs.fileKey());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc)
+            {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    private List<List<Integer>> findDuplicates() throws IOException, InterruptedException
+    {
+        int count = files.size();
+        LongIntHashMap counts = new LongIntHashMap(count, 0);
+        for (int i = 0; i < count; i++)
+            counts.increment(sizes[i]);
+        LongIntHashMap heads = new LongIntHashMap(Math.max(16, count / 4), -1);
+        int[] next = new int[count];
+        for (int i = 0; i < count; i++)
+            if (counts.get(sizes[i]) > 1)
+                next[i] = heads.put(sizes[i], i);
+
+        List<List<Integer>> bySize = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            if (counts.get(sizes[i]) < 2 || heads.get(sizes[i]) != i)
+                continue;
+            List<Integer> group = new ArrayList<>();
+            Set<Object> seenKeys = new HashSet<>();
+            for (int j = i; j != -1; j = next[j])
+            {
+                Object key = fileKeys.get(j);
+                if (key == null || seenKeys.add(key))
+                    group.add(j);
+            }
+            if (group.size() > 1)
+                bySize.add(group);
+        }
+
+        try (ExecutorService pool = Executors.newFixedThreadPool(CopyEngine.defaultParallelism(), IoThrottle.workerThreadFactory("dupes")))
+        {
+            List<List<Integer>> byPartial = split(bySize, pool, true);
+            List<List<Integer>> needFull = new ArrayList<>();
+            List<List<Integer>> result = new ArrayList<>();
+            for (List<Integer> group : byPartial)
+            {
+                if (sizes[group.getFirst()] > 2L * FileHashing.DEFAULT_WINDOW)
+                    needFull.add(group);
+                else
+                    result.add(group);
+            }
+            result.addAll(split(needFull, pool, false));
+            return result;
+        }
+    }
+    private List<List<Integer>> split(List<List<Integer>> groups, ExecutorService pool, boolean partial) throws IOException, InterruptedException
+    {
+        List<List<Future<String>>> hashes = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups)
+        {
+            List<Future<String>> groupHashes = new ArrayList<>(group.size());
+            for (int index : group)
+            {
+                Path file = files.get(index);
+                long size = sizes[index];
+                groupHashes.add(pool.submit(() -> Cancellation.isRequested() ? ""
+                        : partial ? FileHashing.partialHash(file, size, FileHashing.DEFAULT_WINDOW)
+                        : FileHashing.fullHash(file)));
+            }
+            hashes.add(groupHashes);
+        }
+        List<List<Integer>> result = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++)
+        {
+            Map<String, List<Integer>> byHash = new HashMap<>();
+            List<Integer> group = groups.get(g);
+            for (int i = 0; i < group.size(); i++)
+            {
+                Cancellation.check();
+                String hash;
+                try
+                {
+                    hash = hashes.get(g).get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof IOException)
+                        continue;
+                    throw new IOException(e.getCause());
+                }
+                byHash.computeIfAbsent(hash, _ -> new ArrayList<>()).add(group.get(i));
+            }
+            for (List<Integer> sameHash : byHash.values())
+                if (sameHash.size() > 1)
+                    result.add(sameHash);
+        }
+        Cancellation.check();
+        return result;
+    }
+    private String report(List<List<Integer>> groups)
+    {
+        groups.sort(Comparator.comparingLong((List<Integer> g) -> sizes[g.getFirst()] * (g.size() - 1)).reversed());
+        StringBuilder sb = new StringBuilder();
+        long reclaimable = 0;
+        int number = 0;
+        for (List<Integer> group : groups)
+        {
+            long size = sizes[group.getFirst()];
+            reclaimable += size * (group.size() - 1);
+            sb.append(Ansi.withForeground(String.format("Group %d", ++number), Ansi.Foreground.YELLOW))
+                    .append(String.format(": %d files, %s each%n", group.size(), PrinterUtils.formatBytes(size)));
+            group.stream().map(files::get).sorted().forEach(p -> sb.append("  ").append(p).append(System.lineSeparator()));
+        }
+        sb.append(String.format("%d duplicate groups, %s reclaimable%n", groups.size(), PrinterUtils.formatBytes(reclaimable)));
+        return sb.toString();
+    }
+    private CommandResult invalidUsage()
+    {
+        ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + USAGE);
+        return CommandResult.InvalidSyntax;
+    }
+}
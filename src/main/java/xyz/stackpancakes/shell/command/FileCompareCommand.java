@@ -0,0 +1,387 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.CompressedInput;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two files in the manner of the {@code FC} command.  Binary mode
+ * ({@code /B}) maps both files window by window and reports differing bytes.
+ * Text mode reads both files as line streams and runs a linear-space Myers
+ * diff over a bounded window of lines, printing each differing hunk as soon
+ * as it has been resynchronised.  Compressed text, such as rotated
+ * {@code .gz} logs, is decompressed on the fly in text mode.  Like
+ * {@code FC}, the command fails, which sets the error level to 1, when the
+ * files differ.
+ */
+public final class FileCompareCommand implements Command
+{
+    private static final String USAGE = "FC [/B] [/C] [/N] <file1> <file2>";
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final int MAX_BYTE_DIFFERENCES = 256;
+    private static final int LINE_WINDOW = 4096;
+    private static final int RESYNC_MARGIN = 64;
+
+    private PrintStream out;
+    private boolean ignoreCase;
+    private boolean lineNumbers;
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        boolean binary = false;
+        List<String> files = new ArrayList<>();
+        for (String arg : args)
+        {
+            String option = arg.toUpperCase(Locale.ROOT);
+            if (option.equals("/B") || option.equals("-B"))
+                binary = true;
+            else if (option.equals("/C") || option.equals("-C"))
+                ignoreCase = true;
+            else if (option.equals("/N") || option.equals("-N"))
+                lineNumbers = true;
+            else if ((arg.startsWith("/") || arg.startsWith("-")) && arg.length() == 2)
+            {
+                ErrorPrinter.setLastError(Ansi.withForeground("Unknown option", Ansi.Foreground.RED) + ": " + arg);
+                return CommandResult.UnknownOption;
+            }
+            else
+                files.add(arg);
+        }
+        if (files.size() != 2)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + USAGE);
+            return CommandResult.InvalidSyntax;
+        }
+        Path first = CurrentDirectory.get().resolve(files.get(0)).normalize();
+        Path second = CurrentDirectory.get().resolve(files.get(1)).normalize();
+        for (Path file : List.of(first, second))
+            if (!Files.isRegularFile(file))
+            {
+                ErrorPrinter.setLastError("The system cannot find the file specified: " + file);
+                return CommandResult.PathNotFound;
+            }
+        out = System.out;
+        out.println("Comparing files " + first + " and " + second);
+        try
+        {
+            boolean same = binary ? compareBinary(first, second) : compareText(first, second);
+            if (!same)
+            {
+                ErrorPrinter.setLastError("FC: the files are different");
+                return CommandResult.Failure;
+            }
+            OutputPrinter.setLastOutput("FC: no differences encountered" + System.lineSeparator());
+            return CommandResult.Success;
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+    }
+    private boolean compareBinary(Path first, Path second) throws IOException
+    {
+        try (FileChannel a = FileChannel.open(first, StandardOpenOption.READ);
+             FileChannel b = FileChannel.open(second, StandardOpenOption.READ))
+        {
+            long sizeA = a.size();
+            long sizeB = b.size();
+            long common = Math.min(sizeA, sizeB);
+            int reported = 0;
+            for (long position = 0; position < common && reported < MAX_BYTE_DIFFERENCES; position += MAP_WINDOW)
+            {
+                long length = Math.min(MAP_WINDOW, common - position);
+                try (Arena arena = Arena.ofConfined())
+                {
+                    MemorySegment left = a.map(FileChannel.MapMode.READ_ONLY, position, length, arena);
+                    MemorySegment right = b.map(FileChannel.MapMode.READ_ONLY, position, length, arena);
+                    long offset = 0;
+                    while (offset < length && reported < MAX_BYTE_DIFFERENCES)
+                    {
+                        long mismatch = MemorySegment.mismatch(left, offset, length, right, offset, length);
+                        if (mismatch < 0)
+                            break;
+                        long at = offset + mismatch;
+                        out.printf("%08X: %02X %02X%n", position + at,
+                                left.get(ValueLayout.JAVA_BYTE, at) & 0xFF, right.get(ValueLayout.JAVA_BYTE, at) & 0xFF);
+                        reported++;
+                        offset = at + 1;
+                    }
+                }
+            }
+            if (reported >= MAX_BYTE_DIFFERENCES)
+                out.println("FC: too many differences, comparison stopped");
+            if (sizeA > sizeB)
+                out.println("FC: " + first.getFileName() + " longer than " + second.getFileName());
+            else if (sizeB > sizeA)
+                out.println("FC: " + second.getFileName() + " longer than " + first.getFileName());
+            return reported == 0 && sizeA == sizeB;
+        }
+    }
+    private boolean compareText(Path first, Path second) throws IOException
+    {
+        try (LineSource a = new LineSource(first); LineSource b = new LineSource(second))
+        {
+            boolean same = true;
+            while (true)
+            {
+                while (a.fill(1) && b.fill(1) && keyOf(a.get(0)).equals(keyOf(b.get(0))))
+                {
+                    a.drop(1);
+                    b.drop(1);
+                }
+                if (!a.fill(1) && !b.fill(1))
+                    return same;
+                same = false;
+                a.fill(LINE_WINDOW);
+                b.fill(LINE_WINDOW);
+                int na = a.size();
+                int nb = b.size();
+                boolean complete = a.exhausted() && b.exhausted();
+
+                Map<String, Integer> ids = new HashMap<>();
+                int[] ka = new int[na];
+                int[] kb = new int[nb];
+                for (int i = 0; i < na; i++)
+                    ka[i] = ids.computeIfAbsent(keyOf(a.get(i)), _ -> ids.size());
+                for (int j = 0; j < nb; j++)
+                    kb[j] = ids.computeIfAbsent(keyOf(b.get(j)), _ -> ids.size());
+                List<int[]> matches = new ArrayList<>();
+                new MyersDiff(ka, kb).collectMatches(0, na, 0, nb, matches);
+
+                int aPos = 0;
+                int bPos = 0;
+                int committedA = 0;
+                int committedB = 0;
+                for (int[] match : matches)
+                {
+                    if (!complete && (match[0] >= na - RESYNC_MARGIN || match[1] >= nb - RESYNC_MARGIN) && committedA + committedB > 0)
+                        break;
+                    if (match[0] > aPos || match[1] > bPos)
+                        printHunk(a, aPos, match[0], b, bPos, match[1]);
+                    aPos = match[0] + 1;
+                    bPos = match[1] + 1;
+                    committedA = aPos;
+                    committedB = bPos;
+                }
+                if (complete || committedA + committedB == 0)
+                {
+                    if (na > committedA || nb > committedB)
+                        printHunk(a, committedA, na, b, committedB, nb);
+                    committedA = na;
+                    committedB = nb;
+                }
+                a.drop(committedA);
+                b.drop(committedB);
+            }
+        }
+    }
+    private void printHunk(LineSource a, int aFrom, int aTo, LineSource b, int bFrom, int bTo)
+    {
+        out.println(Ansi.withForeground("***** " + a.file, Ansi.Foreground.YELLOW));
+        for (int i = aFrom; i < aTo; i++)
+            out.println(formatLine(a, i));
+        out.println(Ansi.withForeground("***** " + b.file, Ansi.Foreground.YELLOW));
+        for (int j = bFrom; j < bTo; j++)
+            out.println(formatLine(b, j));
+        out.println(Ansi.withForeground("*****", Ansi.Foreground.YELLOW));
+        out.println();
+    }
+    private String formatLine(LineSource source, int index)
+    {
+        if (!lineNumbers)
+            return source.get(index);
+        return String.format("%5d:  %s", source.lineNumber(index), source.get(index));
+    }
+    private String keyOf(String line)
+    {
+        return ignoreCase ? line.toLowerCase(Locale.ROOT) : line;
+    }
+
+    /**
+     * Buffered window over the lines of a file.  Lines are read lazily and
+     * dropped once they have been reported, so memory use is bounded by the
+     * comparison window rather than by the file size.
+     */
+    private static final class LineSource implements AutoCloseable
+    {
+        final Path file;
+        private final BufferedReader reader;
+        private final List<String> lines = new ArrayList<>();
+        private long firstLineNumber = 1;
+        private boolean eof;
+
+        LineSource(Path file) throws IOException
+        {
+            this.file = file;
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+            decoder.onMalformedInput(CodingErrorAction.REPLACE);
+            decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.reader = new BufferedReader(new InputStreamReader(CompressedInput.open(file), decoder));
+        }
+        boolean fill(int count) throws IOException
+        {
+            while (lines.size() < count && !eof)
+            {
+                String line = reader.readLine();
+                if (line == null)
+                    eof = true;
+                else
+                    lines.add(line);
+            }
+            return lines.size() >= count;
+        }
+        boolean exhausted()
+        {
+            return eof;
+        }
+        int size()
+        {
+            return lines.size();
+        }
+        String get(int index)
+        {
+            return lines.get(index);
+        }
+        long lineNumber(int index)
+        {
+            return firstLineNumber + index;
+        }
+        void drop(int count)
+        {
+            lines.subList(0, count).clear();
+            firstLineNumber += count;
+        }
+        @Override
+        public void close() throws IOException
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Linear-space variant of Myers' O(ND) difference algorithm.  The middle
+     * snake of each sub-problem is located by running the forward and reverse
+     * searches simultaneously, and the two halves are then solved
+     * recursively, emitting matched index pairs in ascending order.
+     */
+    private static final class MyersDiff
+    {
+        private final int[] a;
+        private final int[] b;
+        private final int[] forward;
+        private final int[] reverse;
+        private final int offset;
+
+        MyersDiff(int[] a, int[] b)
+        {
+            this.a = a;
+            this.b = b;
+            this.offset = a.length + b.length + 1;
+            this.forward = new int[2 * offset + 2];
+            this.reverse = new int[2 * offset + 2];
+        }
+        void collectMatches(int aLo, int aHi, int bLo, int bHi, List<int[]> matches)
+        {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo])
+                matches.add(new int[] { aLo++, bLo++ });
+            int suffix = 0;
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1])
+            {
+                aHi--;
+                bHi--;
+                suffix++;
+            }
+            if (aLo < aHi && bLo < bHi)
+            {
+                int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+                boolean progress = !(snake[0] == aLo && snake[1] == bLo && snake[2] == aHi && snake[3] == bHi)
+                        && !(snake[0] == aHi && snake[1] == bHi) && !(snake[2] == aLo && snake[3] == bLo);
+                if (progress)
+                {
+                    collectMatches(aLo, snake[0], bLo, snake[1], matches);
+                    for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++)
+                        matches.add(new int[] { x, y });
+                    collectMatches(snake[2], aHi, snake[3], bHi, matches);
+                }
+            }
+            for (int i = 0; i < suffix; i++)
+                matches.add(new int[] { aHi + i, bHi + i });
+        }
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi)
+        {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int max = (n + m + 1) / 2;
+            forward[offset + 1] = 0;
+            reverse[offset + 1] = 0;
+            for (int d = 0; d <= max; d++)
+            {
+                for (int k = -d; k <= d; k += 2)
+                {
+                    int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+                            ? forward[offset + k + 1]
+                            : forward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y])
+                    {
+                        x++;
+                        y++;
+                    }
+                    forward[offset + k] = x;
+                    int c = delta - k;
+                    if (odd && c >= -(d - 1) && c <= d - 1 && x + reverse[offset + c] >= n)
+                        return new int[] { aLo + startX, bLo + startY, aLo + x, bLo + y };
+                }
+                for (int c = -d; c <= d; c += 2)
+                {
+                    int x = (c == -d || (c != d && reverse[offset + c - 1] < reverse[offset + c + 1]))
+                            ? reverse[offset + c + 1]
+                            : reverse[offset + c - 1] + 1;
+                    int y = x - c;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y])
+                    {
+                        x++;
+                        y++;
+                    }
+                    reverse[offset + c] = x;
+                    int k = delta - c;
+                    if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n)
+                        return new int[] { aHi - x, bHi - y, aHi - startX, bHi - startY };
+                }
+            }
+            return new int[] { aLo, bLo, aLo, bLo };
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.util.PathIndex;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds or refreshes the persistent filename index queried by
+ * {@code LOCATE}.  Without arguments the previously indexed roots are
+ * refreshed, re-listing only directories whose modification time changed.
+ */
+public final class IndexCommand implements Command
+{
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        boolean rebuild = false;
+        List<Path> roots = new ArrayList<>();
+        for (String arg : args)
+        {
+            if (arg.equalsIgnoreCase("--rebuild"))
+                rebuild = true;
+            else if (arg.startsWith("-") && arg.length() > 1)
+            {
+                ErrorPrinter.setLastError(Ansi.withForeground("Unknown option", Ansi.Foreground.RED) + ": " + arg);
+                return CommandResult.UnknownOption;
+            }
+            else
+            {
+                Path root = CurrentDirectory.get().resolve(arg).normalize();
+                if (!Files.isDirectory(root))
+                {
+                    ErrorPrinter.setLastError("The system cannot find the directory specified: " + root);
+                    return CommandResult.PathNotFound;
+                }
+                roots.add(root);
+            }
+        }
+        Path indexDir = PathIndex.defaultDirectory();
+        try
+        {
+            if (roots.isEmpty())
+                roots = PathIndex.indexedRoots(indexDir);
+            if (roots.isEmpty())
+            {
+                ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": INDEX [--rebuild] <directory>...");
+                return CommandResult.InvalidSyntax;
+            }
+            long start = System.nanoTime();
+            PathIndex.BuildStats stats = PathIndex.build(indexDir, roots, !rebuild);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            OutputPrinter.setLastOutput(String.format("Indexed %d paths in %d directories (%d re-listed) in %d ms%n",
+                    stats.paths(), stats.directories(), stats.relisted(), millis));
+            return CommandResult.Success;
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+    }
+}
@@ -2,22 +2,23 @@ package xyz.stackpancakes.shell.command;
 
 import xyz.stackpancakes.shell.util.Ansi;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
-import xyz.stackpancakes.shell.util.FileSystemUtils;
+import xyz.stackpancakes.shell.util.Glob;
+import xyz.stackpancakes.shell.util.MetadataCache;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 import xyz.stackpancakes.shell.util.OutputPrinter;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Optional;
 
 /**
  * Lists the contents of a directory and colours different file types.  If no
  * argument is supplied the current directory is listed.  Directories are
  * coloured blue with white text, executable files green and symlinks cyan.
+ * An argument with wildcards lists every matching path instead.
  */
 public final class ListDirectoriesCommand implements Command
 {
@@ -27,20 +28,26 @@ public final class ListDirectoriesCommand implements Command
         try
         {
             Path currentDir = ChangeDirectoriesCommand.getCurrentDirectory();
+            if (!args.isEmpty() && Glob.isPattern(currentDir, args.getFirst()))
+                return listMatches(args.getFirst(), currentDir);
             Path dir = args.isEmpty() ? currentDir : resolvePath(args.getFirst(), currentDir);
-            if (!Files.exists(dir))
+            Optional<MetadataCache.EntryInfo> info = MetadataCache.lookup(dir);
+            if (info.isEmpty())
             {
                 ErrorPrinter.setLastError("The system cannot find the path specified.");
                 return CommandResult.PathNotFound;
             }
-            if (!Files.isDirectory(dir))
+            if (!info.get().directory())
             {
                 ErrorPrinter.setLastError("The specified path is not a directory.");
                 return CommandResult.InvalidSyntax;
             }
-            try (Stream<Path> stream = Files.list(dir))
+            try
             {
-                stream.forEach(this::printEntry);
+                StringBuilder sb = new StringBuilder(OutputPrinter.getLastOutput().orElse(""));
+                for (MetadataCache.EntryInfo entry : MetadataCache.list(dir).entries())
+                    printEntry(entry, sb);
+                OutputPrinter.setLastOutput(sb.toString());
             }
             catch (IOException e)
             {
@@ -55,6 +62,23 @@ public final class ListDirectoriesCommand implements Command
             return CommandResult.Failure;
         }
     }
+    private CommandResult listMatches(String pattern, Path currentDir)
+    {
+        StringBuilder sb = new StringBuilder(OutputPrinter.getLastOutput().orElse(""));
+        long matched = Glob.compile(currentDir, pattern).forEach(path ->
+        {
+            Path shown = path.startsWith(currentDir) ? currentDir.relativize(path) : path;
+            MetadataCache.lookup(path).ifPresent(entry -> printEntry(
+                    new MetadataCache.EntryInfo(shown.toString(), entry.directory(), entry.regularFile(), entry.symbolicLink(), entry.executable()), sb));
+        });
+        if (matched == 0)
+        {
+            ErrorPrinter.setLastError("File Not Found: " + pattern);
+            return CommandResult.PathNotFound;
+        }
+        OutputPrinter.setLastOutput(sb.toString());
+        return CommandResult.Success;
+    }
     private Path resolvePath(String path, Path currentDir) throws IOException
     {
         Path resolved = Paths.get(path);
@@ -67,31 +91,20 @@ public final class ListDirectoriesCommand implements Command
         return resolved.toRealPath();
     }
 
-    private void printEntry(Path entry)
+    private void printEntry(MetadataCache.EntryInfo entry, StringBuilder sb)
     {
-        String name = entry.getFileName().toString();
         String color = determineColor(entry);
-
-        String prev = OutputPrinter.getLastOutput().orElse("");
-
-        OutputPrinter.setLastOutput(prev + color + name + (color.isEmpty() ? "" : Ansi.RESET) + System.lineSeparator());
+        sb.append(color).append(entry.name()).append(color.isEmpty() ? "" : Ansi.RESET).append(System.lineSeparator());
     }
 
-    private String determineColor(Path entry)
+    private String determineColor(MetadataCache.EntryInfo entry)
     {
-        try
-        {
-            if (Files.isDirectory(entry))
-                return Ansi.background(Ansi.Background.BLUE) + Ansi.foreground(Ansi.Foreground.WHITE);
-            if (Files.isSymbolicLink(entry))
-                return Ansi.foreground(Ansi.Foreground.CYAN);
-            if (FileSystemUtils.isExecutable(entry))
-                return Ansi.foreground(Ansi.Foreground.GREEN);
-            return Ansi.foreground(Ansi.Foreground.WHITE);
-        }
-        catch (Exception e)
-        {
-            return Ansi.foreground(Ansi.Foreground.WHITE);
-        }
+        if (entry.directory())
+            return Ansi.background(Ansi.Background.BLUE) + Ansi.foreground(Ansi.Foreground.WHITE);
+        if (entry.symbolicLink())
+            return Ansi.foreground(Ansi.Foreground.CYAN);
+        if (entry.executable())
+            return Ansi.foreground(Ansi.Foreground.GREEN);
+        return Ansi.foreground(Ansi.Foreground.WHITE);
     }
 }
\ No newline at end of file
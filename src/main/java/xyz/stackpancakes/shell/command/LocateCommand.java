@@ -0,0 +1,57 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.PathIndex;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Looks up paths in the index built by {@code INDEX}.  A plain pattern is
+ * matched as a case-insensitive substring of the full path; a pattern with
+ * wildcards is matched as a glob against the file name, or against the full
+ * path when it contains a separator.
+ */
+public final class LocateCommand implements Command
+{
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        if (args.size() != 1 || args.getFirst().isEmpty())
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": LOCATE <substring | glob>");
+            return CommandResult.InvalidSyntax;
+        }
+        PrintStream out = System.out;
+        try (PathIndex.Reader reader = new PathIndex.Reader(PathIndex.defaultDirectory()))
+        {
+            if (reader.query(args.getFirst(), out::println) == 0)
+            {
+                ErrorPrinter.setLastError("No indexed paths match: " + args.getFirst());
+                return CommandResult.PathNotFound;
+            }
+            return CommandResult.Success;
+        }
+        catch (PatternSyntaxException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": invalid pattern: " + e.getDescription());
+            return CommandResult.InvalidSyntax;
+        }
+        catch (NoSuchFileException e)
+        {
+            ErrorPrinter.setLastError("No index found. Run INDEX <directory> first.");
+            return CommandResult.PathNotFound;
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+    }
+}
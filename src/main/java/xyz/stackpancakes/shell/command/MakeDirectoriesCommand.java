@@ -1,6 +1,9 @@
 package xyz.stackpancakes.shell.command;
 
+import xyz.stackpancakes.shell.util.Batch;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.MetadataCache;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 
@@ -8,31 +11,58 @@ import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 
 /**
  * Built‑in command for creating directories.  Returns appropriate
  * {@link CommandResult} codes based on whether the operation succeeds or
- * fails.
+ * fails.  Several directories may be created in one invocation, including
+ * targets listed in a file ({@code @file}) or read from standard input
+ * ({@code -}).
  */
 public class MakeDirectoriesCommand implements Command
 {
     @Override
     public CommandResult execute(List<String> args)
     {
-        if (args.size() != 1)
+        if (args.isEmpty())
             return invalidUsage();
+        if (Batch.isBatch(args))
+            return createDirectories(args);
         return createDirectory(args.getFirst());
     }
+    private CommandResult createDirectories(List<String> args)
+    {
+        List<String> targets;
+        try
+        {
+            targets = Batch.expandTargets(args);
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError("The system cannot read the target list: " + e.getMessage());
+            return CommandResult.PathNotFound;
+        }
+        List<Batch.Failure> failures = Batch.runAll(targets, dir ->
+        {
+            Path path = CurrentDirectory.get().resolve(dir);
+            Files.createDirectories(path);
+            MetadataCache.invalidateEntry(path);
+        });
+        if (failures.isEmpty())
+            return CommandResult.Success;
+        ErrorPrinter.setLastError(Batch.describe("created", targets.size(), failures));
+        return CommandResult.Failure;
+    }
     private CommandResult createDirectory(String dir)
     {
         if (dir == null || dir.isBlank())
             return invalidUsage();
-        Path path = Paths.get(dir);
+        Path path = CurrentDirectory.get().resolve(dir);
         try
         {
             Files.createDirectories(path);
+            MetadataCache.invalidateEntry(path);
             return CommandResult.Success;
         }
         catch (FileAlreadyExistsException e)
@@ -53,7 +83,7 @@ public class MakeDirectoriesCommand implements Command
     }
     private CommandResult invalidUsage()
     {
-        ErrorPrinter.setLastError("Usage: MKDIR <directory>");
+        ErrorPrinter.setLastError("Usage: MKDIR <directory | @file | ->...");
         return CommandResult.InvalidSyntax;
     }
 }
\ No newline at end of file
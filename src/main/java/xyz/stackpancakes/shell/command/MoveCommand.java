@@ -0,0 +1,338 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CopyEngine;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.IoThrottle;
+import xyz.stackpancakes.shell.util.MetadataCache;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.util.ProgressReporter;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves a file or directory.  Within one file store the move is a single
+ * atomic rename.  Across file stores the tree is copied on the parallel copy
+ * engine, every file is verified against its source, and the source is only
+ * deleted once everything has arrived.  Completed files are recorded in a
+ * journal inside the target so that an interrupted move picks up where it
+ * left off when the same {@code MOVE} is run again.  An existing target is
+ * only replaced when {@code -y} is given.
+ */
+public final class MoveCommand implements Command
+{
+    private static final String JOURNAL_NAME = ".jcmdmove";
+    private static final String JOURNAL_HEADER = "# jcmdshell move journal v1";
+    private static final String USAGE = "MOVE [-y] [-j <threads>] <source> <destination>";
+
+    private record MoveOptions(Path source, Path destination, int parallelism, boolean overwrite) {}
+    private record FileState(long size, long modified) {}
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        try
+        {
+            MoveOptions options = parseArguments(args);
+            return move(options);
+        }
+        catch (InvalidArgumentsException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.InvalidSyntax;
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+    }
+    private MoveOptions parseArguments(List<String> args) throws InvalidArgumentsException
+    {
+        int parallelism = CopyEngine.defaultParallelism();
+        boolean overwrite = false;
+        List<String> operands = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++)
+        {
+            String arg = args.get(i);
+            if (arg.equalsIgnoreCase("-j"))
+            {
+                if (i + 1 >= args.size())
+                    throw new InvalidArgumentsException(USAGE);
+                parallelism = parsePositive(args.get(++i));
+            }
+            else if (arg.equalsIgnoreCase("-y"))
+                overwrite = true;
+            else if (arg.startsWith("-") && arg.length() > 1)
+                throw new InvalidArgumentsException("Unknown option: " + arg);
+            else
+                operands.add(arg);
+        }
+        if (operands.size() != 2)
+            throw new InvalidArgumentsException(USAGE);
+        Path source = CurrentDirectory.get().resolve(operands.get(0)).normalize();
+        Path destination = CurrentDirectory.get().resolve(operands.get(1)).normalize();
+        return new MoveOptions(source, destination, parallelism, overwrite);
+    }
+    private static int parsePositive(String value) throws InvalidArgumentsException
+    {
+        try
+        {
+            int n = Integer.parseInt(value);
+            if (n > 0)
+                return n;
+        }
+        catch (NumberFormatException ignored) {}
+        throw new InvalidArgumentsException("Thread count must be a positive number: " + value);
+    }
+    private CommandResult move(MoveOptions options) throws IOException
+    {
+        Path source = options.source();
+        Path target = resolveTarget(source, options.destination());
+        Path journal = target.resolve(JOURNAL_NAME);
+        if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS))
+        {
+            // The source is gone but the journal is still there: the previous
+            // run copied everything and was interrupted while cleaning up.
+            if (Files.isRegularFile(journal) && source.equals(readJournalSource(journal)))
+            {
+                Files.delete(journal);
+                OutputPrinter.setLastOutput("Completed interrupted move to " + target + System.lineSeparator());
+                return CommandResult.Success;
+            }
+            ErrorPrinter.setLastError("The system cannot find the path specified: " + source);
+            return CommandResult.PathNotFound;
+        }
+        if (target.equals(source))
+            return CommandResult.Success;
+        if (target.startsWith(source))
+        {
+            ErrorPrinter.setLastError("Cannot move a directory into itself: " + target);
+            return CommandResult.InvalidSyntax;
+        }
+        boolean resuming = Files.isRegularFile(journal) && source.equals(readJournalSource(journal));
+        if (!options.overwrite() && !resuming && Files.exists(target, LinkOption.NOFOLLOW_LINKS))
+        {
+            ErrorPrinter.setLastError("A file or directory named " + target + " already exists. Use -y to replace it.");
+            return CommandResult.AlreadyExists;
+        }
+        if (sameFileStore(source, target))
+        {
+            try
+            {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                if (options.overwrite())
+                    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                else
+                    Files.move(source, target);
+            }
+            MetadataCache.invalidateTree(source);
+            MetadataCache.invalidateTree(target);
+            return CommandResult.Success;
+        }
+        if (!Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS))
+        {
+            if (Files.isSymbolicLink(source))
+            {
+                Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+                MetadataCache.invalidateEntry(target);
+            }
+            else
+                CopyEngine.copyVerified(source, target);
+            IoThrottle.delete(source);
+            return CommandResult.Success;
+        }
+        return moveTree(source, target, journal, options.parallelism());
+    }
+    private static Path resolveTarget(Path source, Path destination)
+    {
+        if (!Files.isDirectory(destination))
+            return destination;
+        Path journal = destination.resolve(JOURNAL_NAME);
+        if (Files.isRegularFile(journal) && source.equals(readJournalSource(journal)))
+            return destination;
+        Path name = source.getFileName();
+        return name == null ? destination : destination.resolve(name.toString());
+    }
+    private static boolean sameFileStore(Path source, Path target) throws IOException
+    {
+        Path existing = target;
+        while (existing != null && !Files.exists(existing))
+            existing = existing.getParent();
+        if (existing == null)
+            return false;
+        return Files.getFileStore(source).equals(Files.getFileStore(existing));
+    }
+    private CommandResult moveTree(Path source, Path target, Path journal, int parallelism) throws IOException
+    {
+        Map<String, FileState> done = readJournal(journal, source);
+        Files.createDirectories(target);
+        List<CopyEngine.Task> tasks = new ArrayList<>();
+        Map<Path, String> relativeNames = new HashMap<>();
+        long[] totals = new long[3];
+        Files.walkFileTree(source, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Cancellation.check();
+                String rel = source.relativize(file).toString();
+                Path copy = target.resolve(rel);
+                if (attrs.isSymbolicLink())
+                {
+                    Files.copy(file, copy, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+                    return FileVisitResult.CONTINUE;
+                }
+                totals[0]++;
+                totals[1] += attrs.size();
+                FileState state = done.get(rel);
+                if (state != null && state.size() == attrs.size() && state.modified() == attrs.lastModifiedTime().toMillis()
+                        && Files.isRegularFile(copy, LinkOption.NOFOLLOW_LINKS))
+                    return FileVisitResult.CONTINUE;
+                tasks.add(new CopyEngine.Task(file, copy));
+                relativeNames.put(file, rel);
+                totals[2] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<CopyEngine.Failure> failures;
+        StandardOpenOption mode = done.isEmpty() ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND;
+        try (BufferedWriter writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode);
+             ProgressReporter progress = ProgressReporter.start("Moving", tasks.size(), totals[2]))
+        {
+            if (done.isEmpty())
+                writeJournalLine(writer, JOURNAL_HEADER + System.lineSeparator() + "S\t" + source);
+            failures = CopyEngine.copyAll(tasks, parallelism, true, task ->
+            {
+                try
+                {
+                    BasicFileAttributes attrs = Files.readAttributes(task.source(), BasicFileAttributes.class);
+                    progress.step(attrs.size());
+                    writeJournalLine(writer, "F\t" + attrs.size() + "\t" + attrs.lastModifiedTime().toMillis() + "\t" + relativeNames.get(task.source()));
+                }
+                catch (IOException ignored) {}
+            });
+        }
+        finally
+        {
+            MetadataCache.invalidateTree(target);
+        }
+        if (!failures.isEmpty())
+        {
+            StringBuilder sb = new StringBuilder(Ansi.withForeground("Error", Ansi.Foreground.RED))
+                    .append(": ").append(failures.size()).append(" files could not be moved; the source was left in place. Run the same MOVE again to resume.");
+            for (CopyEngine.Failure failure : failures)
+                sb.append(System.lineSeparator()).append("  ").append(failure.source()).append(": ").append(failure.message());
+            ErrorPrinter.setLastError(sb.toString());
+            return CommandResult.Failure;
+        }
+        deleteTree(source);
+        Files.deleteIfExists(journal);
+        OutputPrinter.setLastOutput(String.format("Moved %d files (%d bytes) to %s, %d copied in this run.%n",
+                totals[0], totals[1], target, tasks.size()));
+        return CommandResult.Success;
+    }
+    private static void writeJournalLine(BufferedWriter writer, String line) throws IOException
+    {
+        synchronized (writer)
+        {
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+        }
+    }
+    private static Path readJournalSource(Path journal)
+    {
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8))
+        {
+            if (!JOURNAL_HEADER.equals(reader.readLine()))
+                return null;
+            String line = reader.readLine();
+            return line != null && line.startsWith("S\t") ? Path.of(line.substring(2)) : null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+    private static Map<String, FileState> readJournal(Path journal, Path source)
+    {
+        Map<String, FileState> done = new HashMap<>();
+        if (!Files.isRegularFile(journal) || !source.equals(readJournalSource(journal)))
+            return done;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] parts = line.split("\t", 4);
+                if (parts.length == 4 && parts[0].equals("F"))
+                    done.put(parts[3], new FileState(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            done.clear();
+        }
+        return done;
+    }
+    private static void deleteTree(Path root) throws IOException
+    {
+        Files.walkFileTree(root, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Cancellation.check();
+                IoThrottle.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                if (exc != null)
+                    throw exc;
+                IoThrottle.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    private static final class InvalidArgumentsException extends Exception
+    {
+        public InvalidArgumentsException(String message)
+        {
+            super(message);
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package xyz.stackpancakes.shell.command;
 
 import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Batch;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.Glob;
+import xyz.stackpancakes.shell.util.IoThrottle;
+import xyz.stackpancakes.shell.util.ProgressReporter;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Stream;
@@ -16,7 +24,10 @@ import java.util.stream.Stream;
 /**
  * Removes files or directories.  When the {@code -r} or {@code --recursive}
  * option is supplied the directory and its contents are removed; otherwise
- * only a single file may be deleted.
+ * only a single file may be deleted.  A path containing wildcards deletes
+ * every matching file, and matching directories as well when recursive.
+ * Several targets may be given at once, including targets listed in a file
+ * ({@code @file}) or read from standard input ({@code -}).
  */
 public final class RemoveCommand implements Command
 {
@@ -28,32 +39,35 @@ public final class RemoveCommand implements Command
             ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": REMOVE [--RECURSIVE | -r] <path>");
             return CommandResult.InvalidSyntax;
         }
-        boolean recursive = false;
-        Path target;
-        if (args.size() == 1)
-            target = Paths.get(args.getFirst());
-        else if (args.size() == 2)
+        boolean recursive = isRecursiveOption(args.getFirst());
+        List<String> targets = recursive ? args.subList(1, args.size()) : args;
+        if (targets.isEmpty())
         {
-            if (!isRecursiveOption(args.getFirst()))
-            {
-                ErrorPrinter.setLastError(Ansi.withForeground("Unknown option", Ansi.Foreground.RED) + ": " + args.getFirst());
-                return CommandResult.UnknownOption;
-            }
-            recursive = true;
-            target = Paths.get(args.get(1));
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": REMOVE [-r | --RECURSIVE] <path | @file | ->...");
+            return CommandResult.InvalidSyntax;
         }
-        else
+        String first = targets.getFirst();
+        if (!recursive && first.startsWith("-") && first.length() > 1)
         {
-            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": REMOVE [-r | --RECURSIVE] <path>");
-            return CommandResult.InvalidSyntax;
+            ErrorPrinter.setLastError(Ansi.withForeground("Unknown option", Ansi.Foreground.RED) + ": " + first);
+            return CommandResult.UnknownOption;
+        }
+        // One progress line for the whole command, which the targets of a
+        // batch add to from their own workers.
+        try (ProgressReporter progress = ProgressReporter.start("Deleting", 0, 0))
+        {
+            if (Batch.isBatch(targets))
+                return removeAll(targets, recursive, progress);
+            if (Glob.isPattern(CurrentDirectory.get(), first))
+                return removeMatches(first, recursive, progress);
+            return removePath(CurrentDirectory.get().resolve(first), recursive, progress);
         }
-        return removePath(target, recursive);
     }
     private static boolean isRecursiveOption(String option)
     {
         return option.equals("-r") || option.equalsIgnoreCase("--RECURSIVE");
     }
-    private CommandResult removePath(Path target, boolean recursive)
+    private CommandResult removePath(Path target, boolean recursive, ProgressReporter progress)
     {
         if (!Files.exists(target))
         {
@@ -69,20 +83,10 @@ public final class RemoveCommand implements Command
                     ErrorPrinter.setLastError("The specified path is a directory. Use -r to remove recursively.");
                     return CommandResult.InvalidSyntax;
                 }
-                try (Stream<Path> stream = Files.walk(target))
-                {
-                    stream.sorted(Comparator.reverseOrder()).forEach(path ->
-                    {
-                        try
-                        {
-                            Files.delete(path);
-                        }
-                        catch (IOException ignored) {}
-                    });
-                }
+                deleteTree(target, progress);
             }
             else
-                Files.delete(target);
+                IoThrottle.delete(target);
         }
         catch (IOException e)
         {
@@ -91,4 +95,91 @@ public final class RemoveCommand implements Command
         }
         return CommandResult.Success;
     }
+    private CommandResult removeMatches(String pattern, boolean recursive, ProgressReporter progress)
+    {
+        List<String> failures = new ArrayList<>();
+        if (deleteMatches(pattern, recursive, failures, progress) == 0)
+        {
+            ErrorPrinter.setLastError("Could not find " + CurrentDirectory.get().resolve(pattern));
+            return CommandResult.PathNotFound;
+        }
+        if (!failures.isEmpty())
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + " removing: " + String.join(System.lineSeparator(), failures));
+            return CommandResult.Failure;
+        }
+        return CommandResult.Success;
+    }
+    private CommandResult removeAll(List<String> args, boolean recursive, ProgressReporter progress)
+    {
+        List<String> targets;
+        try
+        {
+            targets = Batch.expandTargets(args);
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError("The system cannot read the target list: " + e.getMessage());
+            return CommandResult.PathNotFound;
+        }
+        List<Batch.Failure> failures = Batch.runAll(targets, target -> removeTarget(target, recursive, progress));
+        if (failures.isEmpty())
+            return CommandResult.Success;
+        ErrorPrinter.setLastError(Batch.describe("removed", targets.size(), failures));
+        return CommandResult.Failure;
+    }
+    private static void removeTarget(String target, boolean recursive, ProgressReporter progress) throws IOException
+    {
+        if (Glob.isPattern(CurrentDirectory.get(), target))
+        {
+            List<String> failures = new ArrayList<>();
+            if (deleteMatches(target, recursive, failures, progress) == 0)
+                throw new NoSuchFileException(target);
+            if (!failures.isEmpty())
+                throw new IOException(String.join("; ", failures));
+            return;
+        }
+        Path path = CurrentDirectory.get().resolve(target);
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            throw new NoSuchFileException(target);
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+            IoThrottle.delete(path);
+        else if (recursive)
+            deleteTree(path, progress);
+        else
+            throw new IOException("The specified path is a directory. Use -r to remove recursively.");
+    }
+    private static long deleteMatches(String pattern, boolean recursive, List<String> failures, ProgressReporter progress)
+    {
+        return Glob.compile(CurrentDirectory.get(), pattern).forEach(path ->
+        {
+            try
+            {
+                if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                    IoThrottle.delete(path);
+                else if (recursive)
+                    deleteTree(path, progress);
+            }
+            catch (IOException e)
+            {
+                failures.add(path + ": " + e.getMessage());
+            }
+        });
+    }
+    private static void deleteTree(Path root, ProgressReporter progress) throws IOException
+    {
+        try (Stream<Path> stream = Files.walk(root))
+        {
+            stream.peek(_ -> Cancellation.check()).sorted(Comparator.reverseOrder()).forEach(path ->
+            {
+                Cancellation.check();
+                try
+                {
+                    IoThrottle.delete(path);
+                    progress.step(0);
+                }
+                catch (IOException ignored) {}
+            });
+        }
+    }
 }
\ No newline at end of file
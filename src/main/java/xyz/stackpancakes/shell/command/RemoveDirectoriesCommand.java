@@ -2,6 +2,7 @@ package xyz.stackpancakes.shell.command;
 
 import xyz.stackpancakes.shell.util.Ansi;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.MetadataCache;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 
@@ -45,6 +46,7 @@ public final class RemoveDirectoriesCommand implements Command
         try
         {
             Files.delete(dir);
+            MetadataCache.invalidateEntry(dir);
         }
         catch (DirectoryNotEmptyException e)
         {
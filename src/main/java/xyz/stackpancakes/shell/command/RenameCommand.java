@@ -1,32 +1,64 @@
 package xyz.stackpancakes.shell.command;
 
 import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Batch;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.Glob;
+import xyz.stackpancakes.shell.util.MetadataCache;
 import xyz.stackpancakes.shell.core.Command;
 import xyz.stackpancakes.shell.core.CommandResult;
 
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Renames a file or directory.  If the destination exists it will be
- * overwritten.
+ * overwritten.  With wildcards in the old name every match is renamed in
+ * place, the text matched by each wildcard filling the corresponding
+ * wildcard of the new name ({@code REN *.txt *.bak}); such batch renames
+ * never overwrite existing files.  Several renames may be given as
+ * old/new pairs, or listed one pair per line in a file ({@code @file}) or
+ * on standard input ({@code -}).
  */
 public final class RenameCommand implements Command
 {
+    private record Pair(String from, String to)
+    {
+        @Override
+        public String toString()
+        {
+            return from + " -> " + to;
+        }
+    }
+
     @Override
     public CommandResult execute(List<String> args)
     {
-        if (args.size() != 2)
+        if (args.size() == 1 && Batch.isBatch(args))
+            return renameListed(args.getFirst());
+        if (args.size() < 2 || args.size() % 2 != 0)
         {
-            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": RENAME <old> <new>");
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": RENAME <old> <new> [<old> <new>...] | RENAME <@file | ->");
             return CommandResult.InvalidSyntax;
         }
-        Path source = Paths.get(args.getFirst());
-        Path destination = Paths.get(args.get(1));
+        if (args.size() > 2)
+        {
+            List<Pair> pairs = new ArrayList<>();
+            for (int i = 0; i < args.size(); i += 2)
+                pairs.add(new Pair(args.get(i), args.get(i + 1)));
+            return renameAll(pairs);
+        }
+        if (Glob.isPattern(CurrentDirectory.get(), args.getFirst()))
+            return renameMatches(args.getFirst(), args.get(1));
+        Path source = CurrentDirectory.get().resolve(args.getFirst());
+        Path destination = CurrentDirectory.get().resolve(args.get(1));
         return renamePath(source, destination);
     }
     private CommandResult renamePath(Path source, Path destination)
@@ -39,6 +71,8 @@ public final class RenameCommand implements Command
         try
         {
             Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+            MetadataCache.invalidateTree(source);
+            MetadataCache.invalidateEntry(destination);
         }
         catch (Exception e)
         {
@@ -47,4 +81,128 @@ public final class RenameCommand implements Command
         }
         return CommandResult.Success;
     }
+    private CommandResult renameListed(String source)
+    {
+        List<Pair> pairs = new ArrayList<>();
+        try
+        {
+            for (String line : Batch.readLines(source))
+            {
+                List<String> names = splitLine(line);
+                if (names.size() != 2)
+                {
+                    ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": expected '<old> <new>' but found: " + line);
+                    return CommandResult.InvalidSyntax;
+                }
+                pairs.add(new Pair(names.getFirst(), names.getLast()));
+            }
+        }
+        catch (IOException e)
+        {
+            ErrorPrinter.setLastError("The system cannot read the rename list: " + e.getMessage());
+            return CommandResult.PathNotFound;
+        }
+        return renameAll(pairs);
+    }
+    private CommandResult renameAll(List<Pair> pairs)
+    {
+        // Renames may depend on each other (a -> b, then c -> a), so they are
+        // applied in the order given rather than in parallel.
+        List<Batch.Failure> failures = Batch.runInOrder(pairs, pair ->
+        {
+            if (Glob.isPattern(CurrentDirectory.get(), pair.from()))
+            {
+                if (renameMatches(pair.from(), pair.to()) != CommandResult.Success)
+                    throw new IOException(ErrorPrinter.getLastError().orElse("rename failed"));
+                return;
+            }
+            Path source = CurrentDirectory.get().resolve(pair.from());
+            if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS))
+                throw new NoSuchFileException(pair.from());
+            Path destination = CurrentDirectory.get().resolve(pair.to());
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+            MetadataCache.invalidateTree(source);
+            MetadataCache.invalidateEntry(destination);
+        });
+        if (failures.isEmpty())
+            return CommandResult.Success;
+        ErrorPrinter.setLastError(Batch.describe("renamed", pairs.size(), failures));
+        return CommandResult.Failure;
+    }
+    private static List<String> splitLine(String line)
+    {
+        List<String> names = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean pending = false;
+        for (char c : line.toCharArray())
+        {
+            if (c == '"')
+            {
+                quoted = !quoted;
+                pending = true;
+            }
+            else if (Character.isWhitespace(c) && !quoted)
+            {
+                if (pending)
+                    names.add(current.toString());
+                current.setLength(0);
+                pending = false;
+            }
+            else
+            {
+                current.append(c);
+                pending = true;
+            }
+        }
+        if (pending)
+            names.add(current.toString());
+        return names;
+    }
+    private CommandResult renameMatches(String pattern, String template)
+    {
+        if (template.contains("/") || template.contains("\\"))
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": RENAME <pattern> <new name pattern>");
+            return CommandResult.InvalidSyntax;
+        }
+        Glob glob = Glob.compile(CurrentDirectory.get(), pattern);
+        // Renaming while the walk is still listing a directory could hand the
+        // renamed entries back as new matches, so the matches are taken first.
+        List<Path> matches = new ArrayList<>();
+        glob.forEach(matches::add);
+        if (matches.isEmpty())
+        {
+            ErrorPrinter.setLastError("The system cannot find the file specified: " + pattern);
+            return CommandResult.PathNotFound;
+        }
+        if (matches.size() > 1 && !Glob.hasWildcards(template))
+        {
+            ErrorPrinter.setLastError("A duplicate file name exists: " + template + " would be used for " + matches.size() + " files.");
+            return CommandResult.Failure;
+        }
+        List<String> failures = new ArrayList<>();
+        for (Path source : matches)
+        {
+            Path destination = source.resolveSibling(glob.substitute(source.getFileName().toString(), template));
+            if (destination.equals(source))
+                continue;
+            try
+            {
+                Files.move(source, destination);
+                MetadataCache.invalidateTree(source);
+                MetadataCache.invalidateEntry(destination);
+            }
+            catch (Exception e)
+            {
+                failures.add(source.getFileName() + ": " + e.getMessage());
+            }
+        }
+        if (!failures.isEmpty())
+        {
+            ErrorPrinter.setLastError("Error renaming file: " + String.join(System.lineSeparator(), failures));
+            return CommandResult.Failure;
+        }
+        return CommandResult.Success;
+    }
 }
\ No newline at end of file
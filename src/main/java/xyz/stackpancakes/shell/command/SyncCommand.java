@@ -0,0 +1,433 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CopyEngine;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.FileHashing;
+import xyz.stackpancakes.shell.util.IoThrottle;
+import xyz.stackpancakes.shell.util.MetadataCache;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.util.ProgressReporter;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Mirrors a source directory into a destination directory, copying only the
+ * files whose size or modification time differ (or whose content differs when
+ * {@code --hash} is given).  Extraneous destination entries are removed with
+ * {@code --purge} and {@code --dry-run} prints the plan without touching the
+ * disk.  The state of the destination is remembered in a manifest file so
+ * that later runs do not have to re-stat the destination tree.
+ */
+public final class SyncCommand implements Command
+{
+    private static final String MANIFEST_NAME = ".jcmdsync";
+    private static final String MANIFEST_HEADER = "# jcmdshell sync manifest v1";
+    private static final String USAGE = "SYNC [-n | --dry-run] [--hash] [--purge] [--no-cache] [-j <threads>] <source> <destination>";
+
+    private record SyncOptions(Path source, Path destination, boolean dryRun, boolean hash, boolean purge, boolean useCache, int parallelism) {}
+    private record FileState(long size, long modified, String hash)
+    {
+        FileState withHash(String newHash)
+        {
+            return new FileState(size, modified, newHash);
+        }
+    }
+    private static final class Tree
+    {
+        final Map<String, FileState> files = new HashMap<>();
+        final Set<String> directories = new HashSet<>();
+    }
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        try
+        {
+            SyncOptions options = parseArguments(args);
+            return synchronize(options);
+        }
+        catch (InvalidArgumentsException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.InvalidSyntax;
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Error", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.Failure;
+        }
+    }
+    private SyncOptions parseArguments(List<String> args) throws InvalidArgumentsException
+    {
+        boolean dryRun = false;
+        boolean hash = false;
+        boolean purge = false;
+        boolean useCache = true;
+        int parallelism = CopyEngine.defaultParallelism();
+        List<String> operands = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++)
+        {
+            String arg = args.get(i);
+            if (arg.equalsIgnoreCase("-n") || arg.equalsIgnoreCase("--dry-run"))
+                dryRun = true;
+            else if (arg.equalsIgnoreCase("--hash"))
+                hash = true;
+            else if (arg.equalsIgnoreCase("--purge"))
+                purge = true;
+            else if (arg.equalsIgnoreCase("--no-cache"))
+                useCache = false;
+            else if (arg.equalsIgnoreCase("-j"))
+            {
+                if (i + 1 >= args.size())
+                    throw new InvalidArgumentsException(USAGE);
+                parallelism = parsePositive(args.get(++i));
+            }
+            else if (arg.startsWith("-") && arg.length() > 1)
+                throw new InvalidArgumentsException("Unknown option: " + arg);
+            else
+                operands.add(arg);
+        }
+        if (operands.size() != 2)
+            throw new InvalidArgumentsException(USAGE);
+        Path source = CurrentDirectory.get().resolve(operands.get(0)).normalize();
+        Path destination = CurrentDirectory.get().resolve(operands.get(1)).normalize();
+        return new SyncOptions(source, destination, dryRun, hash, purge, useCache, parallelism);
+    }
+    private static int parsePositive(String value) throws InvalidArgumentsException
+    {
+        try
+        {
+            int n = Integer.parseInt(value);
+            if (n > 0)
+                return n;
+        }
+        catch (NumberFormatException ignored) {}
+        throw new InvalidArgumentsException("Thread count must be a positive number: " + value);
+    }
+    private CommandResult synchronize(SyncOptions options) throws IOException
+    {
+        if (!Files.isDirectory(options.source()))
+        {
+            ErrorPrinter.setLastError("The system cannot find the directory specified: " + options.source());
+            return CommandResult.PathNotFound;
+        }
+        if (options.destination().startsWith(options.source()) && !options.destination().equals(options.source()))
+        {
+            ErrorPrinter.setLastError("The destination cannot be inside the source: " + options.destination());
+            return CommandResult.InvalidSyntax;
+        }
+        Tree source = scan(options.source());
+        Tree destination = null;
+        if (options.useCache())
+            destination = readManifest(options.destination());
+        if (destination == null)
+            destination = Files.isDirectory(options.destination()) ? scan(options.destination()) : new Tree();
+
+        List<String> directoriesToCreate = new ArrayList<>();
+        for (String dir : source.directories)
+            if (!destination.directories.contains(dir))
+                directoriesToCreate.add(dir);
+        Collections.sort(directoriesToCreate);
+
+        List<String> toCopy = planCopies(options, source, destination);
+        List<String> filesToDelete = new ArrayList<>();
+        List<String> directoriesToDelete = new ArrayList<>();
+        if (options.purge())
+        {
+            for (String file : destination.files.keySet())
+                if (!source.files.containsKey(file))
+                    filesToDelete.add(file);
+            for (String dir : destination.directories)
+                if (!source.directories.contains(dir))
+                    directoriesToDelete.add(dir);
+            Collections.sort(filesToDelete);
+            directoriesToDelete.sort(Comparator.reverseOrder());
+        }
+        int unchanged = source.files.size() - toCopy.size();
+
+        if (options.dryRun())
+        {
+            StringBuilder sb = new StringBuilder();
+            for (String dir : directoriesToCreate)
+                sb.append("  MKDIR   ").append(dir).append(System.lineSeparator());
+            for (String file : toCopy)
+                sb.append("  COPY    ").append(file).append(System.lineSeparator());
+            for (String file : filesToDelete)
+                sb.append("  DELETE  ").append(file).append(System.lineSeparator());
+            for (String dir : directoriesToDelete)
+                sb.append("  RMDIR   ").append(dir).append(System.lineSeparator());
+            sb.append(String.format("%d to copy, %d unchanged, %d to delete (dry run)%n",
+                    toCopy.size(), unchanged, filesToDelete.size() + directoriesToDelete.size()));
+            OutputPrinter.setLastOutput(sb.toString());
+            return CommandResult.Success;
+        }
+
+        Files.createDirectories(options.destination());
+        MetadataCache.invalidateEntry(options.destination());
+        for (String dir : directoriesToCreate)
+        {
+            Files.createDirectories(resolve(options.destination(), dir));
+            MetadataCache.invalidateEntry(resolve(options.destination(), dir));
+        }
+
+        List<CopyEngine.Task> tasks = new ArrayList<>(toCopy.size());
+        long bytesToCopy = 0;
+        for (String file : toCopy)
+        {
+            tasks.add(new CopyEngine.Task(resolve(options.source(), file), resolve(options.destination(), file)));
+            bytesToCopy += source.files.get(file).size();
+        }
+        List<CopyEngine.Failure> failures;
+        try (ProgressReporter progress = ProgressReporter.start("Syncing", tasks.size(), bytesToCopy))
+        {
+            failures = new ArrayList<>(CopyEngine.copyAll(tasks, options.parallelism(), false,
+                    task -> progress.step(task.source().toFile().length())));
+        }
+
+        int deleted = 0;
+        for (String file : filesToDelete)
+        {
+            try
+            {
+                IoThrottle.deleteIfExists(resolve(options.destination(), file));
+                deleted++;
+            }
+            catch (IOException e)
+            {
+                failures.add(new CopyEngine.Failure(resolve(options.destination(), file), e.getMessage()));
+            }
+        }
+        for (String dir : directoriesToDelete)
+        {
+            try
+            {
+                IoThrottle.deleteIfExists(resolve(options.destination(), dir));
+                deleted++;
+            }
+            catch (IOException e)
+            {
+                failures.add(new CopyEngine.Failure(resolve(options.destination(), dir), e.getMessage()));
+            }
+        }
+
+        Tree result = new Tree();
+        result.directories.addAll(source.directories);
+        result.files.putAll(source.files);
+        if (!options.purge())
+        {
+            destination.files.forEach(result.files::putIfAbsent);
+            result.directories.addAll(destination.directories);
+        }
+        for (CopyEngine.Failure failure : failures)
+            if (failure.source().startsWith(options.source()))
+                result.files.remove(relative(options.source(), failure.source()));
+        writeManifest(options.destination(), result);
+
+        OutputPrinter.setLastOutput(String.format("%d copied, %d unchanged, %d deleted, %d failed%n",
+                toCopy.size() - countCopyFailures(failures, options.source()), unchanged, deleted, failures.size()));
+        if (failures.isEmpty())
+            return CommandResult.Success;
+        StringBuilder sb = new StringBuilder();
+        for (CopyEngine.Failure failure : failures)
+            sb.append(Ansi.withForeground("Error", Ansi.Foreground.RED)).append(": ")
+                    .append(failure.source()).append(": ").append(failure.message()).append(System.lineSeparator());
+        ErrorPrinter.setLastError(OutputPrinter.getLastOutput().orElse("") + sb);
+        OutputPrinter.clearLastOutput();
+        return CommandResult.Failure;
+    }
+    private static int countCopyFailures(List<CopyEngine.Failure> failures, Path source)
+    {
+        int count = 0;
+        for (CopyEngine.Failure failure : failures)
+            if (failure.source().startsWith(source))
+                count++;
+        return count;
+    }
+    private List<String> planCopies(SyncOptions options, Tree source, Tree destination)
+    {
+        List<String> sameSize = new ArrayList<>();
+        List<String> toCopy = new ArrayList<>();
+        for (Map.Entry<String, FileState> entry : source.files.entrySet())
+        {
+            FileState dest = destination.files.get(entry.getKey());
+            FileState src = entry.getValue();
+            if (dest == null || dest.size() != src.size())
+                toCopy.add(entry.getKey());
+            else if (options.hash())
+                sameSize.add(entry.getKey());
+            else if (dest.modified() != src.modified())
+                toCopy.add(entry.getKey());
+        }
+        if (!sameSize.isEmpty())
+        {
+            Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+            List<String> changed = Collections.synchronizedList(new ArrayList<>());
+            List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<>());
+            try (ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.parallelism(), sameSize.size()),
+                    IoThrottle.workerThreadFactory("hash")))
+            {
+                for (String file : sameSize)
+                    pool.execute(() ->
+                    {
+                        if (Cancellation.isRequested() || !failures.isEmpty())
+                            return;
+                        try
+                        {
+                            String srcHash = hash(resolve(options.source(), file));
+                            sourceHashes.put(file, srcHash);
+                            FileState dest = destination.files.get(file);
+                            String destHash = dest.hash() != null ? dest.hash() : hash(resolve(options.destination(), file));
+                            if (!srcHash.equals(destHash))
+                                changed.add(file);
+                        }
+                        catch (RuntimeException e)
+                        {
+                            failures.add(e);
+                        }
+                    });
+            }
+            Cancellation.check();
+            if (!failures.isEmpty())
+                throw failures.getFirst();
+            sourceHashes.forEach((file, srcHash) -> source.files.computeIfPresent(file, (_, state) -> state.withHash(srcHash)));
+            toCopy.addAll(changed);
+        }
+        Collections.sort(toCopy);
+        return toCopy;
+    }
+    private static String hash(Path file)
+    {
+        try
+        {
+            return FileHashing.fullHash(file);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+    private static Tree scan(Path root) throws IOException
+    {
+        Tree tree = new Tree();
+        Files.walkFileTree(root, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            {
+                if (!dir.equals(root))
+                    tree.directories.add(relative(root, dir));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                Cancellation.check();
+                if (attrs.isRegularFile() && !file.equals(root.resolve(MANIFEST_NAME)))
+                    tree.files.put(relative(root, file), new FileState(attrs.size(), attrs.lastModifiedTime().toMillis(), null));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return tree;
+    }
+    private static Tree readManifest(Path destination)
+    {
+        Path manifest = destination.resolve(MANIFEST_NAME);
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8))
+        {
+            if (!MANIFEST_HEADER.equals(reader.readLine()))
+                return null;
+            Tree tree = new Tree();
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.startsWith("D\t"))
+                    tree.directories.add(line.substring(2));
+                else if (line.startsWith("F\t"))
+                {
+                    String[] parts = line.split("\t", 5);
+                    if (parts.length != 5)
+                        return null;
+                    String hash = parts[3].equals("-") ? null : parts[3];
+                    tree.files.put(parts[4], new FileState(Long.parseLong(parts[1]), Long.parseLong(parts[2]), hash));
+                }
+                else
+                    return null;
+            }
+            return tree;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+    private static void writeManifest(Path destination, Tree tree) throws IOException
+    {
+        Path manifest = destination.resolve(MANIFEST_NAME);
+        Path temp = destination.resolve(MANIFEST_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+        {
+            writer.write(MANIFEST_HEADER);
+            writer.newLine();
+            List<String> dirs = new ArrayList<>(tree.directories);
+            Collections.sort(dirs);
+            for (String dir : dirs)
+            {
+                writer.write("D\t" + dir);
+                writer.newLine();
+            }
+            List<String> files = new ArrayList<>(tree.files.keySet());
+            Collections.sort(files);
+            for (String file : files)
+            {
+                FileState state = tree.files.get(file);
+                writer.write("F\t" + state.size() + "\t" + state.modified() + "\t"
+                        + (state.hash() == null ? "-" : state.hash()) + "\t" + file);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        MetadataCache.invalidateEntry(manifest);
+    }
+    private static String relative(Path root, Path path)
+    {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+    private static Path resolve(Path root, String relative)
+    {
+        return root.resolve(relative.replace('/', File.separatorChar));
+    }
+    private static final class InvalidArgumentsException extends Exception
+    {
+        public InvalidArgumentsException(String message)
+        {
+            super(message);
+        }
+    }
+}
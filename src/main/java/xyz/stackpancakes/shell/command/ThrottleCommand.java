@@ -0,0 +1,91 @@
+package xyz.stackpancakes.shell.command;
+
+import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.IoThrottle;
+import xyz.stackpancakes.shell.util.OutputPrinter;
+import xyz.stackpancakes.shell.core.Command;
+import xyz.stackpancakes.shell.core.CommandResult;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows or changes the I/O limits shared by the bulk file built-ins.  Rates
+ * accept a {@code K}, {@code M} or {@code G} suffix (powers of 1024) and
+ * {@code 0} removes a limit; {@code THROTTLE OFF} removes both.
+ */
+public final class ThrottleCommand implements Command
+{
+    private static final String USAGE = "THROTTLE [--bytes <rate>] [--ops <rate>] | THROTTLE OFF";
+
+    @Override
+    public CommandResult execute(List<String> args)
+    {
+        try
+        {
+            long bytes = IoThrottle.bytesPerSecond();
+            long ops = IoThrottle.operationsPerSecond();
+            if (args.size() == 1 && args.getFirst().equalsIgnoreCase("OFF"))
+            {
+                bytes = 0;
+                ops = 0;
+            }
+            else
+            {
+                for (int i = 0; i < args.size(); i++)
+                {
+                    String arg = args.get(i);
+                    if (i + 1 >= args.size())
+                        throw new InvalidArgumentsException(USAGE);
+                    if (arg.equalsIgnoreCase("--bytes"))
+                        bytes = parseRate(args.get(++i));
+                    else if (arg.equalsIgnoreCase("--ops"))
+                        ops = parseRate(args.get(++i));
+                    else
+                        throw new InvalidArgumentsException("Unknown option: " + arg);
+                }
+            }
+            if (!args.isEmpty())
+                IoThrottle.setLimits(bytes, ops);
+            OutputPrinter.setLastOutput(String.format("Bytes per second: %s%nOperations per second: %s%n",
+                    bytes == 0 ? "unlimited" : bytes, ops == 0 ? "unlimited" : ops));
+            return CommandResult.Success;
+        }
+        catch (InvalidArgumentsException e)
+        {
+            ErrorPrinter.setLastError(Ansi.withForeground("Usage", Ansi.Foreground.RED) + ": " + e.getMessage());
+            return CommandResult.InvalidSyntax;
+        }
+    }
+    private static long parseRate(String value) throws InvalidArgumentsException
+    {
+        String upper = value.toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (upper.endsWith("K") || upper.endsWith("M") || upper.endsWith("G"))
+        {
+            multiplier = switch (upper.charAt(upper.length() - 1))
+            {
+                case 'K' -> 1L << 10;
+                case 'M' -> 1L << 20;
+                default -> 1L << 30;
+            };
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        try
+        {
+            long rate = Long.parseLong(upper);
+            if (rate >= 0)
+                return Math.multiplyExact(rate, multiplier);
+        }
+        catch (NumberFormatException | ArithmeticException ignored) {}
+        throw new InvalidArgumentsException("Rate must be a non-negative number: " + value);
+    }
+    private static final class InvalidArgumentsException extends Exception
+    {
+        public InvalidArgumentsException(String message)
+        {
+            super(message);
+        }
+    }
+}
@@ -2,16 +2,23 @@ package xyz.stackpancakes.shell.command.function;
 
 import xyz.stackpancakes.shell.command.ChangeDirectoriesCommand;
 import xyz.stackpancakes.shell.command.MakeDirectoriesCommand;
-import xyz.stackpancakes.shell.core.ReservedWords;
+import xyz.stackpancakes.shell.core.CommandRegistry;
 import xyz.stackpancakes.shell.util.Ansi;
+import xyz.stackpancakes.shell.util.Cancellation;
+import xyz.stackpancakes.shell.util.CompressedInput;
 import xyz.stackpancakes.shell.util.CurrentDirectory;
 import xyz.stackpancakes.shell.util.ErrorPrinter;
+import xyz.stackpancakes.shell.util.Glob;
+import xyz.stackpancakes.shell.util.MetadataCache;
 import xyz.stackpancakes.shell.core.CommandResult;
 import xyz.stackpancakes.shell.util.OutputPrinter;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.MalformedInputException;
@@ -27,35 +34,18 @@ import static xyz.stackpancakes.REPL.PATCH;
 public final class FunctionCommands
 {
     private FunctionCommands() {}
-    private static final List<String> stringHelp = createStringHelp();
-    private static List<String> createStringHelp()
+    public static CommandResult helpCommand(CommandRegistry registry)
     {
         Map<String, LinkedHashSet<String>> map = new LinkedHashMap<>();
-        for (ReservedWords w : ReservedWords.values())
-        {
-            if (w == ReservedWords.UNKNOWN)
-                continue;
-            map.computeIfAbsent(w.info(), _ -> new LinkedHashSet<>()).add(w.name());
-        }
-        List<String> list = new ArrayList<>();
+        for (CommandRegistry.Entry entry : registry.entries())
+            map.computeIfAbsent(entry.description(), _ -> new LinkedHashSet<>()).add(entry.name());
         for (Map.Entry<String, LinkedHashSet<String>> e : map.entrySet())
         {
-            String displayName = String.join("/", e.getValue());
-            list.add(displayName + ":" + e.getKey());
-        }
-        return list;
-    }
-
-    public static CommandResult helpCommand()
-    {
-        for (String entry : stringHelp)
-        {
-            String[] parts = entry.split(":", 2);
-            String nameColored = Ansi.withForeground(String.format("%-16s", parts[0]), Ansi.Foreground.YELLOW);
+            String nameColored = Ansi.withForeground(String.format("%-16s", String.join("/", e.getValue())), Ansi.Foreground.YELLOW);
 
             String prev = OutputPrinter.getLastOutput().orElse("");
 
-            OutputPrinter.setLastOutput(prev + String.format("| %s -> %s.%n", nameColored, parts[1]));
+            OutputPrinter.setLastOutput(prev + String.format("| %s -> %s.%n", nameColored, e.getKey()));
         }
         return CommandResult.Success;
     }
@@ -73,21 +63,15 @@ public final class FunctionCommands
     {
         if (args.size() != 1)
             return invalidUsage("SHOW <file>");
+        if (Glob.isPattern(CurrentDirectory.get(), args.getFirst()))
+            return showMatches(args.getFirst());
         Path file = CurrentDirectory.get().resolve(args.getFirst());
         if (!Files.exists(file) || !Files.isRegularFile(file))
             return pathNotFound(file);
-        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
-        decoder.onMalformedInput(CodingErrorAction.REPORT);
-        decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), decoder)))
+        Writer out = standardOutput();
+        try
         {
-            StringBuilder sb = new StringBuilder();
-
-            String line;
-            while ((line = reader.readLine()) != null)
-                sb.append(line).append(System.lineSeparator());
-
-            OutputPrinter.setLastOutput(sb.toString());
+            readFile(file, out);
             return CommandResult.Success;
         }
         catch (MalformedInputException e)
@@ -98,12 +82,87 @@ public final class FunctionCommands
         {
             return commandFailure("Error reading file: " + e.getMessage());
         }
+        finally
+        {
+            flush(out);
+        }
+    }
+    private static CommandResult showMatches(String pattern)
+    {
+        Writer out = standardOutput();
+        List<String> failures = new ArrayList<>();
+        boolean[] first = { true };
+        long matched;
+        try
+        {
+            matched = Glob.compile(CurrentDirectory.get(), pattern).forEach(file ->
+            {
+                if (!Files.isRegularFile(file))
+                    return;
+                Path shown = file.startsWith(CurrentDirectory.get()) ? CurrentDirectory.get().relativize(file) : file;
+                try
+                {
+                    if (!first[0])
+                        out.write(System.lineSeparator());
+                    first[0] = false;
+                    out.write(shown + System.lineSeparator() + System.lineSeparator());
+                    readFile(file, out);
+                }
+                catch (IOException e)
+                {
+                    failures.add(file + ": " + e.getMessage());
+                }
+            });
+        }
+        finally
+        {
+            flush(out);
+        }
+        if (matched == 0)
+            return pathNotFound(CurrentDirectory.get().resolve(pattern));
+        if (!failures.isEmpty())
+            return commandFailure("Error reading file: " + String.join(System.lineSeparator(), failures));
+        return CommandResult.Success;
+    }
+    /**
+     * Copies a file to {@code out} line by line as it is read, decompressing
+     * gzip, zlib and ZIP input on the way, so that neither the file nor its
+     * decompressed text is ever held in memory as a whole.
+     */
+    private static void readFile(Path file, Writer out) throws IOException
+    {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPORT);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(CompressedInput.open(file), decoder)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                Cancellation.check();
+                out.write(line);
+                out.write(System.lineSeparator());
+            }
+        }
+    }
+    private static Writer standardOutput()
+    {
+        return new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset()), 64 * 1024);
+    }
+    private static void flush(Writer out)
+    {
+        try
+        {
+            out.flush();
+        }
+        catch (IOException ignored) {}
     }
     private static CommandResult createFile(Path filePath)
     {
         try
         {
             Files.createFile(filePath);
+            MetadataCache.invalidateEntry(filePath);
             return CommandResult.Success;
         }
         catch (IOException e)
@@ -0,0 +1,293 @@
+package xyz.stackpancakes.shell.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a command line into tokens in a single pass.  This is the only
+ * place that knows the quoting rules, so running a command, completing it
+ * and highlighting it all see the same words.  The rules follow the Windows
+ * command prompt: double quotes group words and are removed, a caret outside
+ * of quotes takes the next character literally, and {@code |}, {@code <},
+ * {@code >}, {@code >>}, {@code &&}, {@code ||}, {@code &} and {@code ;}
+ * outside of quotes are operators even without spaces around them.
+ * <p>
+ * Tokens are not strings but offsets into the original line, kept in one
+ * {@code int} array, so lexing allocates nothing per token.  The text of a
+ * word is only built when it is asked for, and only copied character by
+ * character when it actually contains quotes or carets.
+ */
+public final class CommandLexer
+{
+    public static final int WORD = 0;
+    public static final int PIPE = 1;
+    public static final int REDIRECT_IN = 2;
+    public static final int REDIRECT_OUT = 3;
+    public static final int REDIRECT_APPEND = 4;
+    public static final int AND = 5;
+    public static final int OR = 6;
+    public static final int SEQUENCE = 7;
+
+    /** The word contains double quotes. */
+    public static final int QUOTED = 1;
+    /** The word contains a caret escape. */
+    public static final int ESCAPED = 2;
+    /** The word ends inside an open double quote. */
+    public static final int UNTERMINATED = 4;
+
+    private static final int FIELDS = 4;
+
+    private CommandLexer() {}
+
+    public static Tokens lex(String line)
+    {
+        Tokens tokens = new Tokens(line);
+        int n = line.length();
+        int i = 0;
+        while (i < n)
+        {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                i++;
+                continue;
+            }
+            char next = i + 1 < n ? line.charAt(i + 1) : '\0';
+            int type = switch (c)
+            {
+                case '|' -> next == '|' ? OR : PIPE;
+                case '&' -> next == '&' ? AND : SEQUENCE;
+                case '>' -> next == '>' ? REDIRECT_APPEND : REDIRECT_OUT;
+                case '<' -> REDIRECT_IN;
+                case ';' -> SEQUENCE;
+                default -> WORD;
+            };
+            if (type == WORD)
+            {
+                i = word(line, i, tokens);
+                continue;
+            }
+            int length = type == OR || type == AND || type == REDIRECT_APPEND ? 2 : 1;
+            tokens.add(type, i, i + length, 0);
+            i += length;
+        }
+        return tokens;
+    }
+
+    private static int word(String line, int start, Tokens tokens)
+    {
+        int n = line.length();
+        int flags = 0;
+        boolean inQuotes = false;
+        int i = start;
+        while (i < n)
+        {
+            char c = line.charAt(i);
+            if (c == '"')
+            {
+                flags |= QUOTED;
+                inQuotes = !inQuotes;
+            }
+            else if (!inQuotes)
+            {
+                if (c == '^' && i + 1 < n)
+                {
+                    flags |= ESCAPED;
+                    i += 2;
+                    continue;
+                }
+                if (Character.isWhitespace(c) || isOperator(c))
+                    break;
+            }
+            i++;
+        }
+        if (inQuotes)
+            flags |= UNTERMINATED;
+        tokens.add(WORD, start, i, flags);
+        return i;
+    }
+
+    private static boolean isOperator(char c)
+    {
+        return c == '|' || c == '&' || c == '<' || c == '>' || c == ';';
+    }
+
+    public static boolean isRedirect(int type)
+    {
+        return type == REDIRECT_IN || type == REDIRECT_OUT || type == REDIRECT_APPEND;
+    }
+
+    /**
+     * Operators that separate whole commands, as opposed to the pipe and the
+     * redirections, which belong to one command.
+     */
+    public static boolean isConnector(int type)
+    {
+        return type == AND || type == OR || type == SEQUENCE;
+    }
+
+    /**
+     * The tokens of one line: for each token its type, the offsets of its
+     * first character and of the character after it, and for words the
+     * {@link #QUOTED}, {@link #ESCAPED} and {@link #UNTERMINATED} flags.
+     */
+    public static final class Tokens
+    {
+        private final String line;
+        private int[] data = new int[8 * FIELDS];
+        private int count;
+
+        private Tokens(String line)
+        {
+            this.line = line;
+        }
+
+        private void add(int type, int start, int end, int flags)
+        {
+            if ((count + 1) * FIELDS > data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            int at = count++ * FIELDS;
+            data[at] = type;
+            data[at + 1] = start;
+            data[at + 2] = end;
+            data[at + 3] = flags;
+        }
+
+        public String line()
+        {
+            return line;
+        }
+
+        public int size()
+        {
+            return count;
+        }
+
+        public boolean isEmpty()
+        {
+            return count == 0;
+        }
+
+        public int type(int index)
+        {
+            return data[checked(index) * FIELDS];
+        }
+
+        public int start(int index)
+        {
+            return data[checked(index) * FIELDS + 1];
+        }
+
+        public int end(int index)
+        {
+            return data[checked(index) * FIELDS + 2];
+        }
+
+        public int flags(int index)
+        {
+            return data[checked(index) * FIELDS + 3];
+        }
+
+        public boolean contains(int type)
+        {
+            for (int i = 0; i < count; i++)
+                if (data[i * FIELDS] == type)
+                    return true;
+            return false;
+        }
+
+        /**
+         * Index of the first token at or after {@code from} with one of the
+         * connector types, or {@link #size()} if there is none.
+         */
+        public int nextConnector(int from)
+        {
+            int i = from;
+            while (i < count && !isConnector(data[i * FIELDS]))
+                i++;
+            return i;
+        }
+
+        /**
+         * The token as it was typed, quotes and carets included.
+         */
+        public String raw(int index)
+        {
+            return line.substring(start(index), end(index));
+        }
+
+        /**
+         * The value of a word with its quotes and escapes removed, or the
+         * operator itself for any other token.
+         */
+        public String text(int index)
+        {
+            int at = checked(index) * FIELDS;
+            int start = data[at + 1];
+            int end = data[at + 2];
+            if (data[at] != WORD || (data[at + 3] & (QUOTED | ESCAPED)) == 0)
+                return line.substring(start, end);
+            return unquote(line, start, end);
+        }
+
+        /**
+         * The values of the words in tokens {@code from} to {@code to}; any
+         * operators in between are skipped.
+         */
+        public List<String> words(int from, int to)
+        {
+            List<String> words = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++)
+                if (data[i * FIELDS] == WORD)
+                    words.add(text(i));
+            return words;
+        }
+
+        /**
+         * Index of the token that contains {@code offset} or ends right at
+         * it, or -1 if {@code offset} is in the space between tokens.
+         */
+        public int tokenAt(int offset)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                int start = data[i * FIELDS + 1];
+                int end = data[i * FIELDS + 2];
+                if (offset >= start && offset <= end)
+                    return i;
+                if (start > offset)
+                    break;
+            }
+            return -1;
+        }
+
+        private int checked(int index)
+        {
+            if (index < 0 || index >= count)
+                throw new IndexOutOfBoundsException(index);
+            return index;
+        }
+    }
+
+    /**
+     * Removes the quotes and caret escapes from {@code line} between
+     * {@code start} and {@code end}.
+     */
+    public static String unquote(String line, int start, int end)
+    {
+        StringBuilder sb = new StringBuilder(end - start);
+        boolean inQuotes = false;
+        for (int i = start; i < end; i++)
+        {
+            char c = line.charAt(i);
+            if (c == '"')
+                inQuotes = !inQuotes;
+            else if (c == '^' && !inQuotes && i + 1 < end)
+                sb.append(line.charAt(++i));
+            else
+                sb.append(c);
+        }
+        return sb.toString();
+    }
+}
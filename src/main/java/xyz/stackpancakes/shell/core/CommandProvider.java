@@ -0,0 +1,15 @@
+package xyz.stackpancakes.shell.core;
+
+/**
+ * Source of commands for the {@link CommandRegistry}.  Implementations are
+ * found with {@link java.util.ServiceLoader}, so a jar on the class path
+ * that lists one in
+ * {@code META-INF/services/xyz.stackpancakes.shell.core.CommandProvider}
+ * adds its commands to the shell.  Register a factory such as
+ * {@code () -> new MyCommand()} rather than a method reference to the
+ * constructor, which would load the class at startup.
+ */
+public interface CommandProvider
+{
+    void registerCommands(CommandRegistry registry);
+}
@@ -0,0 +1,166 @@
+package xyz.stackpancakes.shell.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+
+/**
+ * The commands the shell knows by name.  Names are matched ignoring case
+ * through an open-addressing table hashed on the upper-cased characters, so
+ * looking up a name neither allocates nor throws, whether it is a built-in
+ * or, as for every external program, not.
+ * <p>
+ * Commands come from the {@link CommandProvider}s found by
+ * {@link ServiceLoader}.  A provider registers a factory per name rather
+ * than an instance, so the class behind a command is only loaded when the
+ * command first runs.  The table is replaced, never changed in place, so it
+ * can be read from any thread while commands are registered.
+ */
+public final class CommandRegistry
+{
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * A named command, with the description shown by {@code HELP} and in
+     * completion.  Every run gets a fresh command from the factory.
+     */
+    public record Entry(String name, String description, Supplier<? extends Command> factory)
+    {
+        public CommandResult run(List<String> args)
+        {
+            return factory.get().execute(args);
+        }
+    }
+
+    private volatile Entry[] table = new Entry[16];
+    private volatile List<Entry> entries = List.of();
+    private volatile int generation;
+
+    /**
+     * Creates a registry with the commands of every provider on the class
+     * path.  {@code builtIns} is registered first, and also when it is not
+     * listed as a service, as in a build that did not copy the resources.
+     */
+    public static CommandRegistry load(CommandProvider builtIns)
+    {
+        CommandRegistry registry = new CommandRegistry();
+        builtIns.registerCommands(registry);
+        for (ServiceLoader.Provider<CommandProvider> provider : ServiceLoader.load(CommandProvider.class).stream().toList())
+            if (provider.type() != builtIns.getClass())
+                provider.get().registerCommands(registry);
+        return registry;
+    }
+
+    public synchronized void register(String name, String description, Supplier<? extends Command> factory)
+    {
+        put(new Entry(normalize(name), description, factory));
+    }
+
+    /**
+     * Registers {@code alias} as another name for the command registered as
+     * {@code target}.
+     */
+    public synchronized void alias(String alias, String target)
+    {
+        Entry entry = find(target);
+        if (entry == null)
+            throw new IllegalArgumentException("No command named " + target);
+        put(new Entry(normalize(alias), entry.description(), entry.factory()));
+    }
+
+    /**
+     * The command registered under {@code name} in any case, or {@code null}.
+     */
+    public Entry find(CharSequence name)
+    {
+        Entry[] current = table;
+        int mask = current.length - 1;
+        for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask)
+        {
+            Entry entry = current[slot];
+            if (entry == null || matches(entry.name(), name))
+                return entry;
+        }
+    }
+
+    public boolean contains(CharSequence name)
+    {
+        return find(name) != null;
+    }
+
+    /**
+     * Every command in the order it was registered.
+     */
+    public List<Entry> entries()
+    {
+        return entries;
+    }
+
+    /**
+     * A number that changes whenever a command is registered, for callers
+     * that cache what a name resolved to.
+     */
+    public int generation()
+    {
+        return generation;
+    }
+
+    private void put(Entry entry)
+    {
+        List<Entry> list = new ArrayList<>(entries);
+        list.removeIf(existing -> existing.name().equals(entry.name()));
+        list.add(entry);
+        int capacity = table.length;
+        while (list.size() > capacity * LOAD_FACTOR)
+            capacity <<= 1;
+        Entry[] next = new Entry[capacity];
+        for (Entry existing : list)
+            insert(next, existing);
+        entries = List.copyOf(list);
+        table = next;
+        generation++;
+    }
+
+    private static void insert(Entry[] table, Entry entry)
+    {
+        int mask = table.length - 1;
+        int slot = hash(entry.name()) & mask;
+        while (table[slot] != null && !table[slot].name().equals(entry.name()))
+            slot = (slot + 1) & mask;
+        table[slot] = entry;
+    }
+
+    private static int hash(CharSequence name)
+    {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++)
+            h = 31 * h + upper(name.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String upperName, CharSequence name)
+    {
+        if (upperName.length() != name.length())
+            return false;
+        for (int i = 0; i < name.length(); i++)
+            if (upperName.charAt(i) != upper(name.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static String normalize(String name)
+    {
+        char[] chars = new char[name.length()];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = upper(name.charAt(i));
+        return new String(chars);
+    }
+
+    private static char upper(char c)
+    {
+        if (c >= 'a' && c <= 'z')
+            return (char) (c - ('a' - 'A'));
+        return c < 0x80 ? c : Character.toUpperCase(c);
+    }
+}
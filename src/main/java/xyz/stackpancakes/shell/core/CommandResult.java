@@ -16,6 +16,7 @@ public enum CommandResult
     AccessDenied,
     PathNotFound,
     UnknownOption,
+    Interrupted,
     UnknownError;
 
     @Override
@@ -1,28 +1,35 @@
 package xyz.stackpancakes.shell.core;
 
-import java.util.Locale;
-
 /**
- * Enumeration of reserved command names.  Each constant has an associated
- * informational string describing its purpose.  Methods are provided to look
- * up a reserved word from a string and obtain that description.
+ * Enumeration of the names of the built-in commands.  Each constant has an
+ * associated informational string describing its purpose.  Names are looked
+ * up through the {@link CommandRegistry}, which the built-ins are registered
+ * in under these names.
  */
 public enum ReservedWords
 {
+    ARCHIVE,
     CHDIR,
     CD,
     CLEAR,
     CLS,
+    COMPARE,
     COPY,
     DELETE,
     DEL,
+    DIFFDIR,
     DIR,
+    DUPES,
     ERASE,
     EXIT,
+    FC,
     HELP,
+    INDEX,
+    LOCATE,
     MCD,
     MKDIR,
     MD,
+    MOVE,
     NEW,
     PAUSE,
     PRINT,
@@ -31,24 +38,12 @@ public enum ReservedWords
     RD,
     REN,
     SHOW,
+    SYNC,
+    THROTTLE,
     VERSION,
     VER,
     WHEREAMI,
-    UNKNOWN;
-
-    public static ReservedWords fromString(String str)
-    {
-        if (str == null)
-            return UNKNOWN;
-        try
-        {
-            return ReservedWords.valueOf(str.toUpperCase(Locale.ROOT));
-        }
-        catch (IllegalArgumentException ex)
-        {
-            return UNKNOWN;
-        }
-    }
+    Z;
 
     public String info()
     {
@@ -65,13 +60,22 @@ public enum ReservedWords
             case RMDIR, RD -> "Remove Directories";
             case RENAME, REN -> "Replace a file or files";
             case COPY -> "Copy files";
+            case COMPARE, DIFFDIR -> "Compare two directory trees";
+            case FC -> "Compare two files";
+            case DUPES -> "Find duplicate files";
+            case INDEX -> "Build or refresh the filename index";
+            case LOCATE -> "Find indexed files by name";
             case NEW -> "Create a file";
             case SHOW -> "Outputs the file";
+            case MOVE -> "Move files and directories, across drives if needed";
+            case SYNC -> "Mirror a directory, copying only changed files";
+            case THROTTLE -> "Limit the disk I/O of file commands";
             case DELETE, DEL, ERASE -> "Removes the file";
+            case ARCHIVE -> "Create or extract ZIP and TAR.GZ archives";
             case CHDIR, CD -> "Change current directories";
             case WHEREAMI -> "Show the current directories";
+            case Z -> "Jump to a frequently used directory";
             case PAUSE -> "Delays the shell until you press any keys";
-            default -> "UNKNOWN";
         };
     }
 }
\ No newline at end of file
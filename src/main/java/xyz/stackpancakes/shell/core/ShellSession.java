@@ -0,0 +1,364 @@
+package xyz.stackpancakes.shell.core;
+
+import org.jline.terminal.Terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Everything one user of the shell changes as they work: the current
+ * directory, the environment, standard input, output and error, the output
+ * and error of the last command, the exit code and process of the last
+ * external program, the cancellation flag, the history and, for a session
+ * served to a remote client, its terminal.  Several sessions
+ * can run side by side in one JVM, each on its own threads.
+ * <p>
+ * A session is bound to the thread running {@link #call} and to every
+ * thread that thread starts, such as the workers of a copy or the pumps of
+ * an external program.  Code that is not inside any session, like the
+ * interactive shell, uses the {@linkplain #process() process session}, which
+ * owns the real standard streams and the {@code user.dir} property.  The
+ * classes that predate sessions, such as {@code CurrentDirectory},
+ * {@code Environment} and {@code OutputPrinter}, keep their static methods
+ * and act on {@link #current()}.  {@link System#in}, {@link System#out} and
+ * {@link System#err} are replaced once by streams that do the same, so
+ * commands can keep printing to them.
+ */
+public final class ShellSession
+{
+    private static final int HISTORY_SIZE = 500;
+
+    private static final InputStream STANDARD_IN = System.in;
+    private static final PrintStream STANDARD_OUT = System.out;
+    private static final PrintStream STANDARD_ERR = System.err;
+    private static final ShellSession PROCESS = new ShellSession(null, null, STANDARD_IN, STANDARD_OUT, STANDARD_ERR);
+    private static final InheritableThreadLocal<ShellSession> CURRENT = new InheritableThreadLocal<>();
+
+    static
+    {
+        System.setIn(new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                return current().in.read();
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                return current().in.read(b, off, len);
+            }
+            @Override
+            public int available() throws IOException
+            {
+                return current().in.available();
+            }
+        });
+        System.setOut(new PrintStream(new SessionOutput(false), true, STANDARD_OUT.charset()));
+        System.setErr(new PrintStream(new SessionOutput(true), true, STANDARD_ERR.charset()));
+    }
+
+    private final Object lock = new Object();
+    private final ArrayDeque<String> history = new ArrayDeque<>();
+    private final AtomicReference<Process> process = new AtomicReference<>();
+    private volatile Path directory;
+    private volatile Map<String, String> environment;
+    private volatile InputStream in;
+    private volatile PrintStream out;
+    private volatile PrintStream err;
+    private volatile Terminal terminal;
+    private volatile boolean cancelled;
+    private volatile int lastExitCode;
+    private String lastOutput;
+    private String lastError;
+
+    /**
+     * Creates a session starting in {@code directory} with the environment
+     * variables {@code environment}, or those of this process if it is
+     * {@code null}, and the given standard streams.
+     */
+    public ShellSession(Path directory, Map<String, String> environment, InputStream in, PrintStream out, PrintStream err)
+    {
+        this.directory = directory;
+        this.environment = environment == null ? null : Map.copyOf(environment);
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * The session of the calling thread, or the process session outside of
+     * any other.
+     */
+    public static ShellSession current()
+    {
+        ShellSession session = CURRENT.get();
+        return session == null ? PROCESS : session;
+    }
+
+    public static ShellSession process()
+    {
+        return PROCESS;
+    }
+
+    public boolean isProcess()
+    {
+        return this == PROCESS;
+    }
+
+    /**
+     * Runs {@code task} with this session as the current one, and restores
+     * the previous one afterwards.
+     */
+    public <T> T call(Supplier<T> task)
+    {
+        ShellSession previous = CURRENT.get();
+        CURRENT.set(this);
+        try
+        {
+            return task.get();
+        }
+        finally
+        {
+            if (previous == null)
+                CURRENT.remove();
+            else
+                CURRENT.set(previous);
+        }
+    }
+
+    public Path directory()
+    {
+        Path current = directory;
+        if (current == null)
+            directory = current = Paths.get(System.getProperty("user.dir"));
+        return current;
+    }
+
+    public void setDirectory(Path directory)
+    {
+        this.directory = directory;
+        if (isProcess())
+            System.setProperty("user.dir", directory.toString());
+    }
+
+    /**
+     * The environment variables of this session, or {@code null} when they
+     * are those of this process.
+     */
+    public Map<String, String> environment()
+    {
+        return environment;
+    }
+
+    public void setEnvironment(Map<String, String> environment)
+    {
+        this.environment = environment == null ? null : Map.copyOf(environment);
+    }
+
+    public String getenv(String name)
+    {
+        Map<String, String> variables = environment;
+        return variables == null ? System.getenv(name) : variables.get(name);
+    }
+
+    public InputStream in()
+    {
+        return in;
+    }
+
+    public PrintStream out()
+    {
+        return out;
+    }
+
+    public PrintStream err()
+    {
+        return err;
+    }
+
+    public void setIn(InputStream in)
+    {
+        this.in = in;
+    }
+
+    public void setOut(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    public void setErr(PrintStream err)
+    {
+        this.err = err;
+    }
+
+    /**
+     * The terminal of this session, or {@code null} when it uses the shared
+     * terminal of this process.
+     */
+    public Terminal terminal()
+    {
+        return terminal;
+    }
+
+    public void setTerminal(Terminal terminal)
+    {
+        this.terminal = terminal;
+    }
+
+    /**
+     * Whether standard input is the one of this process, which external
+     * programs can then inherit instead of having it copied to them.
+     */
+    public boolean inheritsStandardInput()
+    {
+        return in == STANDARD_IN;
+    }
+
+    public String lastOutput()
+    {
+        synchronized (lock)
+        {
+            return lastOutput;
+        }
+    }
+
+    public void setLastOutput(String output)
+    {
+        synchronized (lock)
+        {
+            lastOutput = output;
+        }
+    }
+
+    public String lastError()
+    {
+        synchronized (lock)
+        {
+            return lastError;
+        }
+    }
+
+    public void setLastError(String error)
+    {
+        synchronized (lock)
+        {
+            lastError = error;
+        }
+    }
+
+    /**
+     * Exit code of the last external program, which is reset to 0 by
+     * reading it.
+     */
+    public int takeLastExitCode()
+    {
+        int code = lastExitCode;
+        lastExitCode = 0;
+        return code;
+    }
+
+    public void setLastExitCode(int code)
+    {
+        lastExitCode = code;
+    }
+
+    /**
+     * Records the external program now running in the foreground, or
+     * {@code null} once it ended, so that {@link #cancel()} can stop it.
+     */
+    public void setProcess(Process running)
+    {
+        process.set(running);
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public void clearCancelled()
+    {
+        cancelled = false;
+    }
+
+    /**
+     * Asks the running built-in to stop and ends the running external
+     * program, as Ctrl-C does.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        Process running = process.get();
+        if (running != null && running.isAlive())
+        {
+            running.destroy();
+            if (running.isAlive())
+                running.destroyForcibly();
+        }
+    }
+
+    public void addHistory(String line)
+    {
+        synchronized (history)
+        {
+            if (history.size() == HISTORY_SIZE)
+                history.removeFirst();
+            history.addLast(line);
+        }
+    }
+
+    /**
+     * The last lines run in this session, oldest first.
+     */
+    public List<String> history()
+    {
+        synchronized (history)
+        {
+            return List.copyOf(history);
+        }
+    }
+
+    private static final class SessionOutput extends OutputStream
+    {
+        private final boolean error;
+
+        SessionOutput(boolean error)
+        {
+            this.error = error;
+        }
+
+        private PrintStream target()
+        {
+            ShellSession session = current();
+            return error ? session.err : session.out;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush()
+        {
+            target().flush();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package xyz.stackpancakes.shell.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Forwards one invocation to a running {@link DaemonServer}: the arguments,
+ * the working directory, the environment and standard input go out, standard
+ * output, standard error and the exit code come back.  Nothing of the shell
+ * itself is loaded on this side.
+ */
+public final class DaemonClient
+{
+    private DaemonClient() {}
+
+    /**
+     * Runs {@code args} on the daemon and returns its exit code, or an empty
+     * result when no daemon is listening, in which case nothing was sent.
+     * A socket that is not the current user's is refused with an error.
+     */
+    public static OptionalInt run(List<String> args) throws IOException
+    {
+        Path socket = DaemonProtocol.defaultSocket();
+        if (!Files.exists(socket))
+            return OptionalInt.empty();
+        DaemonProtocol.checkOwner(socket);
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try
+        {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            return OptionalInt.empty();
+        }
+        try (channel)
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(DaemonProtocol.output(channel)));
+            sendRequest(out, args, Path.of(System.getProperty("user.dir")));
+            Thread.ofVirtual().name("daemon-stdin").start(() -> forwardInput(out));
+            return OptionalInt.of(receive(new DataInputStream(new BufferedInputStream(DaemonProtocol.input(channel)))));
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Lost the connection to the daemon: " + e.getMessage(), e);
+        }
+    }
+
+    private static void sendRequest(DataOutputStream out, List<String> args, Path directory) throws IOException
+    {
+        out.writeInt(args.size());
+        for (String arg : args)
+            DaemonProtocol.writeString(out, arg);
+        DaemonProtocol.writeString(out, directory.toAbsolutePath().toString());
+        DaemonProtocol.writeEnvironment(out, System.getenv());
+        out.flush();
+    }
+
+    private static void forwardInput(DataOutputStream out)
+    {
+        byte[] buffer = new byte[DaemonProtocol.MAX_FRAME];
+        try
+        {
+            InputStream in = System.in;
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, n);
+            DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, 0);
+        }
+        catch (IOException ignored) {}
+    }
+
+    private static int receive(DataInputStream in) throws IOException
+    {
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        OutputStream stderr = new FileOutputStream(FileDescriptor.err);
+        while (true)
+        {
+            byte type = in.readByte();
+            byte[] payload = in.readNBytes(in.readInt());
+            switch (type)
+            {
+                case DaemonProtocol.STDOUT -> stdout.write(payload);
+                case DaemonProtocol.STDERR -> stderr.write(payload);
+                case DaemonProtocol.EXIT ->
+                {
+                    if (payload.length != Integer.BYTES)
+                        throw new IOException("Malformed reply.");
+                    return ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16) | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+                }
+                default -> throw new IOException("Malformed reply.");
+            }
+        }
+    }
+}
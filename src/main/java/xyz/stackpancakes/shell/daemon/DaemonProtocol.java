@@ -0,0 +1,212 @@
+package xyz.stackpancakes.shell.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wire format shared by {@link DaemonServer} and {@link DaemonClient}.  A
+ * connection carries a single invocation.  The client first sends the
+ * request: the arguments, the working directory and the environment, every
+ * string as a length-prefixed UTF-8 sequence.  After that both sides send
+ * frames of a type byte, a length and that many bytes: the client its
+ * standard input, ended by an empty frame, and the server standard output,
+ * standard error and finally the exit code.
+ * <p>
+ * A connection to the socket of {@link SessionServer} carries an interactive
+ * session instead.  Its request is the terminal type, the width and height
+ * of the client's terminal, the working directory and the environment.  The
+ * client then sends its keystrokes as standard input frames and a resize
+ * frame whenever its terminal changes size, and the server sends the screen
+ * as standard output frames until the session ends with an exit code.
+ */
+final class DaemonProtocol
+{
+    static final byte STDIN = 'I';
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+    static final byte RESIZE = 'W';
+    static final int MAX_FRAME = 64 * 1024;
+
+    private DaemonProtocol() {}
+
+    /**
+     * The socket used when none is given: {@code JCMDSHELL_SOCKET} if set,
+     * otherwise {@code daemon.sock} in the {@link #runtimeDirectory}.
+     */
+    static Path defaultSocket()
+    {
+        return socket("JCMDSHELL_SOCKET", "daemon.sock");
+    }
+
+    /**
+     * The socket of the session server: {@code JCMDSHELL_SESSION_SOCKET} if
+     * set, otherwise {@code sessions.sock} in the {@link #runtimeDirectory}.
+     */
+    static Path sessionSocket()
+    {
+        return socket("JCMDSHELL_SESSION_SOCKET", "sessions.sock");
+    }
+
+    /**
+     * The private directory holding the default sockets: a {@code jcmdshell}
+     * directory in {@code $XDG_RUNTIME_DIR} when that is set, otherwise
+     * {@code run} in the data directory {@code ~/.jcmdshell}.  The servers
+     * create it, or restrict it when it already exists, so that only its
+     * owner can reach the sockets inside.
+     */
+    static Path runtimeDirectory()
+    {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isBlank())
+            return Path.of(runtime, "jcmdshell");
+        return Path.of(System.getProperty("user.home"), ".jcmdshell", "run");
+    }
+
+    private static Path socket(String variable, String name)
+    {
+        String configured = System.getenv(variable);
+        if (configured != null && !configured.isBlank())
+            return Path.of(configured);
+        return runtimeDirectory().resolve(name);
+    }
+
+    /**
+     * Fails unless the socket, if it exists, and the directory holding it
+     * belong to the current user.  Whoever controls either could put a
+     * socket of their own there and receive the commands, the environment
+     * and the keystrokes meant for this user's shell.
+     */
+    static void checkOwner(Path socket) throws IOException
+    {
+        Path directory = socket.toAbsolutePath().getParent();
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        for (Path path : List.of(directory, socket))
+        {
+            if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+                continue;
+            UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+            if (!owner.equals(user))
+                throw new IOException("Refusing to use " + socket + ": " + path + " belongs to " + owner.getName() + ", not to " + user.getName() + ".");
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME * 16)
+            throw new IOException("Malformed request.");
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_FRAME)
+            throw new IOException("Malformed request.");
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            strings.add(readString(in));
+        return strings;
+    }
+
+    static void writeEnvironment(DataOutputStream out, Map<String, String> environment) throws IOException
+    {
+        out.writeInt(environment.size() * 2);
+        for (Map.Entry<String, String> variable : environment.entrySet())
+        {
+            writeString(out, variable.getKey());
+            writeString(out, variable.getValue());
+        }
+    }
+
+    static Map<String, String> readEnvironment(DataInputStream in) throws IOException
+    {
+        List<String> pairs = readStrings(in);
+        Map<String, String> environment = new HashMap<>();
+        for (int i = 0; i + 1 < pairs.size(); i += 2)
+            environment.put(pairs.get(i), pairs.get(i + 1));
+        return environment;
+    }
+
+    /**
+     * Writes one frame.  Standard output and standard error are written from
+     * different threads, so frames are serialized on the stream.
+     */
+    static void writeFrame(DataOutputStream out, byte type, byte[] bytes, int offset, int length) throws IOException
+    {
+        synchronized (out)
+        {
+            out.writeByte(type);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+            out.flush();
+        }
+    }
+
+    /**
+     * Streams over the channel itself.  A socket channel may be read and
+     * written by two threads at once, which the streams of
+     * {@link java.nio.channels.Channels} do not allow for every channel.
+     */
+    static InputStream input(SocketChannel channel)
+    {
+        return new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0)
+                    return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    static OutputStream output(SocketChannel channel)
+    {
+        return new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        };
+    }
+}
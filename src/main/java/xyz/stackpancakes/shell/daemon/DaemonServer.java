@@ -0,0 +1,376 @@
+package xyz.stackpancakes.shell.daemon;
+
+import xyz.stackpancakes.shell.core.ShellSession;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived shell process that runs invocations sent by
+ * {@link DaemonClient} over a Unix domain socket, so that a command only
+ * costs the round trip instead of starting and warming up a new JVM.  Each
+ * invocation runs on its own virtual thread in a {@link ShellSession} of its
+ * own, with the working directory and the environment of its client and its
+ * standard streams forwarded over the connection, so several clients can run
+ * commands at the same time.  The daemon shuts down after a configurable time
+ * without requests once no invocation is running.
+ */
+public final class DaemonServer
+{
+    private static final int INPUT_CHUNKS = 16;
+
+    /**
+     * Runs one invocation given the client's arguments and returns its exit
+     * code.
+     */
+    @FunctionalInterface
+    public interface Handler
+    {
+        int run(List<String> args);
+    }
+
+    private DaemonServer() {}
+
+    public static Path socket()
+    {
+        return DaemonProtocol.defaultSocket();
+    }
+
+    /**
+     * Serves invocations until no request has arrived for
+     * {@code idleTimeout}, or forever if it is zero.
+     */
+    public static void serve(Duration idleTimeout, Handler handler) throws IOException
+    {
+        Path socket = socket();
+        prepare(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open())
+        {
+            bind(server, socket);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            long idle = idleTimeout.toMillis();
+            long deadline = System.currentTimeMillis() + idle;
+            AtomicInteger running = new AtomicInteger();
+            AtomicLong finished = new AtomicLong();
+            while (true)
+            {
+                long now = System.currentTimeMillis();
+                deadline = Math.max(deadline, finished.get() + idle);
+                if (idle > 0 && deadline <= now)
+                {
+                    if (running.get() == 0)
+                        break;
+                    deadline = now + idle;
+                }
+                selector.select(idle > 0 ? deadline - now : 0);
+                selector.selectedKeys().clear();
+                SocketChannel client;
+                while ((client = server.accept()) != null)
+                {
+                    SocketChannel channel = client;
+                    running.incrementAndGet();
+                    Thread.ofVirtual().name("daemon-client").start(() ->
+                    {
+                        try (channel)
+                        {
+                            channel.configureBlocking(true);
+                            handle(channel, handler);
+                        }
+                        catch (IOException ignored) {}
+                        finally
+                        {
+                            finished.set(System.currentTimeMillis());
+                            running.decrementAndGet();
+                        }
+                    });
+                    deadline = System.currentTimeMillis() + idle;
+                }
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Creates the socket's directory accessible only to the owner, or
+     * restricts the {@link DaemonProtocol#runtimeDirectory} if it exists
+     * already, since whoever can connect runs commands as this user.  Then
+     * checks that the directory is this user's and removes a socket left
+     * behind by a server that did not shut down cleanly.
+     */
+    static void prepare(Path socket) throws IOException
+    {
+        Path directory = socket.toAbsolutePath().getParent();
+        try
+        {
+            if (!Files.isDirectory(directory))
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            else if (directory.equals(DaemonProtocol.runtimeDirectory().toAbsolutePath()))
+                Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            Files.createDirectories(directory);
+        }
+        DaemonProtocol.checkOwner(socket);
+        if (!Files.exists(socket))
+            return;
+        try (SocketChannel _ = SocketChannel.open(UnixDomainSocketAddress.of(socket)))
+        {
+            throw new FileAlreadyExistsException(socket.toString(), null, "A daemon is already listening on this socket.");
+        }
+        catch (IOException e)
+        {
+            if (e instanceof FileAlreadyExistsException)
+                throw e;
+            Files.delete(socket);
+        }
+    }
+
+    /**
+     * Binds {@code server} to {@code socket} and makes the socket readable
+     * and writable by the owner only.
+     */
+    static void bind(ServerSocketChannel server, Path socket) throws IOException
+    {
+        server.bind(UnixDomainSocketAddress.of(socket));
+        try
+        {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        }
+        catch (UnsupportedOperationException ignored) {}
+    }
+
+    private static void handle(SocketChannel channel, Handler handler) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(DaemonProtocol.input(channel)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(DaemonProtocol.output(channel)));
+        List<String> args = DaemonProtocol.readStrings(in);
+        Path directory = Path.of(DaemonProtocol.readString(in));
+        Map<String, String> environment = DaemonProtocol.readEnvironment(in);
+
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, DaemonProtocol.STDOUT, null)), false);
+        PrintStream stderr = new PrintStream(new FrameOutputStream(out, DaemonProtocol.STDERR, stdout), true);
+        ClientInput stdin = new ClientInput(in);
+        ShellSession session = new ShellSession(directory, environment, stdin, stdout, stderr);
+        stdin.start(session);
+        int code;
+        try
+        {
+            code = session.call(() ->
+            {
+                CurrentDirectory.set(directory);
+                return handler.run(args);
+            });
+        }
+        catch (RuntimeException e)
+        {
+            stderr.println("Error: " + e.getMessage());
+            code = 1;
+        }
+        finally
+        {
+            stdout.flush();
+            stderr.flush();
+            stdin.close();
+        }
+        DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, ByteBuffer.allocate(Integer.BYTES).putInt(code).array(), 0, Integer.BYTES);
+    }
+
+    /**
+     * Sends everything written to it as frames of one type.  Standard error
+     * first flushes standard output, so that both reach the client in the
+     * order they were written.
+     */
+    static final class FrameOutputStream extends OutputStream
+    {
+        private final DataOutputStream out;
+        private final byte type;
+        private final PrintStream before;
+
+        FrameOutputStream(DataOutputStream out, byte type, PrintStream before)
+        {
+            this.out = out;
+            this.type = type;
+            this.before = before;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (before != null)
+                before.flush();
+            while (len > 0)
+            {
+                int n = Math.min(len, DaemonProtocol.MAX_FRAME);
+                DaemonProtocol.writeFrame(out, type, b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /**
+     * The client's standard input, read from the connection on a separate
+     * thread.  If the connection drops while the invocation is still
+     * running, the client has gone away, so its session is cancelled the
+     * same way Ctrl-C would cancel it.  The thread is never interrupted,
+     * since that would close the channel before the exit code is sent; it
+     * ends when the connection is closed.
+     */
+    private static final class ClientInput extends InputStream
+    {
+        private static final byte[] END = new byte[0];
+
+        private final DataInputStream in;
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(INPUT_CHUNKS);
+        private ShellSession session;
+        private volatile boolean closed;
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean ended;
+
+        ClientInput(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        void start(ShellSession session)
+        {
+            this.session = session;
+            Thread.ofVirtual().name("daemon-input").start(this::fill);
+        }
+
+        private void fill()
+        {
+            try
+            {
+                while (true)
+                {
+                    byte type = in.readByte();
+                    byte[] chunk = in.readNBytes(in.readInt());
+                    if (type != DaemonProtocol.STDIN)
+                        continue;
+                    if (chunk.length == 0)
+                        break;
+                    if (!deliver(chunk))
+                        return;
+                }
+                deliver(END);
+                while (in.read() >= 0)
+                {
+                    // Nothing more is expected; wait for the connection to close.
+                }
+            }
+            catch (IOException e)
+            {
+                chunks.offer(END);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            if (!closed)
+                session.cancel();
+        }
+
+        /**
+         * Queues a chunk for the command, giving up once the invocation is
+         * over and nobody will read it any more.
+         */
+        private boolean deliver(byte[] chunk) throws InterruptedException
+        {
+            while (!closed)
+                if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return 0;
+            if (position == current.length)
+            {
+                if (ended)
+                    return -1;
+                try
+                {
+                    current = chunks.take();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading.", e);
+                }
+                position = 0;
+                if (current == END)
+                {
+                    ended = true;
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available()
+        {
+            return current.length - position;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package xyz.stackpancakes.shell.daemon;
+
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Terminal;
+import xyz.stackpancakes.shell.util.TerminalShare;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Attaches this terminal to a session on a running {@link SessionServer}.
+ * The terminal is put in raw mode and only copies bytes: keystrokes,
+ * Ctrl-C among them, go to the server and the screen comes back, so the
+ * shell itself is not loaded on this side.
+ */
+public final class SessionClient
+{
+    private static final int KEY_BUFFER = 1024;
+
+    private SessionClient() {}
+
+    /**
+     * Runs a session until it ends and returns its exit code.
+     */
+    public static int attach() throws IOException
+    {
+        Terminal terminal = TerminalShare.getSharedTerminal();
+        if (terminal == null)
+            throw new IOException("Attaching to a session needs a terminal.");
+        Path socket = DaemonProtocol.sessionSocket();
+        DaemonProtocol.checkOwner(socket);
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            try
+            {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+            }
+            catch (IOException e)
+            {
+                throw new IOException("No session server is listening on " + socket + ".", e);
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(DaemonProtocol.output(channel)));
+            DaemonProtocol.writeString(out, terminal.getType());
+            out.writeInt(terminal.getWidth());
+            out.writeInt(terminal.getHeight());
+            DaemonProtocol.writeString(out, Path.of(System.getProperty("user.dir")).toAbsolutePath().toString());
+            DaemonProtocol.writeEnvironment(out, System.getenv());
+            out.flush();
+
+            Attributes original = terminal.enterRawMode();
+            Terminal.SignalHandler previous = terminal.handle(Terminal.Signal.WINCH, _ -> sendSize(out, terminal));
+            try
+            {
+                Thread.ofVirtual().name("session-keys").start(() -> forwardKeys(terminal.input(), out));
+                return receive(new DataInputStream(new BufferedInputStream(DaemonProtocol.input(channel))), terminal.output());
+            }
+            finally
+            {
+                terminal.handle(Terminal.Signal.WINCH, previous);
+                terminal.setAttributes(original);
+                terminal.flush();
+            }
+        }
+    }
+
+    private static void sendSize(DataOutputStream out, Terminal terminal)
+    {
+        byte[] size = ByteBuffer.allocate(2 * Integer.BYTES).putInt(terminal.getWidth()).putInt(terminal.getHeight()).array();
+        try
+        {
+            DaemonProtocol.writeFrame(out, DaemonProtocol.RESIZE, size, 0, size.length);
+        }
+        catch (IOException ignored) {}
+    }
+
+    private static void forwardKeys(InputStream keys, DataOutputStream out)
+    {
+        byte[] buffer = new byte[KEY_BUFFER];
+        try
+        {
+            int n;
+            while ((n = keys.read(buffer)) > 0)
+                DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, n);
+            DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, 0);
+        }
+        catch (IOException ignored) {}
+    }
+
+    private static int receive(DataInputStream in, OutputStream screen) throws IOException
+    {
+        while (true)
+        {
+            byte type = in.readByte();
+            byte[] payload = in.readNBytes(in.readInt());
+            switch (type)
+            {
+                case DaemonProtocol.STDOUT ->
+                {
+                    screen.write(payload);
+                    screen.flush();
+                }
+                case DaemonProtocol.EXIT ->
+                {
+                    if (payload.length != Integer.BYTES)
+                        throw new IOException("Malformed reply.");
+                    return ByteBuffer.wrap(payload).getInt();
+                }
+                default -> throw new IOException("Malformed reply.");
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package xyz.stackpancakes.shell.daemon;
+
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.impl.LineDisciplineTerminal;
+import xyz.stackpancakes.shell.core.ShellSession;
+import xyz.stackpancakes.shell.util.CurrentDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many interactive shells in one process, one per client attached with
+ * {@link SessionClient}, so operators sharing a host share one heap instead
+ * of each starting a JVM.  Every client gets its own {@link ShellSession}
+ * and a JLine terminal of its own that is fed the client's keystrokes and
+ * draws onto its screen over the connection; the line discipline, Ctrl-C
+ * included, runs here, so the client only copies bytes.  A session runs on a
+ * virtual thread and so does the reading of its connection, so a session
+ * waiting for input holds no platform thread and costs no CPU.
+ * <p>
+ * The server reports on standard output when a session attaches or ends, and
+ * every minute while any is attached: how many there are, how many had no
+ * input over that minute, the heap they take on average and the CPU the
+ * process used, which for a minute when every session was idle is what idle
+ * sessions cost.  A session's share of the heap cannot be told apart, so it
+ * is the heap in use above what was in use before the first session, divided
+ * by the sessions; garbage not yet collected is counted too, which makes it an
+ * upper bound.
+ */
+public final class SessionServer
+{
+    private static final Duration REPORT_INTERVAL = Duration.ofMinutes(1);
+    private static final int SCREEN_BUFFER = 8 * 1024;
+
+    /**
+     * Runs the interactive shell of one session on its terminal and returns
+     * its exit code.
+     */
+    @FunctionalInterface
+    public interface Handler
+    {
+        int run(Terminal terminal);
+    }
+
+    private static final class Attached
+    {
+        final int id;
+        final ShellSession session;
+        final long started = System.currentTimeMillis();
+        volatile long lastInput = started;
+
+        Attached(int id, ShellSession session)
+        {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    private static final Map<Integer, Attached> sessions = new ConcurrentHashMap<>();
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private SessionServer() {}
+
+    public static Path socket()
+    {
+        return DaemonProtocol.sessionSocket();
+    }
+
+    /**
+     * Serves sessions until the process is stopped.
+     */
+    public static void serve(Handler handler) throws IOException
+    {
+        Path socket = socket();
+        DaemonServer.prepare(socket);
+        long baseline = usedHeap();
+        Thread.ofVirtual().name("session-report").start(() -> report(baseline));
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            DaemonServer.bind(server, socket);
+            while (true)
+            {
+                SocketChannel client = server.accept();
+                int id = ids.incrementAndGet();
+                Thread.ofVirtual().name("session-" + id).start(() -> attach(id, client, handler));
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private static void attach(int id, SocketChannel client, Handler handler)
+    {
+        try (SocketChannel channel = client)
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(DaemonProtocol.input(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(DaemonProtocol.output(channel)));
+            String type = DaemonProtocol.readString(in);
+            int columns = in.readInt();
+            int rows = in.readInt();
+            Path directory = Path.of(DaemonProtocol.readString(in));
+            Map<String, String> environment = DaemonProtocol.readEnvironment(in);
+
+            BufferedOutputStream screen = new BufferedOutputStream(new DaemonServer.FrameOutputStream(out, DaemonProtocol.STDOUT, null), SCREEN_BUFFER);
+            try (LineDisciplineTerminal terminal = new LineDisciplineTerminal("session-" + id, type, screen, StandardCharsets.UTF_8))
+            {
+                terminal.setSize(new Size(columns, rows));
+                PrintStream stream = new PrintStream(terminal.output(), true, StandardCharsets.UTF_8);
+                ShellSession session = new ShellSession(directory, environment, terminal.input(), stream, stream);
+                session.setTerminal(terminal);
+                terminal.handle(Terminal.Signal.INT, _ -> session.cancel());
+                Attached attached = new Attached(id, session);
+                sessions.put(id, attached);
+                System.out.println("Session " + id + " attached in " + directory + " (" + sessions.size() + " attached)");
+                Thread.ofVirtual().name("session-" + id + "-input").start(() -> feed(in, terminal, attached));
+                int code;
+                try
+                {
+                    code = session.call(() ->
+                    {
+                        CurrentDirectory.set(directory);
+                        return handler.run(terminal);
+                    });
+                }
+                catch (RuntimeException e)
+                {
+                    stream.println("Error: " + e.getMessage());
+                    code = 1;
+                }
+                finally
+                {
+                    sessions.remove(id);
+                }
+                terminal.flush();
+                screen.flush();
+                DaemonProtocol.writeFrame(out, DaemonProtocol.EXIT, ByteBuffer.allocate(Integer.BYTES).putInt(code).array(), 0, Integer.BYTES);
+                System.out.println("Session " + id + " ended with " + code + " (" + sessions.size() + " attached)");
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Session " + id + " lost: " + e.getMessage() + " (" + sessions.size() + " attached)");
+        }
+    }
+
+    /**
+     * Passes the client's keystrokes and size to its terminal.  Once the
+     * client is gone the running command is cancelled and the terminal
+     * closed, which ends the session at its next prompt.
+     */
+    private static void feed(DataInputStream in, LineDisciplineTerminal terminal, Attached attached)
+    {
+        try
+        {
+            while (true)
+            {
+                byte type = in.readByte();
+                byte[] payload = in.readNBytes(in.readInt());
+                if (type == DaemonProtocol.STDIN)
+                {
+                    if (payload.length == 0)
+                        break;
+                    attached.lastInput = System.currentTimeMillis();
+                    terminal.processInputBytes(payload);
+                }
+                else if (type == DaemonProtocol.RESIZE && payload.length == 2 * Integer.BYTES)
+                {
+                    ByteBuffer size = ByteBuffer.wrap(payload);
+                    terminal.setSize(new Size(size.getInt(), size.getInt()));
+                    terminal.raise(Terminal.Signal.WINCH);
+                }
+            }
+        }
+        catch (IOException ignored) {}
+        attached.session.cancel();
+        try
+        {
+            terminal.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    private static void report(long baseline)
+    {
+        var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long lastCpu = os.getProcessCpuTime();
+        long lastTime = System.nanoTime();
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(REPORT_INTERVAL);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            long cpu = os.getProcessCpuTime();
+            long time = System.nanoTime();
+            double load = 100.0 * (cpu - lastCpu) / Math.max(1, time - lastTime);
+            lastCpu = cpu;
+            lastTime = time;
+            int attached = sessions.size();
+            if (attached == 0)
+                continue;
+            long now = System.currentTimeMillis();
+            int idle = 0;
+            for (Attached session : sessions.values())
+                if (now - session.lastInput >= REPORT_INTERVAL.toMillis())
+                    idle++;
+            long heap = usedHeap();
+            long perSession = Math.max(0, heap - baseline) / attached;
+            System.out.printf("%d sessions (%d idle), heap %d MB, about %d KB per session, CPU %.1f%% of one core%s%n",
+                    attached, idle, heap >> 20, perSession >> 10, load, idle == attached ? " while all were idle" : "");
+            for (Attached session : sessions.values())
+                System.out.printf("  session %d in %s, up %d min, idle %d min, %d commands%n",
+                        session.id, session.session.directory(), (now - session.started) / 60_000,
+                        (now - session.lastInput) / 60_000, session.session.history().size());
+        }
+    }
+
+    private static long usedHeap()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,84 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * A file or directory to be stored in an archive under {@code name}, which
+ * always uses forward slashes and never has a leading or trailing one.
+ */
+public record ArchiveEntry(Path path, String name, BasicFileAttributes attributes)
+{
+    /**
+     * Adds {@code source} and, for a directory, everything below it in walk
+     * order.  Names start with the source's own file name, so archiving
+     * {@code build} stores {@code build/...}.  Symbolic links are not
+     * followed, and {@code skip} (the archive being written) is left out.
+     */
+    public static void collect(Path source, Path skip, List<ArchiveEntry> entries) throws IOException
+    {
+        Path base = source.getParent() != null ? source.getParent() : source;
+        Files.walkFileTree(source, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            {
+                add(dir, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                Cancellation.check();
+                if (!file.equals(skip))
+                    add(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+            private void add(Path path, BasicFileAttributes attrs)
+            {
+                String name = base.relativize(path).toString().replace('\\', '/');
+                if (!name.isEmpty())
+                    entries.add(new ArchiveEntry(path, name, attrs));
+            }
+        });
+    }
+
+    /**
+     * Resolves an archived name below {@code destination}, refusing names
+     * that would land outside of it.
+     */
+    public static Path resolveInside(Path destination, String name) throws IOException
+    {
+        String relative = name.replace('\\', '/');
+        while (relative.startsWith("/"))
+            relative = relative.substring(1);
+        Path target = destination.resolve(relative).normalize();
+        if (!target.startsWith(destination))
+            throw new IOException("Entry would be extracted outside of the destination: " + name);
+        return target;
+    }
+
+    public boolean isDirectory()
+    {
+        return attributes.isDirectory();
+    }
+
+    public boolean isSymbolicLink()
+    {
+        return attributes.isSymbolicLink();
+    }
+
+    /**
+     * Whether a symbolic link entry points at a regular file, which formats
+     * without links store as a copy of that file.
+     */
+    public boolean isLinkToFile()
+    {
+        return isSymbolicLink() && Files.isRegularFile(path);
+    }
+}
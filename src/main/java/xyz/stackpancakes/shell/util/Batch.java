@@ -0,0 +1,158 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Target handling for the file built-ins that accept many targets in one
+ * invocation.  Besides plain arguments a target may be {@code @file}, naming
+ * a file that lists one target per line, or {@code -}, reading the targets
+ * from standard input.  Independent targets are processed on a fixed pool of
+ * worker threads and every failure is collected so that one bad target does
+ * not stop the rest of the batch.
+ */
+public final class Batch
+{
+    public interface Action<T>
+    {
+        void apply(T target) throws Exception;
+    }
+    public record Failure(String target, String message) {}
+
+    private Batch() {}
+
+    public static boolean isBatch(List<String> targets)
+    {
+        if (targets.size() > 1)
+            return true;
+        for (String target : targets)
+            if (target.equals("-") || (target.startsWith("@") && target.length() > 1))
+                return true;
+        return false;
+    }
+
+    public static List<String> expandTargets(List<String> args) throws IOException
+    {
+        List<String> targets = new ArrayList<>(args.size());
+        for (String arg : args)
+        {
+            if (arg.equals("-") || (arg.startsWith("@") && arg.length() > 1))
+                targets.addAll(readLines(arg));
+            else
+                targets.add(arg);
+        }
+        return targets;
+    }
+
+    /**
+     * Reads the non-blank lines of a target list, {@code -} meaning standard
+     * input and {@code @file} a file relative to the current directory.
+     */
+    public static List<String> readLines(String source) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        if (source.equals("-"))
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null)
+                addLine(lines, line);
+        }
+        else
+        {
+            for (String line : Files.readAllLines(CurrentDirectory.get().resolve(source.substring(1)), StandardCharsets.UTF_8))
+                addLine(lines, line);
+        }
+        return lines;
+    }
+
+    public static <T> List<Failure> runAll(Collection<T> targets, Action<? super T> action)
+    {
+        return runAll(targets, CopyEngine.defaultParallelism(), action);
+    }
+
+    public static <T> List<Failure> runAll(Collection<T> targets, int parallelism, Action<? super T> action)
+    {
+        Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+        if (targets.size() <= 1 || parallelism <= 1)
+            return runInOrder(targets, action);
+        try (ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, targets.size()),
+                IoThrottle.workerThreadFactory("batch")))
+        {
+            for (T target : targets)
+                pool.execute(() ->
+                {
+                    if (!Cancellation.isRequested())
+                        apply(target, action, failures);
+                });
+        }
+        Cancellation.check();
+        return new ArrayList<>(failures);
+    }
+
+    public static <T> List<Failure> runInOrder(Collection<T> targets, Action<? super T> action)
+    {
+        Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+        for (T target : targets)
+        {
+            Cancellation.check();
+            apply(target, action, failures);
+        }
+        Cancellation.check();
+        return new ArrayList<>(failures);
+    }
+
+    public static String describe(String verb, int total, List<Failure> failures)
+    {
+        StringBuilder sb = new StringBuilder(Ansi.withForeground("Error", Ansi.Foreground.RED))
+                .append(": ").append(failures.size()).append(" of ").append(total).append(" targets could not be ").append(verb).append('.');
+        for (Failure failure : failures)
+            sb.append(System.lineSeparator()).append("  ").append(failure.target()).append(": ").append(failure.message());
+        return sb.toString();
+    }
+
+    private static <T> void apply(T target, Action<? super T> action, Queue<Failure> failures)
+    {
+        try
+        {
+            action.apply(target);
+        }
+        catch (Exception e)
+        {
+            failures.add(new Failure(String.valueOf(target), messageOf(e)));
+        }
+    }
+
+    static String messageOf(Exception e)
+    {
+        return switch (e)
+        {
+            case NoSuchFileException _ -> "The system cannot find the path specified.";
+            case FileAlreadyExistsException _ -> "A subdirectory or file already exists.";
+            case AccessDeniedException _ -> "Access is denied.";
+            case DirectoryNotEmptyException _ -> "The directory is not empty.";
+            default -> e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        };
+    }
+
+    private static void addLine(List<String> targets, String line)
+    {
+        String trimmed = line.strip();
+        if (!trimmed.isEmpty())
+            targets.add(trimmed);
+    }
+}
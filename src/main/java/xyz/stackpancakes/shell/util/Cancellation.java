@@ -0,0 +1,39 @@
+package xyz.stackpancakes.shell.util;
+
+import xyz.stackpancakes.shell.core.ShellSession;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancellation flag for the built-in command that is currently running in
+ * the current {@link ShellSession}.  The Ctrl-C handler raises it and
+ * long-running built-ins poll it from their loops, including from worker
+ * threads, through {@link #check()}, which unwinds the command with a
+ * {@link CancellationException} that the REPL reports as an interrupted
+ * command.  The flag is cleared before every command.
+ */
+public final class Cancellation
+{
+    private Cancellation() {}
+
+    public static void reset()
+    {
+        ShellSession.current().clearCancelled();
+    }
+
+    public static void request()
+    {
+        ShellSession.current().cancel();
+    }
+
+    public static boolean isRequested()
+    {
+        return ShellSession.current().isCancelled();
+    }
+
+    public static void check()
+    {
+        if (ShellSession.current().isCancelled())
+            throw new CancellationException("Interrupted.");
+    }
+}
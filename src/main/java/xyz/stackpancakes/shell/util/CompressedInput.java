@@ -0,0 +1,228 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Opens files for reading with transparent decompression.  The format is
+ * recognised from the first bytes rather than the file name: gzip (including
+ * several concatenated members, as written by log rotation), zlib-wrapped
+ * deflate, and ZIP, of which the first file entry is read.  Anything else is
+ * returned as it is.  Compressed input is decoded as a stream on a
+ * read-ahead thread that stays a few chunks in front of the reader, so
+ * inflating overlaps with whatever the caller does with the bytes and no
+ * more than those chunks are ever held in memory.
+ */
+public final class CompressedInput
+{
+    private static final int CHUNK = 64 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 8;
+    private static final int PROBE = 512;
+
+    private CompressedInput() {}
+
+    public static InputStream open(Path file) throws IOException
+    {
+        BufferedInputStream raw = new BufferedInputStream(Files.newInputStream(file), CHUNK);
+        try
+        {
+            raw.mark(PROBE);
+            byte[] head = raw.readNBytes(PROBE);
+            raw.reset();
+            InputStream decoded;
+            if (isGzip(head))
+                decoded = new GZIPInputStream(raw, CHUNK);
+            else if (isZip(head))
+                decoded = firstZipEntry(new ZipInputStream(raw));
+            else if (isZlib(head))
+                decoded = new InflaterInputStream(raw, new Inflater(), CHUNK);
+            else
+                return raw;
+            return new ReadAheadInputStream(decoded);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            raw.close();
+            throw e;
+        }
+    }
+
+    private static boolean isGzip(byte[] head)
+    {
+        return head.length >= 2 && (head[0] & 0xFF) == 0x1f && (head[1] & 0xFF) == 0x8b;
+    }
+
+    private static boolean isZip(byte[] head)
+    {
+        return head.length >= 4 && head[0] == 'P' && head[1] == 'K' && head[2] == 3 && head[3] == 4;
+    }
+
+    /**
+     * A zlib header is only two bytes and one of its common forms,
+     * {@code x^}, is plain text, so the candidate must also inflate cleanly
+     * for as far as it has been read.
+     */
+    private static boolean isZlib(byte[] head)
+    {
+        if (head.length < 3)
+            return false;
+        int cmf = head[0] & 0xFF;
+        int flg = head[1] & 0xFF;
+        if ((cmf & 0x0F) != 8 || (cmf >> 4) > 7 || ((cmf << 8) | flg) % 31 != 0 || (flg & 0x20) != 0)
+            return false;
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(head);
+            byte[] scratch = new byte[CHUNK];
+            while (!inflater.finished() && !inflater.needsInput())
+                inflater.inflate(scratch);
+            return true;
+        }
+        catch (DataFormatException e)
+        {
+            return false;
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private static InputStream firstZipEntry(ZipInputStream zip) throws IOException
+    {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null)
+            if (!entry.isDirectory())
+                return zip;
+        return InputStream.nullInputStream();
+    }
+
+    /**
+     * Reads its source on a separate thread into a small queue of chunks.
+     * An empty chunk marks the end of the source; a failure is handed over
+     * and rethrown on the reading side.
+     */
+    private static final class ReadAheadInputStream extends InputStream
+    {
+        private static final byte[] END = new byte[0];
+
+        private final InputStream source;
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS);
+        private final Thread reader;
+        private volatile IOException failure;
+        private byte[] current = END;
+        private int position;
+        private boolean ended;
+
+        ReadAheadInputStream(InputStream source)
+        {
+            this.source = source;
+            this.reader = Thread.ofVirtual().name("read-ahead").start(this::fill);
+        }
+
+        private void fill()
+        {
+            try
+            {
+                while (true)
+                {
+                    byte[] chunk = source.readNBytes(CHUNK);
+                    if (chunk.length == 0)
+                        break;
+                    chunks.put(chunk);
+                }
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+            catch (RuntimeException e)
+            {
+                failure = new IOException(e.getMessage(), e);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            try
+            {
+                chunks.put(END);
+            }
+            catch (InterruptedException ignored) {}
+        }
+
+        private boolean next() throws IOException
+        {
+            if (ended)
+                return false;
+            try
+            {
+                current = chunks.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading.", e);
+            }
+            position = 0;
+            if (current == END)
+            {
+                ended = true;
+                if (failure != null)
+                    throw failure;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (position == current.length && !next())
+                return -1;
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return 0;
+            if (position == current.length && !next())
+                return -1;
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available()
+        {
+            return current.length - position;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            ended = true;
+            reader.interrupt();
+            chunks.clear();
+            current = END;
+            position = 0;
+            source.close();
+        }
+    }
+}
@@ -13,7 +13,7 @@ public final class ConsoleUtils
     {
         Terminal terminal = TerminalShare.getSharedTerminal();
         IO.print("Please enter any key to continue...");
-        int _ = terminal.reader().read();
+        int _ = terminal != null ? terminal.reader().read() : System.in.read();
         IO.println('\n');
     }
 }
\ No newline at end of file
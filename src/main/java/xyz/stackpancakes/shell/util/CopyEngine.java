@@ -0,0 +1,166 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Copies batches of independent files on a fixed pool of worker threads.
+ * Attributes such as the modification time are preserved so that later
+ * size and time comparisons against the copy stay meaningful.  Failures are
+ * collected and returned instead of aborting the remaining copies, while a
+ * cancellation skips the copies that have not started yet.
+ */
+public final class CopyEngine
+{
+    public record Task(Path source, Path target) {}
+    public record Failure(Path source, String message) {}
+
+    public static final String PARTIAL_SUFFIX = ".jcmdpart";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int THROTTLED_CHUNK = 64 * 1024;
+
+    private CopyEngine() {}
+
+    public static int defaultParallelism()
+    {
+        return Math.clamp(Runtime.getRuntime().availableProcessors() * 2L, 2, 16);
+    }
+
+    public static List<Failure> copyAll(Collection<Task> tasks, int parallelism)
+    {
+        return copyAll(tasks, parallelism, false, _ -> {});
+    }
+
+    /**
+     * Copies every task, verifying the written content against the source
+     * when {@code verify} is set, and reports each task that completed
+     * successfully to {@code completed} from the worker that copied it.
+     */
+    public static List<Failure> copyAll(Collection<Task> tasks, int parallelism, boolean verify, Consumer<Task> completed)
+    {
+        Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+        if (tasks.isEmpty())
+            return List.of();
+        try (ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())),
+                IoThrottle.workerThreadFactory("copy")))
+        {
+            for (Task task : tasks)
+                pool.execute(() ->
+                {
+                    if (Cancellation.isRequested())
+                        return;
+                    try
+                    {
+                        if (verify)
+                            copyVerified(task.source(), task.target());
+                        else
+                            copyFile(task.source(), task.target());
+                        completed.accept(task);
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        failures.add(new Failure(task.source(), e.getMessage()));
+                    }
+                });
+        }
+        Cancellation.check();
+        return new ArrayList<>(failures);
+    }
+
+    public static void copyFile(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Path parent = target.getParent();
+            if (parent != null && !Files.isDirectory(parent))
+                Files.createDirectories(parent);
+            IoThrottle.acquireOperation();
+            if (!IoThrottle.limitsBytes())
+            {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                return;
+            }
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                long size = in.size();
+                long position = 0;
+                while (position < size)
+                {
+                    long chunk = Math.min(THROTTLED_CHUNK, size - position);
+                    IoThrottle.acquireBytes(chunk);
+                    long n = in.transferTo(position, chunk, out);
+                    if (n <= 0)
+                        break;
+                    position += n;
+                }
+            }
+            Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        }
+        finally
+        {
+            MetadataCache.invalidateEntry(target);
+        }
+    }
+
+    /**
+     * Streams {@code source} into a temporary file next to {@code target},
+     * digesting the bytes as they are read, then re-reads the written file
+     * and only renames it into place when both digests agree.
+     */
+    public static void copyVerified(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Path parent = target.getParent();
+            if (parent != null && !Files.isDirectory(parent))
+                Files.createDirectories(parent);
+            Path partial = target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+            IoThrottle.acquireOperation();
+            MessageDigest digest = FileHashing.newDigest();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                int n;
+                while ((n = in.read(buffer)) != -1)
+                {
+                    Cancellation.check();
+                    IoThrottle.acquireBytes(n);
+                    buffer.flip();
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining())
+                        out.write(buffer);
+                    buffer.clear();
+                }
+                out.force(false);
+            }
+            if (!FileHashing.fullHash(partial).equals(HexFormat.of().formatHex(digest.digest())))
+            {
+                Files.deleteIfExists(partial);
+                throw new IOException("Verification failed: " + target);
+            }
+            Files.setLastModifiedTime(partial, Files.getLastModifiedTime(source));
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            MetadataCache.invalidateEntry(target);
+        }
+    }
+}
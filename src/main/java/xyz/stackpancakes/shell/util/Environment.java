@@ -0,0 +1,32 @@
+package xyz.stackpancakes.shell.util;
+
+import xyz.stackpancakes.shell.core.ShellSession;
+
+import java.util.Map;
+
+/**
+ * Environment variables seen by external commands and by the lookup of
+ * executables on the {@code PATH}: those of the current
+ * {@link ShellSession}, which are the environment of this process unless the
+ * session was given its own, as the daemon does with the environment of each
+ * client.
+ */
+public final class Environment
+{
+    private Environment() {}
+
+    public static String get(String name)
+    {
+        return ShellSession.current().getenv(name);
+    }
+
+    public static void applyTo(ProcessBuilder builder)
+    {
+        Map<String, String> variables = ShellSession.current().environment();
+        if (variables == null)
+            return;
+        Map<String, String> environment = builder.environment();
+        environment.clear();
+        environment.putAll(variables);
+    }
+}
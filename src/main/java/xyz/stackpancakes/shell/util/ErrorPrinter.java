@@ -1,36 +1,26 @@
 package xyz.stackpancakes.shell.util;
 
+import xyz.stackpancakes.shell.core.ShellSession;
+
 import java.util.Optional;
 
 import static xyz.stackpancakes.shell.util.PrinterUtils.printFormatted;
 
 public final class ErrorPrinter
 {
-    private static final Object lock = new Object();
-    private static String lastError;
-
     public static void setLastError(String msg)
     {
-        synchronized (lock)
-        {
-            lastError = msg;
-        }
+        ShellSession.current().setLastError(msg);
     }
 
     public static Optional<String> getLastError()
     {
-        synchronized (lock)
-        {
-            return Optional.ofNullable(lastError);
-        }
+        return Optional.ofNullable(ShellSession.current().lastError());
     }
 
     public static void clearLastError()
     {
-        synchronized (lock)
-        {
-            lastError = null;
-        }
+        ShellSession.current().setLastError(null);
     }
 
     public static void print(String message)
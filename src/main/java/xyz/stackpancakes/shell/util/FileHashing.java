@@ -0,0 +1,89 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content hashing helpers shared by the file comparison built-ins.  A full
+ * hash digests the whole file, while a partial hash only digests a window at
+ * the head and at the tail of the file so that obviously different files can
+ * be told apart without reading them completely.  Every read draws from the
+ * {@link IoThrottle} byte bucket and polls {@link Cancellation}, so hashing
+ * a tree is limited and interrupted like copying it.
+ */
+public final class FileHashing
+{
+    public static final int DEFAULT_WINDOW = 64 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final String ALGORITHM = "SHA-256";
+
+    private FileHashing() {}
+
+    public static String fullHash(Path file) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            int n;
+            while ((n = channel.read(buffer)) != -1)
+            {
+                Cancellation.check();
+                IoThrottle.acquireBytes(n);
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String partialHash(Path file, long size, int window) throws IOException
+    {
+        if (size <= 2L * window)
+            return fullHash(file);
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(window);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            readWindow(channel, buffer, 0);
+            digest.update(buffer);
+            buffer.clear();
+            readWindow(channel, buffer, size - window);
+            digest.update(buffer);
+        }
+        digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void readWindow(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        Cancellation.check();
+        IoThrottle.acquireBytes(buffer.remaining());
+        while (buffer.hasRemaining())
+        {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0)
+                break;
+        }
+        buffer.flip();
+    }
+
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -1,22 +1,27 @@
 package xyz.stackpancakes.shell.util;
 
+import xyz.stackpancakes.shell.core.CommandLexer;
+import xyz.stackpancakes.shell.core.ShellSession;
+
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class FileSystemUtils
 {
-    private static final AtomicReference<Process> currentProcess = new AtomicReference<>();
-
     public static String getHomeDirectory()
     {
         return System.getProperty("user.home");
     }
 
+    public static Path getDataDirectory()
+    {
+        return Path.of(getHomeDirectory(), ".jcmdshell");
+    }
+
     public static boolean isExecutable(Path entry)
     {
         if (entry == null || !Files.isRegularFile(entry))
@@ -39,15 +44,14 @@ public class FileSystemUtils
         }
     }
 
-    public static void interruptCurrentProcess()
+    /**
+     * Exit code of the last external program started through
+     * {@link #executeExecutable} in the current session, which is reset to 0
+     * by reading it.
+     */
+    public static int takeLastExitCode()
     {
-        Process process = currentProcess.get();
-        if (process != null && process.isAlive())
-        {
-            process.destroy();
-            if (process.isAlive())
-                process.destroyForcibly();
-        }
+        return ShellSession.current().takeLastExitCode();
     }
 
     public static boolean executeExecutable(Path path, List<String> args)
@@ -57,13 +61,15 @@ public class FileSystemUtils
         command.addAll(args);
         ProcessBuilder builder = new ProcessBuilder(command);
         builder.directory(CurrentDirectory.get().toFile());
-        builder.redirectInput(ProcessBuilder.Redirect.INHERIT);
+        Environment.applyTo(builder);
+        ShellSession session = ShellSession.current();
+        builder.redirectInput(session.inheritsStandardInput() ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE);
         builder.redirectOutput(ProcessBuilder.Redirect.PIPE);
         builder.redirectError(ProcessBuilder.Redirect.PIPE);
         try
         {
             Process process = builder.start();
-            currentProcess.set(process);
+            session.setProcess(process);
 
             ByteArrayOutputStream outputCapture = new ByteArrayOutputStream();
             ByteArrayOutputStream errorCapture = new ByteArrayOutputStream();
@@ -76,6 +82,7 @@ public class FileSystemUtils
             errThread.start();
 
             int exitCode = process.waitFor();
+            session.setLastExitCode(exitCode);
 
             try
             {
@@ -107,12 +114,13 @@ public class FileSystemUtils
         }
         finally
         {
-            currentProcess.set(null);
+            session.setProcess(null);
         }
     }
 
     public static boolean executeShellCommand(String command)
     {
+        ShellSession session = ShellSession.current();
         try
         {
             List<ParsedCommand> commands = parseCommandLine(command);
@@ -138,6 +146,7 @@ public class FileSystemUtils
                     ParsedCommand parsed = commands.get(i);
                     ProcessBuilder builder = new ProcessBuilder(parsed.command);
                     builder.directory(CurrentDirectory.get().toFile());
+                    Environment.applyTo(builder);
 
                     if (parsed.inputRedirect != null)
                         builder.redirectInput(ProcessBuilder.Redirect.from(new File(parsed.inputRedirect)));
@@ -145,7 +154,7 @@ public class FileSystemUtils
                         builder.redirectInput(ProcessBuilder.Redirect.PIPE)
                                 ;
                     else
-                        builder.redirectInput(ProcessBuilder.Redirect.INHERIT)
+                        builder.redirectInput(session.inheritsStandardInput() ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE)
                                 ;
 
                     if (parsed.outputRedirect != null)
@@ -166,7 +175,7 @@ public class FileSystemUtils
                 }
 
                 Process lastProcess = processes.getLast();
-                currentProcess.set(lastProcess);
+                session.setProcess(lastProcess);
 
                 for (int i = 0; i + 1 < processes.size(); i++)
                 {
@@ -237,7 +246,7 @@ public class FileSystemUtils
         }
         finally
         {
-            currentProcess.set(null);
+            session.setProcess(null);
         }
     }
 
@@ -343,14 +352,8 @@ public class FileSystemUtils
 
     private static int getConsoleWidth()
     {
-        int width = 0;
-        try
-        {
-            width = TerminalShare.getSharedTerminal().getWidth();
-            return width > 0 ? width : 80;
-        }
-        catch (Exception _) {}
-        return width;
+        int width = TerminalShare.getWidth();
+        return width > 0 ? width : 80;
     }
 
     private static class ParsedCommand
@@ -369,117 +372,30 @@ public class FileSystemUtils
     private static List<ParsedCommand> parseCommandLine(String commandLine)
     {
         List<ParsedCommand> commands = new ArrayList<>();
-        String[] pipeParts = splitRespectingQuotes(commandLine);
-
-        for (String pipePart : pipeParts)
-        {
-            List<String> tokens = tokenizeCommand(pipePart.trim());
-            if (tokens.isEmpty())
-                continue;
-
-            ParsedCommand parsed = new ParsedCommand(new ArrayList<>());
-
-            for (int i = 0; i < tokens.size(); i++)
-            {
-                String token = tokens.get(i);
-
-                if (token.equals("<") && i + 1 < tokens.size())
-                    parsed.inputRedirect = tokens.get(++i);
-                else if ((token.equals(">") || token.equals(">>")) && i + 1 < tokens.size())
-                {
-                    parsed.outputRedirect = tokens.get(++i);
-                    parsed.appendRedirect = token.equals(">>");
-                }
-                else
-                    parsed.command.add(token);
-            }
-
-            commands.add(parsed);
-        }
-
-        return commands;
-    }
+        CommandLexer.Tokens tokens = CommandLexer.lex(commandLine);
+        ParsedCommand parsed = new ParsedCommand(new ArrayList<>());
 
-    private static List<String> tokenizeCommand(String command)
-    {
-        List<String> tokens = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inDoubleQuotes = false;
-        boolean inSingleQuotes = false;
-        boolean escaped = false;
-
-        for (int i = 0; i < command.length(); i++)
-        {
-            char c = command.charAt(i);
-
-            if (escaped)
-            {
-                current.append(c);
-                escaped = false;
-            }
-            else if (c == '^' && (inDoubleQuotes || !inSingleQuotes))
-                escaped = true;
-            else if (c == '"' && !inSingleQuotes)
-                inDoubleQuotes = !inDoubleQuotes;
-            else if (c == '\'' && !inDoubleQuotes)
-                inSingleQuotes = !inSingleQuotes;
-            else if (Character.isWhitespace(c) && !inDoubleQuotes && !inSingleQuotes)
-            {
-                if (!current.isEmpty())
-                {
-                    tokens.add(current.toString());
-                    current.setLength(0);
-                }
-            }
-            else
-                current.append(c);
-        }
-
-        if (!current.isEmpty())
-            tokens.add(current.toString());
-
-        return tokens;
-    }
-
-    private static String[] splitRespectingQuotes(String input)
-    {
-        List<String> parts = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inDoubleQuotes = false;
-        boolean inSingleQuotes = false;
-        boolean escaped = false;
-
-        for (int i = 0; i < input.length(); i++)
+        for (int i = 0; i <= tokens.size(); i++)
         {
-            char c = input.charAt(i);
+            int type = i < tokens.size() ? tokens.type(i) : CommandLexer.PIPE;
 
-            if (escaped)
+            if (type == CommandLexer.PIPE)
             {
-                current.append(c);
-                escaped = false;
+                if (!parsed.command.isEmpty())
+                    commands.add(parsed);
+                parsed = new ParsedCommand(new ArrayList<>());
             }
-            else if (c == '^' && (inDoubleQuotes || !inSingleQuotes))
-                escaped = true;
-            else if (c == '"' && !inSingleQuotes)
+            else if (type == CommandLexer.REDIRECT_IN && i + 1 < tokens.size())
+                parsed.inputRedirect = tokens.text(++i);
+            else if ((type == CommandLexer.REDIRECT_OUT || type == CommandLexer.REDIRECT_APPEND) && i + 1 < tokens.size())
             {
-                inDoubleQuotes = !inDoubleQuotes;
-                current.append(c);
+                parsed.outputRedirect = tokens.text(++i);
+                parsed.appendRedirect = type == CommandLexer.REDIRECT_APPEND;
             }
-            else if (c == '\'' && !inDoubleQuotes)
-            {
-                inSingleQuotes = !inSingleQuotes;
-                current.append(c);
-            }
-            else if (c == '|' && !inDoubleQuotes && !inSingleQuotes)
-            {
-                parts.add(current.toString().trim());
-                current.setLength(0);
-            }
-            else
-                current.append(c);
+            else if (type == CommandLexer.WORD)
+                parsed.command.add(tokens.text(i));
         }
 
-        parts.add(current.toString().trim());
-        return parts.toArray(new String[0]);
+        return commands;
     }
 }
@@ -0,0 +1,271 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small memory-mapped database of visited directories ranked by frecency
+ * (frequency weighted by recency), used by {@code CD -j} to jump to a
+ * directory from a few fragments of its path.  The file holds a fixed number
+ * of slots so that lookups are a scan over mapped memory and never touch the
+ * file system; directories that no longer exist are removed lazily when a
+ * jump resolves to them.
+ */
+public final class FrecencyDatabase
+{
+    private static final int MAGIC = 0x4A465243;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 512;
+    private static final int SLOT_COUNT = 1024;
+    private static final int SLOT_PATH_OFFSET = Short.BYTES + Double.BYTES + Long.BYTES;
+    private static final int MAX_PATH_BYTES = SLOT_SIZE - SLOT_PATH_OFFSET;
+    private static final double MAX_TOTAL_RANK = 9000;
+    private static final double AGING_FACTOR = 0.9;
+
+    private static final Object lock = new Object();
+    private static FileChannel channel;
+    private static MappedByteBuffer buffer;
+    private static boolean unavailable;
+
+    private record Entry(String path, double score) {}
+
+    private FrecencyDatabase() {}
+
+    public static void visit(Path directory)
+    {
+        byte[] bytes = directory.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_PATH_BYTES)
+            return;
+        synchronized (lock)
+        {
+            if (!open())
+                return;
+            try (FileLock _ = channel.lock())
+            {
+                int slot = findSlot(bytes);
+                long now = System.currentTimeMillis();
+                if (slot < 0)
+                {
+                    slot = freeOrWeakestSlot(now);
+                    writePath(slot, bytes);
+                    setRank(slot, 0);
+                }
+                setRank(slot, rank(slot) + 1);
+                buffer.putLong(slotOffset(slot) + Short.BYTES + Double.BYTES, now);
+                age();
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    public static List<Path> query(List<String> terms)
+    {
+        List<Entry> matches = new ArrayList<>();
+        synchronized (lock)
+        {
+            if (!open())
+                return List.of();
+            long now = System.currentTimeMillis();
+            for (int slot = 0; slot < SLOT_COUNT; slot++)
+            {
+                int length = pathLength(slot);
+                if (length == 0)
+                    continue;
+                String path = readPath(slot, length);
+                if (matches(path, terms))
+                    matches.add(new Entry(path, score(rank(slot), lastAccess(slot), now)));
+            }
+        }
+        String last = terms.isEmpty() ? "" : terms.getLast().toLowerCase(Locale.ROOT);
+        matches.sort(Comparator.comparing((Entry e) -> !lastComponent(e.path()).contains(last))
+                .thenComparing(Comparator.comparingDouble(Entry::score).reversed()));
+        List<Path> result = new ArrayList<>(matches.size());
+        for (Entry e : matches)
+            result.add(Path.of(e.path()));
+        return result;
+    }
+
+    public static void remove(Path directory)
+    {
+        byte[] bytes = directory.toString().getBytes(StandardCharsets.UTF_8);
+        synchronized (lock)
+        {
+            if (!open())
+                return;
+            try (FileLock _ = channel.lock())
+            {
+                int slot = findSlot(bytes);
+                if (slot >= 0)
+                    buffer.putShort(slotOffset(slot), (short) 0);
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    private static boolean open()
+    {
+        if (buffer != null)
+            return true;
+        if (unavailable)
+            return false;
+        try
+        {
+            Path file = FileSystemUtils.getDataDirectory().resolve("frecency.db");
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = HEADER_SIZE + (long) SLOT_SIZE * SLOT_COUNT;
+            boolean fresh = channel.size() != size;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            {
+                for (int i = 0; i < size; i += Long.BYTES)
+                    buffer.putLong(i, 0);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, SLOT_COUNT);
+            }
+            return true;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            unavailable = true;
+            buffer = null;
+            return false;
+        }
+    }
+
+    private static int findSlot(byte[] path)
+    {
+        for (int slot = 0; slot < SLOT_COUNT; slot++)
+        {
+            if (pathLength(slot) != path.length)
+                continue;
+            int base = slotOffset(slot) + SLOT_PATH_OFFSET;
+            boolean equal = true;
+            for (int i = 0; i < path.length && equal; i++)
+                equal = buffer.get(base + i) == path[i];
+            if (equal)
+                return slot;
+        }
+        return -1;
+    }
+
+    private static int freeOrWeakestSlot(long now)
+    {
+        int weakest = 0;
+        double weakestScore = Double.MAX_VALUE;
+        for (int slot = 0; slot < SLOT_COUNT; slot++)
+        {
+            if (pathLength(slot) == 0)
+                return slot;
+            double score = score(rank(slot), lastAccess(slot), now);
+            if (score < weakestScore)
+            {
+                weakestScore = score;
+                weakest = slot;
+            }
+        }
+        return weakest;
+    }
+
+    private static void age()
+    {
+        double total = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++)
+            if (pathLength(slot) != 0)
+                total += rank(slot);
+        if (total <= MAX_TOTAL_RANK)
+            return;
+        for (int slot = 0; slot < SLOT_COUNT; slot++)
+        {
+            if (pathLength(slot) == 0)
+                continue;
+            double aged = rank(slot) * AGING_FACTOR;
+            if (aged < 1)
+                buffer.putShort(slotOffset(slot), (short) 0);
+            else
+                setRank(slot, aged);
+        }
+    }
+
+    private static double score(double rank, long lastAccess, long now)
+    {
+        long age = now - lastAccess;
+        if (age < 3_600_000L)
+            return rank * 4;
+        if (age < 86_400_000L)
+            return rank * 2;
+        if (age < 604_800_000L)
+            return rank / 2;
+        return rank / 4;
+    }
+
+    private static boolean matches(String path, List<String> terms)
+    {
+        String lower = path.toLowerCase(Locale.ROOT);
+        int from = 0;
+        for (String term : terms)
+        {
+            int at = lower.indexOf(term.toLowerCase(Locale.ROOT), from);
+            if (at < 0)
+                return false;
+            from = at + term.length();
+        }
+        return true;
+    }
+
+    private static String lastComponent(String path)
+    {
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(slash + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static int slotOffset(int slot)
+    {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int pathLength(int slot)
+    {
+        return buffer.getShort(slotOffset(slot)) & 0xFFFF;
+    }
+
+    private static double rank(int slot)
+    {
+        return buffer.getDouble(slotOffset(slot) + Short.BYTES);
+    }
+
+    private static void setRank(int slot, double rank)
+    {
+        buffer.putDouble(slotOffset(slot) + Short.BYTES, rank);
+    }
+
+    private static long lastAccess(int slot)
+    {
+        return buffer.getLong(slotOffset(slot) + Short.BYTES + Double.BYTES);
+    }
+
+    private static String readPath(int slot, int length)
+    {
+        byte[] bytes = new byte[length];
+        buffer.get(slotOffset(slot) + SLOT_PATH_OFFSET, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writePath(int slot, byte[] path)
+    {
+        buffer.put(slotOffset(slot) + SLOT_PATH_OFFSET, path);
+        buffer.putShort(slotOffset(slot), (short) path.length);
+    }
+}
@@ -0,0 +1,286 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wildcard expansion for the file built-ins.  A pattern such as
+ * {@code src/**}{@code /*.java} is compiled once into one matcher per path
+ * segment.  Leading literal segments are resolved directly, literal segments
+ * further down are looked up without listing their parent, and only
+ * directories that sit under a wildcard segment are enumerated, each of them
+ * at most once.  Matches are handed to the caller as they are found.
+ */
+public final class Glob
+{
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win");
+
+    private record Segment(String text, Pattern pattern, boolean globstar)
+    {
+        boolean literal()
+        {
+            return pattern == null && !globstar;
+        }
+        boolean matches(String name)
+        {
+            if (pattern != null)
+                return pattern.matcher(name).matches();
+            return WINDOWS ? text.equalsIgnoreCase(name) : text.equals(name);
+        }
+    }
+
+    private final Path root;
+    private final Segment[] segments;
+    private final boolean mayRepeat;
+
+    private Glob(Path root, Segment[] segments, boolean mayRepeat)
+    {
+        this.root = root;
+        this.segments = segments;
+        this.mayRepeat = mayRepeat;
+    }
+
+    public static boolean hasWildcards(String pattern)
+    {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0;
+    }
+
+    /**
+     * Whether an operand of a file built-in is to be expanded.  A name that
+     * exists as written is taken literally even if it contains wildcard
+     * characters, so a file such as {@code report[1].txt} can still be named.
+     */
+    public static boolean isPattern(Path base, String operand)
+    {
+        if (!hasWildcards(operand))
+            return false;
+        try
+        {
+            return !Files.exists(base.resolve(operand), LinkOption.NOFOLLOW_LINKS);
+        }
+        catch (InvalidPathException e)
+        {
+            return true;
+        }
+    }
+
+    public static Glob compile(Path base, String pattern)
+    {
+        String[] parts = pattern.split("[/\\\\]+", -1);
+        Path root = base;
+        int first = 0;
+        if (pattern.startsWith("/") || pattern.startsWith("\\"))
+        {
+            root = base.getRoot();
+            first = 1;
+        }
+        else if (parts[0].length() == 2 && parts[0].charAt(1) == ':' && Character.isLetter(parts[0].charAt(0)))
+        {
+            root = Path.of(parts[0] + "\\");
+            first = 1;
+        }
+        List<Segment> compiled = new ArrayList<>();
+        int globstars = 0;
+        for (int i = first; i < parts.length; i++)
+        {
+            String part = parts[i];
+            if (part.isEmpty())
+                continue;
+            if (part.equals("**"))
+            {
+                if (!compiled.isEmpty() && compiled.getLast().globstar())
+                    continue;
+                compiled.add(new Segment(part, null, true));
+                globstars++;
+            }
+            else if (hasWildcards(part))
+                compiled.add(new Segment(part, toRegex(part), false));
+            else if (compiled.isEmpty())
+                root = root.resolve(part);
+            else
+                compiled.add(new Segment(part, null, false));
+        }
+        if (!compiled.isEmpty() && compiled.getLast().globstar())
+            compiled.add(new Segment("*", toRegex("*"), false));
+        return new Glob(root.normalize(), compiled.toArray(Segment[]::new), globstars > 1);
+    }
+
+    /**
+     * Calls {@code consumer} for every existing path the pattern matches and
+     * returns the number of matches.  Directories that cannot be read are
+     * skipped.
+     */
+    public long forEach(Consumer<Path> consumer)
+    {
+        Consumer<Path> sink = consumer;
+        if (mayRepeat)
+        {
+            Set<Path> seen = new HashSet<>();
+            sink = p ->
+            {
+                if (seen.add(p))
+                    consumer.accept(p);
+            };
+        }
+        long[] count = { 0 };
+        Consumer<Path> counting = sink;
+        Walk walk = new Walk(p ->
+        {
+            count[0]++;
+            counting.accept(p);
+        });
+        if (segments.length == 0)
+        {
+            if (Files.exists(root))
+                walk.emit(root);
+        }
+        else if (Files.isDirectory(root))
+            walk.descend(root, 0);
+        return count[0];
+    }
+
+    /**
+     * Substitutes the text captured by the wildcards of the last pattern
+     * segment in {@code name} into the wildcards of {@code template}, in
+     * order, so that {@code *.txt} matched against {@code notes.txt} turns
+     * {@code *.bak} into {@code notes.bak}.
+     */
+    public String substitute(String name, String template)
+    {
+        Segment last = segments.length == 0 ? null : segments[segments.length - 1];
+        List<String> captures = new ArrayList<>();
+        if (last != null && last.pattern() != null)
+        {
+            Matcher m = last.pattern().matcher(name);
+            if (m.matches())
+                for (int g = 1; g <= m.groupCount(); g++)
+                    captures.add(m.group(g));
+        }
+        StringBuilder sb = new StringBuilder();
+        int next = 0;
+        for (int i = 0; i < template.length(); i++)
+        {
+            char c = template.charAt(i);
+            if (c == '*')
+                sb.append(next < captures.size() ? captures.get(next++) : "");
+            else if (c == '?')
+            {
+                if (next < captures.size())
+                    sb.append(captures.get(next++));
+            }
+            else
+                sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private final class Walk
+    {
+        private final Consumer<Path> sink;
+
+        Walk(Consumer<Path> sink)
+        {
+            this.sink = sink;
+        }
+
+        void emit(Path path)
+        {
+            sink.accept(path);
+        }
+
+        void descend(Path dir, int index)
+        {
+            if (index == segments.length)
+            {
+                emit(dir);
+                return;
+            }
+            Segment segment = segments[index];
+            if (segment.literal())
+            {
+                Path child = dir.resolve(segment.text());
+                if (index == segments.length - 1)
+                {
+                    if (Files.exists(child, LinkOption.NOFOLLOW_LINKS))
+                        emit(child);
+                }
+                else if (Files.isDirectory(child))
+                    descend(child, index + 1);
+                return;
+            }
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir))
+            {
+                for (Path child : children)
+                {
+                    Cancellation.check();
+                    String name = child.getFileName().toString();
+                    if (segment.globstar())
+                    {
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+                            descend(child, index);
+                        offer(child, name, index + 1);
+                    }
+                    else
+                        offer(child, name, index);
+                }
+            }
+            catch (IOException | DirectoryIteratorException | SecurityException ignored) {}
+        }
+
+        private void offer(Path child, String name, int index)
+        {
+            if (!segments[index].matches(name))
+                return;
+            if (index == segments.length - 1)
+                emit(child);
+            else if (Files.isDirectory(child))
+                descend(child, index + 1);
+        }
+    }
+
+    private static Pattern toRegex(String segment)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < segment.length(); i++)
+        {
+            char c = segment.charAt(i);
+            switch (c)
+            {
+                case '*' -> regex.append("(.*)");
+                case '?' -> regex.append("(.)");
+                case '[' ->
+                {
+                    int close = segment.indexOf(']', i + 2);
+                    if (close < 0)
+                    {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String body = segment.substring(i + 1, close);
+                    boolean negate = body.startsWith("!") || body.startsWith("^");
+                    if (negate)
+                        body = body.substring(1);
+                    regex.append("([").append(negate ? "^" : "")
+                            .append(body.replace("\\", "\\\\").replace("[", "\\[").replace("&&", "\\&\\&"))
+                            .append("])");
+                    i = close;
+                }
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), WINDOWS ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+    }
+}
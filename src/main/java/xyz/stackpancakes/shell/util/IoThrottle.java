@@ -0,0 +1,144 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared token buckets that cap the disk I/O of the bulk file built-ins, one
+ * for bytes per second and one for file operations (creates, copies and
+ * deletes) per second.  Every worker draws from the same buckets, so the
+ * limit holds for the shell as a whole no matter how many threads a command
+ * uses.  A bucket holds at most a tenth of a second worth of tokens, which
+ * keeps bursts short; callers that overdraw it wait until the debt has been
+ * paid back.  The limits are changed at run time by {@code THROTTLE}.
+ */
+public final class IoThrottle
+{
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final class Bucket
+    {
+        private double rate;
+        private double tokens;
+        private long refilledAt;
+
+        synchronized void setRate(double perSecond)
+        {
+            rate = perSecond;
+            tokens = perSecond / 10;
+            refilledAt = System.nanoTime();
+        }
+
+        synchronized double rate()
+        {
+            return rate;
+        }
+
+        synchronized long reserve(long amount)
+        {
+            if (rate <= 0)
+                return 0;
+            long now = System.nanoTime();
+            tokens = Math.min(rate / 10, tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+            tokens -= amount;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+    }
+
+    private static final Bucket bytes = new Bucket();
+    private static final Bucket operations = new Bucket();
+
+    private IoThrottle() {}
+
+    public static void setLimits(long bytesPerSecond, long operationsPerSecond)
+    {
+        bytes.setRate(Math.max(0, bytesPerSecond));
+        operations.setRate(Math.max(0, operationsPerSecond));
+    }
+
+    public static long bytesPerSecond()
+    {
+        return (long) bytes.rate();
+    }
+
+    public static long operationsPerSecond()
+    {
+        return (long) operations.rate();
+    }
+
+    public static boolean isLimited()
+    {
+        return bytes.rate() > 0 || operations.rate() > 0;
+    }
+
+    public static boolean limitsBytes()
+    {
+        return bytes.rate() > 0;
+    }
+
+    public static void acquireBytes(long amount)
+    {
+        pause(bytes.reserve(amount));
+    }
+
+    public static void acquireOperation()
+    {
+        pause(operations.reserve(1));
+    }
+
+    /**
+     * Deletes a file or an empty directory after drawing one operation from
+     * the operation bucket, and drops it from the {@link MetadataCache}.
+     */
+    public static void delete(Path path) throws IOException
+    {
+        acquireOperation();
+        Files.delete(path);
+        MetadataCache.invalidateEntry(path);
+    }
+
+    public static boolean deleteIfExists(Path path) throws IOException
+    {
+        acquireOperation();
+        boolean deleted = Files.deleteIfExists(path);
+        if (deleted)
+            MetadataCache.invalidateEntry(path);
+        return deleted;
+    }
+
+    /**
+     * Thread factory for bulk I/O workers.  While a limit is set the workers
+     * run at the lowest priority, which the operating system may or may not
+     * honour.
+     */
+    public static ThreadFactory workerThreadFactory(String name)
+    {
+        return Thread.ofPlatform()
+                .name(name + "-", 0)
+                .priority(isLimited() ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY)
+                .factory();
+    }
+
+    private static void pause(long nanos)
+    {
+        long deadline = System.nanoTime() + nanos;
+        while (nanos > 0)
+        {
+            Cancellation.check();
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(Math.min(nanos, MAX_SLEEP_NANOS));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            nanos = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package xyz.stackpancakes.shell.util;
+
+/**
+ * Open-addressing hash map from primitive {@code long} keys to {@code int}
+ * values.  Used where millions of entries would otherwise be boxed into
+ * {@link java.util.HashMap} keys and values.
+ */
+public final class LongIntHashMap
+{
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private final int missingValue;
+
+    public LongIntHashMap(int expectedSize, int missingValue)
+    {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.used = new boolean[capacity];
+        this.missingValue = missingValue;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int get(long key)
+    {
+        int slot = find(key);
+        return used[slot] ? values[slot] : missingValue;
+    }
+
+    public int put(long key, int value)
+    {
+        int slot = find(key);
+        if (used[slot])
+        {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * LOAD_FACTOR)
+            grow();
+        return missingValue;
+    }
+
+    public int increment(long key)
+    {
+        int slot = find(key);
+        if (used[slot])
+            return ++values[slot];
+        put(key, 1);
+        return 1;
+    }
+
+    private int find(long key)
+    {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (!oldUsed[i])
+                continue;
+            int slot = find(oldKeys[i]);
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int mix(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,45 @@
+package xyz.stackpancakes.shell.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread-safe map that holds at most a fixed number of entries and
+ * drops the least recently used one to make room for a new one.
+ */
+public final class LruCache<K, V>
+{
+    private final LinkedHashMap<K, V> map;
+
+    public LruCache(int capacity)
+    {
+        this.map = new LinkedHashMap<>(Math.min(capacity, 64), 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized V get(K key)
+    {
+        return map.get(key);
+    }
+
+    public synchronized void put(K key, V value)
+    {
+        map.put(key, value);
+    }
+
+    public synchronized void clear()
+    {
+        map.clear();
+    }
+
+    public synchronized int size()
+    {
+        return map.size();
+    }
+}
@@ -0,0 +1,385 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Shared cache of directory listings and per-entry attributes used by
+ * {@code DIR}, tab completion and {@code CD}.  A listing is reused while the
+ * directory is watched and no change event arrived, and is revalidated by a
+ * single modification-time check once it is older than a short interval so
+ * that changes the watcher cannot see (for example on network mounts) are
+ * still picked up.  The cache is bounded by the total number of cached
+ * entries and evicts the least recently used listings first.
+ */
+public final class MetadataCache
+{
+    private static final int MAX_CACHED_ENTRIES = 200_000;
+    private static final long REVALIDATE_NANOS = 2_000_000_000L;
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win");
+
+    public record EntryInfo(String name, boolean directory, boolean regularFile, boolean symbolicLink, boolean executable) {}
+    public record Listing(Path directory, long modified, List<EntryInfo> entries)
+    {
+        public Optional<EntryInfo> find(String name)
+        {
+            for (EntryInfo entry : entries)
+                if (entry.name().equals(name))
+                    return Optional.of(entry);
+            return Optional.empty();
+        }
+
+        boolean containsIgnoreCase(String name)
+        {
+            for (EntryInfo entry : entries)
+                if (entry.name().equalsIgnoreCase(name))
+                    return true;
+            return false;
+        }
+    }
+    private static final class CachedListing
+    {
+        final Listing listing;
+        final WatchKey watchKey;
+        volatile boolean changed;
+        volatile long validatedAt;
+
+        CachedListing(Listing listing, WatchKey watchKey)
+        {
+            this.listing = listing;
+            this.watchKey = watchKey;
+            this.validatedAt = System.nanoTime();
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static final LinkedHashMap<Path, CachedListing> listings = new LinkedHashMap<>(256, 0.75f, true);
+    private static final Map<WatchKey, CachedListing> watchedKeys = new HashMap<>();
+    private static int cachedEntries;
+    private static WatchService watchService;
+    private static boolean watcherUnavailable;
+
+    private MetadataCache() {}
+
+    public static Listing list(Path directory) throws IOException
+    {
+        Path key = directory.toAbsolutePath().normalize();
+        CachedListing cached;
+        synchronized (lock)
+        {
+            cached = listings.get(key);
+        }
+        if (cached != null && isFresh(cached))
+            return cached.listing;
+
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        if (cached != null && !cached.changed && cached.listing.modified() == modified)
+        {
+            cached.validatedAt = System.nanoTime();
+            return cached.listing;
+        }
+        Listing listing = readListing(key, modified);
+        store(key, listing);
+        return listing;
+    }
+
+    public static Optional<EntryInfo> lookup(Path path)
+    {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path parent = absolute.getParent();
+        Path name = absolute.getFileName();
+        if (parent == null || name == null)
+            return Files.isDirectory(absolute)
+                    ? Optional.of(new EntryInfo(absolute.toString(), true, false, false, false))
+                    : Optional.empty();
+        Listing listing;
+        try
+        {
+            listing = list(parent);
+        }
+        catch (IOException e)
+        {
+            // A parent that can be searched but not read, such as a 0711
+            // home directory, still lets the path itself be looked at.
+            return Files.exists(absolute, LinkOption.NOFOLLOW_LINKS) ? Optional.of(describe(absolute)) : Optional.empty();
+        }
+        Optional<EntryInfo> entry = listing.find(name.toString());
+        if (entry.isPresent() || !Files.exists(absolute, LinkOption.NOFOLLOW_LINKS))
+            return entry;
+        // Spelled with another case on a case-insensitive file system, or
+        // created since the listing was read and not yet reported by the
+        // watcher; only the latter makes the listing stale.
+        if (!listing.containsIgnoreCase(name.toString()))
+            invalidate(parent);
+        return Optional.of(describe(absolute));
+    }
+
+    public static boolean isDirectory(Path path)
+    {
+        return lookup(path).map(EntryInfo::directory).orElse(false);
+    }
+
+    public static boolean isExecutable(Path path)
+    {
+        return lookup(path).map(EntryInfo::executable).orElse(false);
+    }
+
+    /**
+     * Makes the next {@link #list} of {@code directory} read it again.
+     */
+    public static void invalidate(Path directory)
+    {
+        Path key = directory.toAbsolutePath().normalize();
+        synchronized (lock)
+        {
+            markChanged(key);
+        }
+    }
+
+    /**
+     * Forgets what is cached about {@code path} after a command created,
+     * changed or removed it, so that the next listing sees the change without
+     * waiting for the watcher: the directory containing it and its own
+     * listing are read again, and the directories above are checked against
+     * their modification time, since creating {@code path} may have created
+     * them too.
+     */
+    public static void invalidateEntry(Path path)
+    {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (lock)
+        {
+            markChanged(key);
+            Path parent = key.getParent();
+            if (parent == null)
+                return;
+            markChanged(parent);
+            for (Path ancestor = parent.getParent(); ancestor != null; ancestor = ancestor.getParent())
+            {
+                CachedListing cached = listings.get(ancestor);
+                if (cached != null)
+                    cached.validatedAt = System.nanoTime() - REVALIDATE_NANOS;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #invalidateEntry}, and also reads again every directory
+     * below {@code path}, for a command that changed a whole tree.
+     */
+    public static void invalidateTree(Path path)
+    {
+        Path key = path.toAbsolutePath().normalize();
+        invalidateEntry(key);
+        synchronized (lock)
+        {
+            for (Map.Entry<Path, CachedListing> entry : listings.entrySet())
+                if (entry.getKey().startsWith(key))
+                    entry.getValue().changed = true;
+        }
+    }
+
+    private static void markChanged(Path key)
+    {
+        CachedListing cached = listings.get(key);
+        if (cached != null)
+            cached.changed = true;
+    }
+
+    private static boolean isFresh(CachedListing cached)
+    {
+        if (cached.changed)
+            return false;
+        if (cached.watchKey != null && cached.watchKey.isValid()
+                && System.nanoTime() - cached.validatedAt < REVALIDATE_NANOS)
+            return true;
+        return cached.watchKey == null && System.nanoTime() - cached.validatedAt < REVALIDATE_NANOS / 4;
+    }
+
+    private static Listing readListing(Path directory, long modified) throws IOException
+    {
+        List<EntryInfo> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+        {
+            for (Path entry : stream)
+                entries.add(describe(entry));
+        }
+        return new Listing(directory, modified, Collections.unmodifiableList(entries));
+    }
+
+    private static EntryInfo describe(Path entry)
+    {
+        String name = entry.getFileName().toString();
+        try
+        {
+            BasicFileAttributes attrs = readAttributes(entry, LinkOption.NOFOLLOW_LINKS);
+            boolean symbolicLink = attrs.isSymbolicLink();
+            if (symbolicLink)
+            {
+                try
+                {
+                    attrs = readAttributes(entry);
+                }
+                catch (IOException e)
+                {
+                    return new EntryInfo(name, false, false, true, false);
+                }
+            }
+            return new EntryInfo(name, attrs.isDirectory(), attrs.isRegularFile(), symbolicLink,
+                    attrs.isRegularFile() && executable(name, attrs));
+        }
+        catch (IOException e)
+        {
+            return new EntryInfo(name, false, false, false, false);
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path entry, LinkOption... options) throws IOException
+    {
+        if (WINDOWS)
+            return Files.readAttributes(entry, BasicFileAttributes.class, options);
+        try
+        {
+            return Files.readAttributes(entry, PosixFileAttributes.class, options);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return Files.readAttributes(entry, BasicFileAttributes.class, options);
+        }
+    }
+
+    private static boolean executable(String name, BasicFileAttributes attrs)
+    {
+        if (WINDOWS)
+        {
+            String lower = name.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".exe") || lower.endsWith(".bat") || lower.endsWith(".com") || lower.endsWith(".cmd");
+        }
+        if (attrs instanceof PosixFileAttributes posix)
+        {
+            Set<PosixFilePermission> permissions = posix.permissions();
+            return permissions.contains(PosixFilePermission.OWNER_EXECUTE)
+                    || permissions.contains(PosixFilePermission.GROUP_EXECUTE)
+                    || permissions.contains(PosixFilePermission.OTHERS_EXECUTE);
+        }
+        return false;
+    }
+
+    private static void store(Path key, Listing listing)
+    {
+        WatchKey watchKey = watch(key);
+        synchronized (lock)
+        {
+            CachedListing cached = new CachedListing(listing, watchKey);
+            CachedListing previous = listings.put(key, cached);
+            if (previous != null)
+            {
+                cachedEntries -= previous.listing.entries().size();
+                if (previous.watchKey != null && previous.watchKey != watchKey)
+                    previous.watchKey.cancel();
+            }
+            if (watchKey != null)
+                watchedKeys.put(watchKey, cached);
+            cachedEntries += listing.entries().size();
+            Iterator<Map.Entry<Path, CachedListing>> it = listings.entrySet().iterator();
+            while (cachedEntries > MAX_CACHED_ENTRIES && it.hasNext())
+            {
+                Map.Entry<Path, CachedListing> eldest = it.next();
+                if (eldest.getKey().equals(key))
+                    continue;
+                it.remove();
+                forget(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    private static void forget(Path key, CachedListing removed)
+    {
+        cachedEntries -= removed.listing.entries().size();
+        if (removed.watchKey != null && watchedKeys.get(removed.watchKey) == removed)
+        {
+            watchedKeys.remove(removed.watchKey);
+            removed.watchKey.cancel();
+        }
+    }
+
+    private static WatchKey watch(Path directory)
+    {
+        WatchService service = watchService();
+        if (service == null)
+            return null;
+        try
+        {
+            return directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e)
+        {
+            return null;
+        }
+    }
+
+    private static WatchService watchService()
+    {
+        synchronized (lock)
+        {
+            if (watchService != null || watcherUnavailable)
+                return watchService;
+            try
+            {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            catch (IOException | UnsupportedOperationException e)
+            {
+                watcherUnavailable = true;
+                return null;
+            }
+            // Serves every session, so it must not inherit the one that started it.
+            Thread watcher = new Thread(null, MetadataCache::drainEvents, "metadata-cache-watcher", 0, false);
+            watcher.setDaemon(true);
+            watcher.start();
+            return watchService;
+        }
+    }
+
+    private static void drainEvents()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watchService.take();
+                key.pollEvents();
+                synchronized (lock)
+                {
+                    CachedListing cached = watchedKeys.get(key);
+                    if (cached != null)
+                        cached.changed = true;
+                }
+                key.reset();
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ignored) {}
+    }
+}
@@ -1,38 +1,28 @@
 package xyz.stackpancakes.shell.util;
 
+import xyz.stackpancakes.shell.core.ShellSession;
+
 import java.util.Optional;
 
 public final class OutputPrinter
 {
-    private static final Object lock = new Object();
-    private static String lastOutput;
-
     public static void setLastOutput(String msg)
     {
-        synchronized (lock)
-        {
-            lastOutput = msg;
-        }
+        ShellSession.current().setLastOutput(msg);
     }
 
     public static Optional<String> getLastOutput()
     {
-        synchronized (lock)
-        {
-            return Optional.ofNullable(lastOutput);
-        }
+        return Optional.ofNullable(ShellSession.current().lastOutput());
     }
 
     public static void clearLastOutput()
     {
-        synchronized (lock)
-        {
-            lastOutput = null;
-        }
+        ShellSession.current().setLastOutput(null);
     }
 
     public String getString()
     {
-        return lastOutput;
+        return ShellSession.current().lastOutput();
     }
 }
\ No newline at end of file
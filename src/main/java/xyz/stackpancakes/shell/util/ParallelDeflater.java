@@ -0,0 +1,253 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Block-parallel raw deflate in the style of pigz.  Input is cut into fixed
+ * size blocks that are compressed independently on a pool, each primed with
+ * the last 32 KiB of the block before it so that the ratio stays close to a
+ * single-threaded deflate.  Every block but the last of a stream ends on a
+ * sync flush, so the compressed blocks simply concatenate into one valid
+ * deflate stream.  Blocks are written to the output in submission order, as
+ * are raw byte runs such as archive headers that callers interleave with the
+ * compressed data.  At most a fixed window of blocks is in flight, which
+ * bounds the memory used no matter how large the input is.
+ */
+public final class ParallelDeflater extends OutputStream
+{
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * One deflate stream.  The checksum and input size are known as soon as
+     * the stream is finished; the compressed size only once its last block
+     * has been written, which is before any raw bytes queued after it are
+     * produced.
+     */
+    public static final class Member
+    {
+        private final CRC32 crc = new CRC32();
+        private long size;
+        private long compressedSize;
+
+        public long crc()
+        {
+            return crc.getValue();
+        }
+
+        public long size()
+        {
+            return size;
+        }
+
+        public long compressedSize()
+        {
+            return compressedSize;
+        }
+    }
+
+    private record Pending(Future<byte[]> block, Supplier<byte[]> raw, Member member) {}
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int level;
+    private final int window;
+    private final Queue<Pending> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] previous;
+    private Member member = new Member();
+    private long position;
+    private long memberStart = -1;
+
+    public ParallelDeflater(OutputStream out, ExecutorService pool, int parallelism, int level)
+    {
+        this.out = out;
+        this.pool = pool;
+        this.level = level;
+        this.window = Math.max(2, parallelism * 4);
+    }
+
+    /**
+     * Number of bytes written to the underlying stream so far.  Only
+     * meaningful inside a supplier passed to {@link #writeRaw(Supplier)}.
+     */
+    public long position()
+    {
+        return position;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        member.crc.update(b, off, len);
+        member.size += len;
+        while (len > 0)
+        {
+            if (blockLength == BLOCK_SIZE)
+                submit(false);
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Queues bytes that are written as they are, between the compressed
+     * blocks.  The supplier runs on the calling thread once everything
+     * queued before it has been written.
+     */
+    public void writeRaw(Supplier<byte[]> raw) throws IOException
+    {
+        enqueue(new Pending(null, raw, null));
+    }
+
+    /**
+     * Ends the current deflate stream and starts a new one.
+     */
+    public Member finishMember() throws IOException
+    {
+        Member finished = member;
+        submit(true);
+        previous = null;
+        member = new Member();
+        return finished;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        while (!pending.isEmpty())
+            drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            for (Pending p : pending)
+                if (p.block() != null)
+                    p.block().cancel(false);
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException
+    {
+        byte[] data = blockLength == BLOCK_SIZE ? block : Arrays.copyOf(block, blockLength);
+        int length = blockLength;
+        byte[] dictionary = previous;
+        Future<byte[]> future = pool.submit(() -> compress(data, length, dictionary, last));
+        previous = data;
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        enqueue(new Pending(future, null, last ? member : null));
+    }
+
+    private void enqueue(Pending p) throws IOException
+    {
+        pending.add(p);
+        while (pending.size() > window)
+            drain();
+    }
+
+    private void drain() throws IOException
+    {
+        Pending p = pending.remove();
+        byte[] bytes;
+        if (p.raw() != null)
+            bytes = p.raw().get();
+        else
+        {
+            try
+            {
+                bytes = p.block().get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing.", e);
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+        if (p.raw() == null && memberStart < 0)
+            memberStart = position;
+        out.write(bytes);
+        position += bytes.length;
+        if (p.member() != null)
+        {
+            p.member().compressedSize = position - memberStart;
+            memberStart = -1;
+        }
+    }
+
+    private byte[] compress(byte[] data, int length, byte[] dictionary, boolean last)
+    {
+        Cancellation.check();
+        Deflater deflater = new Deflater(level, true);
+        try
+        {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            deflater.setInput(data, 0, length);
+            byte[] buffer = new byte[length + length / 1000 + 64];
+            int written = 0;
+            if (last)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    if (written == buffer.length)
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    written += deflater.deflate(buffer, written, buffer.length - written);
+                }
+            }
+            else
+            {
+                while (true)
+                {
+                    if (written == buffer.length)
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    int n = deflater.deflate(buffer, written, buffer.length - written, Deflater.SYNC_FLUSH);
+                    written += n;
+                    if (written < buffer.length)
+                        break;
+                }
+            }
+            return Arrays.copyOf(buffer, written);
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+}
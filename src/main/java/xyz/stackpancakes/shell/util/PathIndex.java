@@ -0,0 +1,673 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Persistent filename index used by {@code INDEX} and {@code LOCATE}.
+ * <p>
+ * The index consists of three files: a front-coded sorted list of paths
+ * ({@code paths.idx}), a trigram postings file over the lower-cased paths
+ * ({@code trigrams.idx}) and a directory snapshot ({@code dirs.dat}) holding
+ * the modification time and children of every indexed directory.  Queries
+ * memory-map the first two files and never touch the indexed file systems.
+ * Refreshing re-lists only the directories whose modification time changed
+ * since the snapshot was taken.
+ */
+public final class PathIndex
+{
+    private static final int PATHS_MAGIC = 0x4A504958;
+    private static final int TRIGRAMS_MAGIC = 0x4A545249;
+    private static final int DIRS_MAGIC = 0x4A444952;
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 16;
+    private static final int TRIGRAM_ENTRY_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final String PATHS_FILE = "paths.idx";
+    private static final String TRIGRAMS_FILE = "trigrams.idx";
+    private static final String DIRS_FILE = "dirs.dat";
+
+    public record BuildStats(int paths, int directories, int relisted) {}
+    private record Child(String name, boolean directory) {}
+    private record DirRecord(long modified, List<Child> children) {}
+
+    private PathIndex() {}
+
+    public static Path defaultDirectory()
+    {
+        return FileSystemUtils.getDataDirectory().resolve("index");
+    }
+
+    public static List<Path> indexedRoots(Path indexDir) throws IOException
+    {
+        List<Path> roots = new ArrayList<>();
+        readSnapshot(indexDir, roots);
+        return roots;
+    }
+
+    public static BuildStats build(Path indexDir, List<Path> roots, boolean incremental) throws IOException
+    {
+        Map<String, DirRecord> previous = incremental ? readSnapshot(indexDir, new ArrayList<>()) : Map.of();
+        Map<String, DirRecord> snapshot = new HashMap<>();
+        List<String> paths = new ArrayList<>();
+        int[] relisted = { 0 };
+        for (Path root : roots)
+        {
+            paths.add(root.toString());
+            walk(root, previous, snapshot, paths, relisted);
+        }
+        paths.sort(null);
+        Files.createDirectories(indexDir);
+        writePaths(indexDir, paths);
+        writeTrigrams(indexDir, paths);
+        writeSnapshot(indexDir, roots, snapshot);
+        return new BuildStats(paths.size(), snapshot.size(), relisted[0]);
+    }
+
+    private static void walk(Path dir, Map<String, DirRecord> previous, Map<String, DirRecord> snapshot,
+                             List<String> paths, int[] relisted)
+    {
+        Cancellation.check();
+        String key = dir.toString();
+        DirRecord record;
+        try
+        {
+            long modified = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).toMillis();
+            record = previous.get(key);
+            if (record == null || record.modified() != modified)
+            {
+                record = new DirRecord(modified, list(dir));
+                relisted[0]++;
+            }
+        }
+        catch (IOException e)
+        {
+            return;
+        }
+        snapshot.put(key, record);
+        for (Child child : record.children())
+        {
+            Path path;
+            try
+            {
+                path = dir.resolve(child.name());
+            }
+            catch (InvalidPathException e)
+            {
+                continue;
+            }
+            paths.add(path.toString());
+            if (child.directory())
+                walk(path, previous, snapshot, paths, relisted);
+        }
+    }
+
+    private static List<Child> list(Path dir) throws IOException
+    {
+        List<Child> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir))
+        {
+            for (Path entry : stream)
+            {
+                boolean directory;
+                try
+                {
+                    directory = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+                }
+                catch (IOException e)
+                {
+                    directory = false;
+                }
+                children.add(new Child(entry.getFileName().toString(), directory));
+            }
+        }
+        return children;
+    }
+
+    private static void writePaths(Path indexDir, List<String> paths) throws IOException
+    {
+        int blockCount = (paths.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] offsets = new long[blockCount];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < paths.size(); i++)
+        {
+            byte[] current = paths.get(i).getBytes(StandardCharsets.UTF_8);
+            if (i % BLOCK_SIZE == 0)
+            {
+                offsets[i / BLOCK_SIZE] = data.size();
+                writeVarInt(data, current.length);
+                data.write(current);
+            }
+            else
+            {
+                int shared = Arrays.mismatch(previous, current);
+                if (shared < 0)
+                    shared = current.length;
+                writeVarInt(data, shared);
+                writeVarInt(data, current.length - shared);
+                data.write(current, shared, current.length - shared);
+            }
+            previous = current;
+        }
+        Path temp = indexDir.resolve(PATHS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+        {
+            out.writeInt(PATHS_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(paths.size());
+            out.writeInt(BLOCK_SIZE);
+            out.writeInt(blockCount);
+            for (long offset : offsets)
+                out.writeLong(offset);
+            data.writeTo(out);
+        }
+        Files.move(temp, indexDir.resolve(PATHS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeTrigrams(Path indexDir, List<String> paths) throws IOException
+    {
+        Map<Integer, IntList> postings = new HashMap<>();
+        for (int id = 0; id < paths.size(); id++)
+        {
+            byte[] bytes = paths.get(id).toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 2 < bytes.length; i++)
+            {
+                IntList list = postings.computeIfAbsent(trigram(bytes, i), _ -> new IntList());
+                if (list.size == 0 || list.last() != id)
+                    list.add(id);
+            }
+        }
+        int[] keys = new int[postings.size()];
+        int k = 0;
+        for (int key : postings.keySet())
+            keys[k++] = key;
+        Arrays.sort(keys);
+
+        Path temp = indexDir.resolve(TRIGRAMS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+        {
+            out.writeInt(TRIGRAMS_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.length);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            long[] offsets = new long[keys.length];
+            for (int i = 0; i < keys.length; i++)
+            {
+                offsets[i] = encoded.size();
+                IntList list = postings.get(keys[i]);
+                int last = 0;
+                for (int j = 0; j < list.size; j++)
+                {
+                    writeVarInt(encoded, list.values[j] - last);
+                    last = list.values[j];
+                }
+            }
+            for (int i = 0; i < keys.length; i++)
+            {
+                out.writeInt(keys[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(postings.get(keys[i]).size);
+            }
+            encoded.writeTo(out);
+        }
+        Files.move(temp, indexDir.resolve(TRIGRAMS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeSnapshot(Path indexDir, List<Path> roots, Map<String, DirRecord> snapshot) throws IOException
+    {
+        Path temp = indexDir.resolve(DIRS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+        {
+            out.writeInt(DIRS_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(roots.size());
+            for (Path root : roots)
+                out.writeUTF(root.toString());
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, DirRecord> e : snapshot.entrySet())
+            {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().modified());
+                out.writeInt(e.getValue().children().size());
+                for (Child child : e.getValue().children())
+                {
+                    out.writeUTF(child.name());
+                    out.writeBoolean(child.directory());
+                }
+            }
+        }
+        Files.move(temp, indexDir.resolve(DIRS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Map<String, DirRecord> readSnapshot(Path indexDir, List<Path> roots) throws IOException
+    {
+        Path file = indexDir.resolve(DIRS_FILE);
+        if (!Files.exists(file))
+            return Map.of();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if (in.readInt() != DIRS_MAGIC || in.readInt() != VERSION)
+                return Map.of();
+            int rootCount = in.readInt();
+            for (int i = 0; i < rootCount; i++)
+                roots.add(Path.of(in.readUTF()));
+            int count = in.readInt();
+            Map<String, DirRecord> snapshot = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++)
+            {
+                String dir = in.readUTF();
+                long modified = in.readLong();
+                int childCount = in.readInt();
+                List<Child> children = new ArrayList<>(childCount);
+                for (int j = 0; j < childCount; j++)
+                    children.add(new Child(in.readUTF(), in.readBoolean()));
+                snapshot.put(dir, new DirRecord(modified, children));
+            }
+            return snapshot;
+        }
+        catch (EOFException e)
+        {
+            return Map.of();
+        }
+    }
+
+    /**
+     * Memory-mapped view of a built index.  Substring queries intersect the
+     * postings of the query's trigrams and only decode the candidate paths;
+     * glob queries use the trigrams of their literal runs the same way.
+     */
+    public static final class Reader implements AutoCloseable
+    {
+        private final FileChannel pathsChannel;
+        private final FileChannel trigramsChannel;
+        private final MappedByteBuffer paths;
+        private final MappedByteBuffer trigrams;
+        private final int count;
+        private final int blockSize;
+        private final int blockCount;
+        private final long dataStart;
+        private final int trigramCount;
+        private final long postingsStart;
+
+        public Reader(Path indexDir) throws IOException
+        {
+            pathsChannel = FileChannel.open(indexDir.resolve(PATHS_FILE), StandardOpenOption.READ);
+            trigramsChannel = FileChannel.open(indexDir.resolve(TRIGRAMS_FILE), StandardOpenOption.READ);
+            if (pathsChannel.size() > Integer.MAX_VALUE || trigramsChannel.size() > Integer.MAX_VALUE)
+            {
+                close();
+                throw new IOException("The index is larger than 2 GB and cannot be mapped; index fewer directories");
+            }
+            paths = pathsChannel.map(FileChannel.MapMode.READ_ONLY, 0, pathsChannel.size());
+            trigrams = trigramsChannel.map(FileChannel.MapMode.READ_ONLY, 0, trigramsChannel.size());
+            if (paths.getInt(0) != PATHS_MAGIC || trigrams.getInt(0) != TRIGRAMS_MAGIC
+                    || paths.getInt(4) != VERSION || trigrams.getInt(4) != VERSION)
+            {
+                close();
+                throw new IOException("The index is corrupt or was built by another version; run INDEX --rebuild");
+            }
+            count = paths.getInt(8);
+            blockSize = paths.getInt(12);
+            blockCount = paths.getInt(16);
+            dataStart = 20 + (long) blockCount * Long.BYTES;
+            trigramCount = trigrams.getInt(8);
+            postingsStart = 12 + (long) trigramCount * TRIGRAM_ENTRY_BYTES;
+            if (count < 0 || blockCount < 0 || trigramCount < 0 || dataStart > paths.limit() || postingsStart > trigrams.limit())
+            {
+                close();
+                throw new IOException("The index is corrupt; run INDEX --rebuild");
+            }
+        }
+
+        public int size()
+        {
+            return count;
+        }
+
+        /**
+         * Passes every indexed path matching {@code query} to {@code sink}
+         * and returns how many there were.  A malformed glob is reported as
+         * a {@link PatternSyntaxException}.
+         */
+        public int query(String query, Consumer<String> sink) throws IOException
+        {
+            String lower = query.toLowerCase(Locale.ROOT);
+            boolean glob = lower.indexOf('*') >= 0 || lower.indexOf('?') >= 0 || lower.indexOf('[') >= 0;
+            Pattern pattern = glob ? compileGlob(lower) : null;
+            boolean matchName = glob && lower.indexOf('/') < 0 && lower.indexOf('\\') < 0;
+
+            int[] candidates = null;
+            for (String literal : glob ? literals(lower) : List.of(lower))
+            {
+                byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i + 2 < bytes.length; i++)
+                {
+                    int[] postings = postings(trigram(bytes, i));
+                    candidates = candidates == null ? postings : intersect(candidates, postings);
+                    if (candidates.length == 0)
+                        return 0;
+                }
+            }
+
+            int matches = 0;
+            if (candidates == null)
+            {
+                for (int block = 0; block < blockCount; block++)
+                    matches += decodeBlock(block, null, path -> test(path, lower, pattern, matchName), sink);
+                return matches;
+            }
+            int i = 0;
+            while (i < candidates.length)
+            {
+                int block = candidates[i] / blockSize;
+                int from = i;
+                while (i < candidates.length && candidates[i] / blockSize == block)
+                    i++;
+                int[] wanted = Arrays.copyOfRange(candidates, from, i);
+                matches += decodeBlock(block, wanted, path -> test(path, lower, pattern, matchName), sink);
+            }
+            return matches;
+        }
+
+        private int decodeBlock(int block, int[] wanted, Predicate<String> filter, Consumer<String> sink) throws IOException
+        {
+            ByteBuffer buffer = at(paths, dataStart + paths.getLong(20 + block * Long.BYTES));
+            int first = block * blockSize;
+            int last = Math.min(count, first + blockSize);
+            byte[] current = new byte[256];
+            int length = 0;
+            int matches = 0;
+            int next = 0;
+            for (int id = first; id < last; id++)
+            {
+                int shared = id == first ? 0 : readVarInt(buffer);
+                int suffix = readVarInt(buffer);
+                if (shared + suffix > current.length)
+                    current = Arrays.copyOf(current, Math.max(current.length * 2, shared + suffix));
+                buffer.get(current, shared, suffix);
+                length = shared + suffix;
+                if (wanted != null)
+                {
+                    if (next >= wanted.length)
+                        break;
+                    if (wanted[next] != id)
+                        continue;
+                    next++;
+                }
+                String path = new String(current, 0, length, StandardCharsets.UTF_8);
+                if (filter.test(path))
+                {
+                    sink.accept(path);
+                    matches++;
+                }
+            }
+            return matches;
+        }
+
+        private int[] postings(int key) throws IOException
+        {
+            int lo = 0;
+            int hi = trigramCount - 1;
+            while (lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                int entry = 12 + mid * TRIGRAM_ENTRY_BYTES;
+                int midKey = trigrams.getInt(entry);
+                if (midKey < key)
+                    lo = mid + 1;
+                else if (midKey > key)
+                    hi = mid - 1;
+                else
+                {
+                    long offset = trigrams.getLong(entry + Integer.BYTES);
+                    int size = trigrams.getInt(entry + Integer.BYTES + Long.BYTES);
+                    ByteBuffer buffer = at(trigrams, postingsStart + offset);
+                    int[] ids = new int[size];
+                    int last = 0;
+                    for (int i = 0; i < size; i++)
+                    {
+                        last += readVarInt(buffer);
+                        ids[i] = last;
+                    }
+                    return ids;
+                }
+            }
+            return new int[0];
+        }
+
+        /**
+         * A view of {@code buffer} positioned at an offset read from the
+         * index, which is checked so that a damaged index fails instead of
+         * reading from the wrong place.
+         */
+        private static ByteBuffer at(MappedByteBuffer buffer, long position) throws IOException
+        {
+            if (position < 0 || position > buffer.limit())
+                throw new IOException("The index is corrupt; run INDEX --rebuild");
+            return buffer.duplicate().position(Math.toIntExact(position));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            pathsChannel.close();
+            trigramsChannel.close();
+        }
+
+        private static boolean test(String path, String lowerQuery, Pattern pattern, boolean matchName)
+        {
+            if (pattern == null)
+                return path.toLowerCase(Locale.ROOT).contains(lowerQuery);
+            String subject = path;
+            if (matchName)
+            {
+                int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+                subject = path.substring(slash + 1);
+            }
+            return pattern.matcher(subject).matches();
+        }
+
+        private static List<String> literals(String glob)
+        {
+            List<String> literals = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++)
+            {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?' || c == '[')
+                {
+                    literals.add(current.toString());
+                    current.setLength(0);
+                    if (c == '[')
+                    {
+                        int close = bracketEnd(glob, i);
+                        if (close >= 0)
+                            i = close;
+                    }
+                }
+                else
+                    current.append(c);
+            }
+            literals.add(current.toString());
+            return literals;
+        }
+
+        private static int[] intersect(int[] a, int[] b)
+        {
+            int[] result = new int[Math.min(a.length, b.length)];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < a.length && j < b.length)
+            {
+                if (a[i] < b[j])
+                    i++;
+                else if (a[i] > b[j])
+                    j++;
+                else
+                {
+                    result[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        private static Pattern compileGlob(String glob)
+        {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++)
+            {
+                char c = glob.charAt(i);
+                switch (c)
+                {
+                    case '*' -> regex.append(".*");
+                    case '?' -> regex.append('.');
+                    case '[' ->
+                    {
+                        int close = bracketEnd(glob, i);
+                        if (close < 0)
+                            regex.append("\\[");
+                        else
+                        {
+                            appendClass(regex, glob, i + 1, close);
+                            i = close;
+                        }
+                    }
+                    default -> regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+
+        /**
+         * The index of the {@code ]} closing the set opened at {@code open},
+         * or -1.  A {@code ]} right after the opening bracket or its
+         * negation is part of the set, as in shells.
+         */
+        private static int bracketEnd(String glob, int open)
+        {
+            int i = open + 1;
+            if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^'))
+                i++;
+            if (i < glob.length() && glob.charAt(i) == ']')
+                i++;
+            return glob.indexOf(']', i);
+        }
+
+        /**
+         * Translates the set {@code glob[from, to)} into a regex character
+         * class: a leading {@code !} or {@code ^} negates it, {@code a-z} is
+         * a range and everything else stands for itself.
+         */
+        private static void appendClass(StringBuilder regex, String glob, int from, int to)
+        {
+            regex.append('[');
+            int i = from;
+            if (glob.charAt(i) == '!' || glob.charAt(i) == '^')
+            {
+                regex.append('^');
+                i++;
+            }
+            for (; i < to; i++)
+            {
+                char c = glob.charAt(i);
+                if (i + 2 < to && glob.charAt(i + 1) == '-')
+                {
+                    char end = glob.charAt(i + 2);
+                    if (end < c)
+                        throw new PatternSyntaxException("Reversed range " + c + "-" + end, glob, i);
+                    appendClassChar(regex, c);
+                    regex.append('-');
+                    appendClassChar(regex, end);
+                    i += 2;
+                }
+                else
+                    appendClassChar(regex, c);
+            }
+            regex.append(']');
+        }
+
+        private static void appendClassChar(StringBuilder regex, char c)
+        {
+            if ("\\[]^-&".indexOf(c) >= 0)
+                regex.append('\\');
+            regex.append(c);
+        }
+    }
+
+    private static int trigram(byte[] bytes, int i)
+    {
+        return (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        return value;
+    }
+
+    private static final class IntList
+    {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+        int last()
+        {
+            return values[size - 1];
+        }
+    }
+}
@@ -44,15 +44,25 @@ public class PrinterUtils
             out.print(Ansi.withForeground(":)", Ansi.Foreground.GREEN));
         return out;
     }
-    private static int getConsoleWidth()
+    /**
+     * A byte count in the largest binary unit that keeps it at 1 or more,
+     * such as {@code 512 B} or {@code 1.5 MiB}.
+     */
+    public static String formatBytes(long bytes)
     {
-        int width = 0;
-        try
+        String[] units = { "B", "KiB", "MiB", "GiB", "TiB" };
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1)
         {
-            width = TerminalShare.getSharedTerminal().getWidth();
-            return width > 0 ? width : 80;
+            value /= 1024;
+            unit++;
         }
-        catch (Exception _) {}
-        return width;
+        return unit == 0 ? bytes + " B" : String.format("%.1f %s", value, units[unit]);
+    }
+    private static int getConsoleWidth()
+    {
+        int width = TerminalShare.getWidth();
+        return width > 0 ? width : 80;
     }
 }
@@ -0,0 +1,132 @@
+package xyz.stackpancakes.shell.util;
+
+import org.jline.terminal.Terminal;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-line status display for long-running built-ins.  Workers only bump
+ * two counters; a background thread redraws the line with items per second,
+ * bytes per second and, when the totals are known, an estimated time left,
+ * at most ten times a second.  Nothing is drawn for operations that finish
+ * quickly or when the shell is not attached to a real terminal, and the line
+ * is erased again when the reporter is closed.
+ */
+public final class ProgressReporter implements AutoCloseable
+{
+    private static final long REDRAW_MILLIS = 100;
+    private static final long FIRST_DRAW_MILLIS = 300;
+    private static final ProgressReporter DISABLED = new ProgressReporter(null, null, 0, 0);
+
+    private final String label;
+    private final PrintWriter writer;
+    private final long totalItems;
+    private final long totalBytes;
+    private final LongAdder items = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final long startedAt = System.nanoTime();
+    private volatile boolean closed;
+    private boolean drawn;
+    private Thread renderer;
+
+    private ProgressReporter(String label, PrintWriter writer, long totalItems, long totalBytes)
+    {
+        this.label = label;
+        this.writer = writer;
+        this.totalItems = totalItems;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Starts reporting.  A total of zero means that the total is unknown, in
+     * which case no estimate is shown.
+     */
+    public static ProgressReporter start(String label, long totalItems, long totalBytes)
+    {
+        Terminal terminal = TerminalShare.getSharedTerminal();
+        if (terminal == null || terminal.getType() == null || terminal.getType().startsWith(Terminal.TYPE_DUMB))
+            return DISABLED;
+        ProgressReporter reporter = new ProgressReporter(label, terminal.writer(), totalItems, totalBytes);
+        reporter.renderer = Thread.ofPlatform().daemon().name("progress").start(reporter::render);
+        return reporter;
+    }
+
+    public void step(long byteCount)
+    {
+        items.increment();
+        if (byteCount > 0)
+            bytes.add(byteCount);
+    }
+
+    public void addBytes(long byteCount)
+    {
+        bytes.add(byteCount);
+    }
+
+    @Override
+    public void close()
+    {
+        if (this == DISABLED)
+            return;
+        closed = true;
+        renderer.interrupt();
+        try
+        {
+            renderer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (drawn)
+        {
+            writer.print("\r\033[K");
+            writer.flush();
+        }
+    }
+
+    private void render()
+    {
+        try
+        {
+            Thread.sleep(FIRST_DRAW_MILLIS);
+            while (!closed)
+            {
+                writer.print("\r" + statusLine() + "\033[K");
+                writer.flush();
+                drawn = true;
+                Thread.sleep(REDRAW_MILLIS);
+            }
+        }
+        catch (InterruptedException ignored) {}
+    }
+
+    private String statusLine()
+    {
+        double seconds = Math.max(1e-3, (System.nanoTime() - startedAt) / 1e9);
+        long doneItems = items.sum();
+        long doneBytes = bytes.sum();
+        StringBuilder sb = new StringBuilder(label).append(": ").append(doneItems);
+        if (totalItems > 0)
+            sb.append('/').append(totalItems);
+        sb.append(" items");
+        if (doneBytes > 0 || totalBytes > 0)
+        {
+            sb.append(", ").append(PrinterUtils.formatBytes(doneBytes));
+            if (totalBytes > 0)
+                sb.append('/').append(PrinterUtils.formatBytes(totalBytes));
+        }
+        sb.append(String.format(" | %.0f items/s", doneItems / seconds));
+        if (doneBytes > 0)
+            sb.append(" | ").append(PrinterUtils.formatBytes((long) (doneBytes / seconds))).append("/s");
+        double fraction = totalBytes > 0 ? (double) doneBytes / totalBytes
+                : totalItems > 0 ? (double) doneItems / totalItems : 0;
+        if (fraction > 0 && fraction < 1)
+        {
+            long eta = (long) (seconds / fraction - seconds);
+            sb.append(String.format(" | ETA %d:%02d", eta / 60, eta % 60));
+        }
+        return sb.toString();
+    }
+}
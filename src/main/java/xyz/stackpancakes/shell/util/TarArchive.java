@@ -0,0 +1,490 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes and extracts gzip-compressed tar archives.  The tar stream is fed
+ * through a {@link ParallelDeflater}, which makes the gzip member itself
+ * block-parallel the way pigz does, so a single large file compresses on
+ * every core.  Names that do not fit the ustar header are written as GNU
+ * long name records.  Extraction is necessarily one sequential inflate, but
+ * the reading thread only decodes: small files are handed to a pool to be
+ * written while the next entries are read, directories are created on the
+ * pool as well, and links are created last so that no entry can be written
+ * through a link from the same archive.
+ */
+public final class TarArchive
+{
+    private static final int BLOCK = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SMALL_FILE = 1024 * 1024;
+    private static final int MAX_IN_FLIGHT = 64 * 1024 * 1024;
+    private static final int MAX_METADATA = 1024 * 1024;
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255 };
+    private static final String LONG_LINK = "././@LongLink";
+
+    private interface IoTask
+    {
+        void run() throws IOException;
+    }
+
+    private record Link(Path target, String linkName, boolean hard)
+    {
+        @Override
+        public String toString()
+        {
+            return target.toString();
+        }
+    }
+
+    private TarArchive() {}
+
+    public static void create(Path archive, List<ArchiveEntry> entries, int parallelism, int level, ProgressReporter progress) throws IOException
+    {
+        try (ExecutorService pool = Executors.newFixedThreadPool(parallelism, IoThrottle.workerThreadFactory("archive"));
+             ParallelDeflater out = new ParallelDeflater(new BufferedOutputStream(Files.newOutputStream(archive), BUFFER_SIZE), pool, parallelism, level))
+        {
+            out.writeRaw(GZIP_HEADER::clone);
+            for (ArchiveEntry entry : entries)
+            {
+                Cancellation.check();
+                long modified = entry.attributes().lastModifiedTime().to(TimeUnit.SECONDS);
+                if (entry.isDirectory())
+                    writeHeader(out, entry.name() + "/", '5', 0, 0755, modified, "");
+                else if (entry.isSymbolicLink())
+                {
+                    String link = Files.readSymbolicLink(entry.path()).toString().replace('\\', '/');
+                    writeHeader(out, entry.name(), '2', 0, 0777, modified, link);
+                }
+                else
+                {
+                    IoThrottle.acquireOperation();
+                    long size = entry.attributes().size();
+                    writeHeader(out, entry.name(), '0', size, permissions(entry.path()), modified, "");
+                    try (InputStream in = Files.newInputStream(entry.path()))
+                    {
+                        if (copyExactly(in, out, size) < size)
+                            throw new IOException("File changed while it was being archived: " + entry.path());
+                    }
+                    pad(out, size);
+                    progress.step(size);
+                }
+            }
+            out.write(new byte[BLOCK * 2]);
+            ParallelDeflater.Member member = out.finishMember();
+            out.writeRaw(() -> ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) member.crc()).putInt((int) member.size()).array());
+        }
+    }
+
+    /**
+     * Extracts every entry below {@code destination} and returns the entries
+     * that failed.  Files larger than {@link #SMALL_FILE} are written by the
+     * reading thread; smaller ones are buffered and written on the pool, with
+     * the buffered bytes capped at {@link #MAX_IN_FLIGHT}.
+     */
+    public static List<Batch.Failure> extract(Path archive, Path destination, int parallelism, ProgressReporter progress) throws IOException
+    {
+        Queue<Batch.Failure> failures = new ConcurrentLinkedQueue<>();
+        List<Link> links = new ArrayList<>();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE), BUFFER_SIZE);
+             ExecutorService pool = Executors.newFixedThreadPool(parallelism, IoThrottle.workerThreadFactory("archive")))
+        {
+            byte[] header = new byte[BLOCK];
+            String longName = null;
+            String longLink = null;
+            Map<String, String> pax = Map.of();
+            while (true)
+            {
+                Cancellation.check();
+                int read = in.readNBytes(header, 0, BLOCK);
+                if (read == 0 || (read == BLOCK && isZero(header)))
+                    break;
+                if (read < BLOCK || !checksumMatches(header))
+                    throw new IOException("The archive is damaged or is not a tar archive.");
+                char type = (char) header[156];
+                long size = pax.containsKey("size") ? Long.parseLong(pax.get("size")) : number(header, 124, 12);
+                switch (type)
+                {
+                    case 'L' -> { longName = readText(in, size); continue; }
+                    case 'K' -> { longLink = readText(in, size); continue; }
+                    case 'x' -> { pax = parsePax(readText(in, size)); continue; }
+                    case 'g' -> { skip(in, size + padding(size)); continue; }
+                    default -> {}
+                }
+                String name = pax.getOrDefault("path", longName != null ? longName : headerName(header));
+                String linkName = pax.getOrDefault("linkpath", longLink != null ? longLink : text(header, 157, 100));
+                long modified = pax.containsKey("mtime") ? (long) Double.parseDouble(pax.get("mtime")) : number(header, 136, 12);
+                longName = null;
+                longLink = null;
+                pax = Map.of();
+
+                Path target;
+                try
+                {
+                    target = ArchiveEntry.resolveInside(destination, name);
+                }
+                catch (IOException e)
+                {
+                    failures.add(new Batch.Failure(name, e.getMessage()));
+                    skip(in, size + padding(size));
+                    continue;
+                }
+                boolean file = type == '0' || type == '\0' || type == '7';
+                switch (type)
+                {
+                    case '5' -> submit(pool, failures, name, () -> Files.createDirectories(target));
+                    case '0', '\0', '7' ->
+                    {
+                        if (size <= SMALL_FILE)
+                        {
+                            byte[] data = in.readNBytes((int) size);
+                            if (data.length < size)
+                                throw new IOException("Unexpected end of archive.");
+                            inFlight.acquireUninterruptibly(data.length);
+                            submit(pool, failures, name, () ->
+                            {
+                                try
+                                {
+                                    writeFile(target, modified, data);
+                                    progress.step(data.length);
+                                }
+                                finally
+                                {
+                                    inFlight.release(data.length);
+                                }
+                            });
+                        }
+                        else
+                        {
+                            writeFile(in, target, size, modified, name, failures);
+                            progress.step(size);
+                        }
+                    }
+                    case '2' -> links.add(new Link(target, linkName, false));
+                    case '1' -> links.add(new Link(target, linkName, true));
+                    default -> {}
+                }
+                skip(in, (file ? 0 : size) + padding(size));
+            }
+        }
+        Cancellation.check();
+        List<Batch.Failure> result = new ArrayList<>(failures);
+        result.addAll(Batch.runInOrder(links, link -> createLink(destination, link)));
+        return result;
+    }
+
+    private static void submit(ExecutorService pool, Queue<Batch.Failure> failures, String name, IoTask task)
+    {
+        pool.execute(() ->
+        {
+            if (Cancellation.isRequested())
+                return;
+            try
+            {
+                task.run();
+            }
+            catch (Exception e)
+            {
+                failures.add(new Batch.Failure(name, Batch.messageOf(e)));
+            }
+        });
+    }
+
+    private static void writeFile(Path target, long modified, byte[] data) throws IOException
+    {
+        Path parent = target.getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        IoThrottle.acquireOperation();
+        IoThrottle.acquireBytes(data.length);
+        Files.write(target, data);
+        Files.setLastModifiedTime(target, FileTime.from(modified, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Streams a large entry to disk.  A target that cannot be opened is
+     * recorded as a failure and its data skipped; an error while copying
+     * leaves the archive stream at an unknown position and ends extraction.
+     */
+    private static void writeFile(InputStream in, Path target, long size, long modified, String name, Queue<Batch.Failure> failures) throws IOException
+    {
+        OutputStream out;
+        try
+        {
+            Path parent = target.getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+            IoThrottle.acquireOperation();
+            out = new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE);
+        }
+        catch (IOException e)
+        {
+            failures.add(new Batch.Failure(name, Batch.messageOf(e)));
+            skip(in, size);
+            return;
+        }
+        try (out)
+        {
+            if (copyExactly(in, out, size) < size)
+                throw new IOException("Unexpected end of archive.");
+        }
+        Files.setLastModifiedTime(target, FileTime.from(modified, TimeUnit.SECONDS));
+    }
+
+    private static void createLink(Path destination, Link link) throws IOException
+    {
+        if (link.hard())
+        {
+            Files.createLink(link.target(), ArchiveEntry.resolveInside(destination, link.linkName()));
+            return;
+        }
+        Path parent = link.target().getParent();
+        if (!parent.resolve(link.linkName()).normalize().startsWith(destination))
+            throw new IOException("Link points outside of the destination: " + link.linkName());
+        Files.createDirectories(parent);
+        Files.createSymbolicLink(link.target(), Path.of(link.linkName()));
+    }
+
+    private static void writeHeader(OutputStream out, String name, char type, long size, int mode, long modified, String link) throws IOException
+    {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] linkBytes = link.getBytes(StandardCharsets.UTF_8);
+        int split = nameBytes.length > 100 ? prefixSplit(nameBytes) : -1;
+        if (nameBytes.length > 100 && split < 0)
+            writeLongRecord(out, 'L', nameBytes);
+        if (linkBytes.length > 100)
+            writeLongRecord(out, 'K', linkBytes);
+        byte[] header = new byte[BLOCK];
+        if (split >= 0)
+        {
+            System.arraycopy(nameBytes, split + 1, header, 0, nameBytes.length - split - 1);
+            System.arraycopy(nameBytes, 0, header, 345, split);
+        }
+        else
+            System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+        System.arraycopy(linkBytes, 0, header, 157, Math.min(100, linkBytes.length));
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, Math.max(0, modified));
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        octal(header, 148, 7, checksum(header));
+        out.write(header);
+    }
+
+    private static void writeLongRecord(OutputStream out, char type, byte[] value) throws IOException
+    {
+        writeHeader(out, LONG_LINK, type, value.length + 1, 0, 0, "");
+        out.write(value);
+        out.write(0);
+        pad(out, value.length + 1);
+    }
+
+    /**
+     * Finds a slash that splits a long name into a ustar prefix of at most
+     * 155 bytes and a name of at most 100, or returns -1.
+     */
+    private static int prefixSplit(byte[] name)
+    {
+        for (int i = Math.min(155, name.length - 2); i > 0; i--)
+            if (name[i] == '/' && name.length - i - 1 <= 100)
+                return i;
+        return -1;
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value)
+    {
+        if (value < 1L << (3 * (length - 1)))
+        {
+            String digits = Long.toOctalString(value);
+            Arrays.fill(header, offset, offset + length - 1, (byte) '0');
+            byte[] bytes = digits.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, header, offset + length - 1 - bytes.length, bytes.length);
+            header[offset + length - 1] = 0;
+            return;
+        }
+        // GNU base-256 for values that do not fit, such as sizes of 8 GiB
+        // and more.
+        for (int i = offset + length - 1; i > offset; i--, value >>>= 8)
+            header[i] = (byte) value;
+        header[offset] = (byte) 0x80;
+    }
+
+    private static long number(byte[] header, int offset, int length)
+    {
+        if ((header[offset] & 0x80) != 0)
+        {
+            long value = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++)
+                value = (value << 8) | (header[offset + i] & 0xFF);
+            return value;
+        }
+        long value = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end && (header[i] == ' ' || header[i] == 0))
+            i++;
+        for (; i < end && header[i] >= '0' && header[i] <= '7'; i++)
+            value = (value << 3) | (header[i] - '0');
+        return value;
+    }
+
+    private static long checksum(byte[] header)
+    {
+        long sum = 0;
+        for (byte b : header)
+            sum += b & 0xFF;
+        return sum;
+    }
+
+    private static boolean checksumMatches(byte[] header)
+    {
+        long stored = number(header, 148, 8);
+        byte[] copy = header.clone();
+        Arrays.fill(copy, 148, 156, (byte) ' ');
+        return checksum(copy) == stored;
+    }
+
+    private static String headerName(byte[] header)
+    {
+        String name = text(header, 0, 100);
+        boolean ustar = text(header, 257, 6).startsWith("ustar");
+        String prefix = ustar ? text(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String text(byte[] header, int offset, int length)
+    {
+        int end = offset;
+        while (end < offset + length && header[end] != 0)
+            end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String readText(InputStream in, long size) throws IOException
+    {
+        if (size > MAX_METADATA)
+            throw new IOException("The archive is damaged: metadata record of " + size + " bytes.");
+        byte[] data = in.readNBytes((int) size);
+        skip(in, padding(size));
+        int end = data.length;
+        while (end > 0 && data[end - 1] == 0)
+            end--;
+        return new String(data, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parsePax(String records)
+    {
+        Map<String, String> values = new HashMap<>();
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        int position = 0;
+        while (position < bytes.length)
+        {
+            int space = position;
+            while (space < bytes.length && bytes[space] != ' ')
+                space++;
+            int length;
+            try
+            {
+                length = Integer.parseInt(new String(bytes, position, space - position, StandardCharsets.US_ASCII));
+            }
+            catch (NumberFormatException e)
+            {
+                break;
+            }
+            if (length <= 0 || position + length > bytes.length)
+                break;
+            String record = new String(bytes, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0)
+                values.put(record.substring(0, equals), record.substring(equals + 1));
+            position += length;
+        }
+        return values;
+    }
+
+    private static long copyExactly(InputStream in, OutputStream out, long size) throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        while (copied < size)
+        {
+            Cancellation.check();
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, size - copied));
+            if (n < 0)
+                break;
+            IoThrottle.acquireBytes(n);
+            out.write(buffer, 0, n);
+            copied += n;
+        }
+        return copied;
+    }
+
+    private static void skip(InputStream in, long size) throws IOException
+    {
+        in.skipNBytes(size);
+    }
+
+    private static long padding(long size)
+    {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    private static void pad(OutputStream out, long size) throws IOException
+    {
+        out.write(new byte[(int) padding(size)]);
+    }
+
+    private static boolean isZero(byte[] block)
+    {
+        for (byte b : block)
+            if (b != 0)
+                return false;
+        return true;
+    }
+
+    private static int permissions(Path file)
+    {
+        try
+        {
+            int mode = 0;
+            for (PosixFilePermission permission : Files.getPosixFilePermissions(file))
+                mode |= 1 << (8 - permission.ordinal());
+            return mode;
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            return 0644;
+        }
+    }
+}
@@ -1,30 +1,90 @@
 package xyz.stackpancakes.shell.util;
 
 import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
 import xyz.stackpancakes.Main;
+import xyz.stackpancakes.shell.core.ShellSession;
+
+import java.io.IOException;
 
 /**
  * Provides a shared {@link Terminal} instance accessible from different
- * components.  This allows code that needs to query terminal properties to
- * obtain the same terminal instance that was created in {@link Main#main}.
+ * components.  The terminal is created on first use, so a command run with
+ * {@code -e} only pays for it when it needs it.  In headless mode, set by
+ * {@link Main#main} when the shell is not attached to a terminal, there is
+ * no terminal at all and this class never touches JLine.  In a native image
+ * the terminal is created through JLine's JNI provider, whose native library
+ * and configuration are part of the image, falling back to the one built on
+ * {@code stty}; the FFM provider would need every downcall registered ahead
+ * of time.
  */
 public final class TerminalShare
 {
     private static final Object lock = new Object();
+    private static final boolean NATIVE_IMAGE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
     private static Terminal sharedTerminal;
+    private static boolean headless;
+    private static boolean failed;
     private TerminalShare() {}
-    public static void setSharedTerminal(Terminal terminal)
+    public static void setHeadless(boolean value)
+    {
+        synchronized (lock)
+        {
+            headless = value;
+        }
+    }
+    public static boolean isHeadless()
     {
         synchronized (lock)
         {
-            sharedTerminal = terminal;
+            return headless;
         }
     }
+    /**
+     * Returns the terminal of the current session if it has one, otherwise
+     * the shared terminal, creating the system terminal on the first call, or
+     * {@code null} when running headless or when no terminal could be
+     * created.
+     */
     public static Terminal getSharedTerminal()
     {
+        Terminal own = ShellSession.current().terminal();
+        if (own != null)
+            return own;
         synchronized (lock)
         {
+            if (sharedTerminal == null && !headless && !failed)
+            {
+                try
+                {
+                    sharedTerminal = createTerminal();
+                }
+                catch (IOException e)
+                {
+                    failed = true;
+                }
+            }
             return sharedTerminal;
         }
     }
-}
\ No newline at end of file
+    /**
+     * Width of the terminal in columns, or 0 when it is not known.
+     */
+    public static int getWidth()
+    {
+        if (isHeadless() && ShellSession.current().terminal() == null)
+            return 0;
+        Terminal terminal = getSharedTerminal();
+        return terminal == null ? 0 : terminal.getWidth();
+    }
+    private static Terminal createTerminal() throws IOException
+    {
+        TerminalBuilder builder = TerminalBuilder.builder()
+                .system(true);
+        if (NATIVE_IMAGE)
+            builder.providers("jni,exec");
+        Terminal terminal = builder.build();
+        terminal.handle(Terminal.Signal.INT, _ -> ShellSession.process().cancel());
+        return terminal;
+    }
+}
@@ -0,0 +1,133 @@
+package xyz.stackpancakes.shell.util;
+
+import org.jline.reader.Candidate;
+import org.jline.reader.Completer;
+import org.jline.reader.LineReader;
+import org.jline.reader.ParsedLine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a completion source on a virtual thread so that a slow or hung file
+ * system cannot stall the line reader.  All sources of one keystroke share a
+ * deadline; whatever has arrived by then is returned and results that arrive
+ * later are handed out on the next Tab for the same line.  A source that
+ * keeps missing the deadline trips a circuit breaker and is skipped for a
+ * while.
+ */
+public final class TimeBoxedCompleter
+{
+    private static final long DEADLINE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("jcmdshell.completion.deadline", 50));
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final String name;
+    private final Completer delegate;
+    private final Object lock = new Object();
+    private CompletableFuture<List<Candidate>> pending;
+    private String pendingKey;
+    private int consecutiveTimeouts;
+    private long openUntil;
+
+    public TimeBoxedCompleter(String name, Completer delegate)
+    {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    public static void completeAll(LineReader reader, ParsedLine line, List<Candidate> candidates, TimeBoxedCompleter... sources)
+    {
+        long deadline = System.nanoTime() + DEADLINE_NANOS;
+        String key = CurrentDirectory.get() + "\u0000" + line.cursor() + "\u0000" + line.line();
+        List<CompletableFuture<List<Candidate>>> futures = new ArrayList<>(sources.length);
+        for (TimeBoxedCompleter source : sources)
+            futures.add(source.start(reader, line, key));
+        for (int i = 0; i < sources.length; i++)
+            if (futures.get(i) != null)
+                sources[i].await(futures.get(i), deadline, candidates);
+    }
+
+    private CompletableFuture<List<Candidate>> start(LineReader reader, ParsedLine line, String key)
+    {
+        synchronized (lock)
+        {
+            if (System.nanoTime() < openUntil)
+                return null;
+            if (pending != null)
+            {
+                if (key.equals(pendingKey))
+                    return pending;
+                if (!pending.isDone())
+                {
+                    recordTimeout();
+                    return null;
+                }
+            }
+            CompletableFuture<List<Candidate>> future = new CompletableFuture<>();
+            Thread.ofVirtual().name("completion-" + name).start(() ->
+            {
+                try
+                {
+                    List<Candidate> results = new ArrayList<>();
+                    delegate.complete(reader, line, results);
+                    future.complete(results);
+                }
+                catch (Throwable t)
+                {
+                    future.completeExceptionally(t);
+                }
+            });
+            pending = future;
+            pendingKey = key;
+            return future;
+        }
+    }
+
+    private void await(CompletableFuture<List<Candidate>> future, long deadline, List<Candidate> candidates)
+    {
+        try
+        {
+            List<Candidate> results = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            candidates.addAll(results);
+            synchronized (lock)
+            {
+                consecutiveTimeouts = 0;
+                if (pending == future)
+                    pending = null;
+            }
+        }
+        catch (TimeoutException e)
+        {
+            synchronized (lock)
+            {
+                recordTimeout();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            synchronized (lock)
+            {
+                if (pending == future)
+                    pending = null;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordTimeout()
+    {
+        if (++consecutiveTimeouts >= FAILURE_THRESHOLD)
+        {
+            openUntil = System.nanoTime() + OPEN_NANOS;
+            consecutiveTimeouts = 0;
+        }
+    }
+}
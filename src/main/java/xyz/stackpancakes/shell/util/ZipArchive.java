@@ -0,0 +1,313 @@
+package xyz.stackpancakes.shell.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes and extracts ZIP archives.  Entries are deflated on a
+ * {@link ParallelDeflater}, so small files compress side by side and large
+ * files are split into blocks, while the archive itself is written strictly
+ * in order.  Because an entry's compressed size is only known after its
+ * blocks have been written, every deflated entry is followed by a data
+ * descriptor; ZIP64 records are added where sizes, offsets or the entry
+ * count outgrow the classic format.  Extraction reads the central directory
+ * first, creates all directories, then inflates the files on a pool.
+ */
+public final class ZipArchive
+{
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    private static final int FLAG_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+    // Entries this large get ZIP64 sizes up front, leaving room for the few
+    // bytes deflate adds to data that does not compress.
+    private static final long ZIP64_ENTRY_THRESHOLD = 0xF0000000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final class Written
+    {
+        private final byte[] name;
+        private final boolean directory;
+        private final boolean zip64;
+        private final long dosTime;
+        private long offset;
+        private ParallelDeflater.Member member;
+
+        private Written(String name, boolean directory, boolean zip64, FileTime modified)
+        {
+            this.name = (directory ? name + "/" : name).getBytes(StandardCharsets.UTF_8);
+            this.directory = directory;
+            this.zip64 = zip64;
+            this.dosTime = dosTime(modified);
+        }
+    }
+
+    private record Extraction(ZipEntry entry, Path target)
+    {
+        @Override
+        public String toString()
+        {
+            return entry.getName();
+        }
+    }
+
+    private ZipArchive() {}
+
+    public static void create(Path archive, List<ArchiveEntry> entries, int parallelism, int level, ProgressReporter progress) throws IOException
+    {
+        List<Written> written = new ArrayList<>(entries.size());
+        try (ExecutorService pool = Executors.newFixedThreadPool(parallelism, IoThrottle.workerThreadFactory("archive"));
+             ParallelDeflater out = new ParallelDeflater(new BufferedOutputStream(Files.newOutputStream(archive), BUFFER_SIZE), pool, parallelism, level))
+        {
+            for (ArchiveEntry entry : entries)
+            {
+                Cancellation.check();
+                if (entry.isSymbolicLink() && !entry.isLinkToFile())
+                    continue;
+                if (entry.isDirectory())
+                {
+                    Written w = new Written(entry.name(), true, false, entry.attributes().lastModifiedTime());
+                    written.add(w);
+                    out.writeRaw(() -> localHeader(w, out.position()));
+                    continue;
+                }
+                IoThrottle.acquireOperation();
+                Written w = new Written(entry.name(), false, Files.size(entry.path()) >= ZIP64_ENTRY_THRESHOLD,
+                        Files.getLastModifiedTime(entry.path()));
+                written.add(w);
+                out.writeRaw(() -> localHeader(w, out.position()));
+                try (InputStream in = Files.newInputStream(entry.path()))
+                {
+                    copy(in, out);
+                }
+                w.member = out.finishMember();
+                out.writeRaw(() -> dataDescriptor(w));
+                progress.step(w.member.size());
+            }
+            out.flush();
+            out.writeRaw(() -> centralDirectory(written, out.position()));
+        }
+    }
+
+    /**
+     * Extracts every entry below {@code destination} and returns the entries
+     * that failed.  The archive is read through its central directory, which
+     * lets several workers inflate different entries at the same time.
+     */
+    public static List<Batch.Failure> extract(Path archive, Path destination, int parallelism, ProgressReporter progress) throws IOException
+    {
+        List<Batch.Failure> failures = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(archive.toFile(), StandardCharsets.UTF_8))
+        {
+            Set<Path> directories = new LinkedHashSet<>();
+            List<Extraction> files = new ArrayList<>();
+            for (ZipEntry entry : zip.stream().toList())
+            {
+                Path target;
+                try
+                {
+                    target = ArchiveEntry.resolveInside(destination, entry.getName());
+                }
+                catch (IOException e)
+                {
+                    failures.add(new Batch.Failure(entry.getName(), e.getMessage()));
+                    continue;
+                }
+                if (entry.isDirectory())
+                    directories.add(target);
+                else
+                {
+                    if (target.getParent() != null)
+                        directories.add(target.getParent());
+                    files.add(new Extraction(entry, target));
+                }
+            }
+            failures.addAll(Batch.runAll(directories, parallelism, Files::createDirectories));
+            failures.addAll(Batch.runAll(files, parallelism, file ->
+            {
+                IoThrottle.acquireOperation();
+                try (InputStream in = zip.getInputStream(file.entry());
+                     OutputStream out = Files.newOutputStream(file.target()))
+                {
+                    copy(in, out);
+                }
+                Files.setLastModifiedTime(file.target(), file.entry().getLastModifiedTime());
+                progress.step(file.entry().getSize());
+            }));
+        }
+        return failures;
+    }
+
+    static void copy(InputStream in, OutputStream out) throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1)
+        {
+            Cancellation.check();
+            IoThrottle.acquireBytes(n);
+            out.write(buffer, 0, n);
+        }
+    }
+
+    private static byte[] localHeader(Written w, long offset)
+    {
+        w.offset = offset;
+        ByteBuffer b = buffer(30 + w.name.length + (w.zip64 ? 20 : 0));
+        b.putInt(LOCAL_HEADER);
+        b.putShort((short) (w.zip64 ? VERSION_ZIP64 : VERSION));
+        b.putShort((short) (FLAG_UTF8 | (w.directory ? 0 : FLAG_DESCRIPTOR)));
+        b.putShort((short) (w.directory ? ZipEntry.STORED : ZipEntry.DEFLATED));
+        b.putInt((int) w.dosTime);
+        b.putInt(0);
+        b.putInt(w.zip64 ? (int) MAX_32 : 0);
+        b.putInt(w.zip64 ? (int) MAX_32 : 0);
+        b.putShort((short) w.name.length);
+        b.putShort((short) (w.zip64 ? 20 : 0));
+        b.put(w.name);
+        if (w.zip64)
+        {
+            b.putShort((short) 1);
+            b.putShort((short) 16);
+            b.putLong(0);
+            b.putLong(0);
+        }
+        return b.array();
+    }
+
+    private static byte[] dataDescriptor(Written w)
+    {
+        ByteBuffer b = buffer(w.zip64 ? 24 : 16);
+        b.putInt(DATA_DESCRIPTOR);
+        b.putInt((int) w.member.crc());
+        if (w.zip64)
+        {
+            b.putLong(w.member.compressedSize());
+            b.putLong(w.member.size());
+        }
+        else
+        {
+            b.putInt((int) w.member.compressedSize());
+            b.putInt((int) w.member.size());
+        }
+        return b.array();
+    }
+
+    private static byte[] centralDirectory(List<Written> written, long start)
+    {
+        ByteArrayOutputStream cd = new ByteArrayOutputStream();
+        for (Written w : written)
+        {
+            long size = w.directory ? 0 : w.member.size();
+            long compressed = w.directory ? 0 : w.member.compressedSize();
+            boolean bigSize = w.zip64 || size >= MAX_32 || compressed >= MAX_32;
+            boolean bigOffset = w.offset >= MAX_32;
+            int extra = (bigSize ? 16 : 0) + (bigOffset ? 8 : 0);
+            ByteBuffer b = buffer(46 + w.name.length + (extra > 0 ? 4 + extra : 0));
+            b.putInt(CENTRAL_HEADER);
+            b.putShort((short) VERSION_ZIP64);
+            b.putShort((short) (extra > 0 || w.zip64 ? VERSION_ZIP64 : VERSION));
+            b.putShort((short) (FLAG_UTF8 | (w.directory ? 0 : FLAG_DESCRIPTOR)));
+            b.putShort((short) (w.directory ? ZipEntry.STORED : ZipEntry.DEFLATED));
+            b.putInt((int) w.dosTime);
+            b.putInt(w.directory ? 0 : (int) w.member.crc());
+            b.putInt(bigSize ? (int) MAX_32 : (int) compressed);
+            b.putInt(bigSize ? (int) MAX_32 : (int) size);
+            b.putShort((short) w.name.length);
+            b.putShort((short) (extra > 0 ? 4 + extra : 0));
+            b.putShort((short) 0);
+            b.putShort((short) 0);
+            b.putShort((short) 0);
+            b.putInt(w.directory ? 0x10 : 0);
+            b.putInt(bigOffset ? (int) MAX_32 : (int) w.offset);
+            b.put(w.name);
+            if (extra > 0)
+            {
+                b.putShort((short) 1);
+                b.putShort((short) extra);
+                if (bigSize)
+                {
+                    b.putLong(size);
+                    b.putLong(compressed);
+                }
+                if (bigOffset)
+                    b.putLong(w.offset);
+            }
+            cd.writeBytes(b.array());
+        }
+        long size = cd.size();
+        long end = start + size;
+        int count = written.size();
+        if (count >= MAX_16 || size >= MAX_32 || start >= MAX_32)
+        {
+            ByteBuffer b = buffer(56 + 20);
+            b.putInt(ZIP64_END);
+            b.putLong(44);
+            b.putShort((short) VERSION_ZIP64);
+            b.putShort((short) VERSION_ZIP64);
+            b.putInt(0);
+            b.putInt(0);
+            b.putLong(count);
+            b.putLong(count);
+            b.putLong(size);
+            b.putLong(start);
+            b.putInt(ZIP64_LOCATOR);
+            b.putInt(0);
+            b.putLong(end);
+            b.putInt(1);
+            cd.writeBytes(b.array());
+        }
+        ByteBuffer b = buffer(22);
+        b.putInt(END);
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putShort((short) Math.min(count, MAX_16));
+        b.putShort((short) Math.min(count, MAX_16));
+        b.putInt((int) Math.min(size, MAX_32));
+        b.putInt((int) Math.min(start, MAX_32));
+        b.putShort((short) 0);
+        cd.writeBytes(b.array());
+        return cd.toByteArray();
+    }
+
+    private static ByteBuffer buffer(int size)
+    {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long dosTime(FileTime time)
+    {
+        LocalDateTime t = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+        if (t.getYear() < 1980)
+            return (1 << 21) | (1 << 16);
+        return ((long) (t.getYear() - 1980) << 25) | ((long) t.getMonthValue() << 21) | ((long) t.getDayOfMonth() << 16)
+                | ((long) t.getHour() << 11) | ((long) t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+}
@@ -0,0 +1,69 @@
+import xyz.stackpancakes.shell.core.CommandLexer;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Measures how long {@link CommandLexer} takes per line and how much it
+ * allocates, on a mix of short commands, quoted paths, pipelines and chains.
+ * Build first with {@code mvn compile}, then from the project directory:
+ * <pre>
+ * java -cp target/classes test/LexerBenchmark.java [seconds]
+ * </pre>
+ * Each line is lexed and the text of every word is taken, which is what
+ * running a command does.
+ */
+public final class LexerBenchmark
+{
+    private static final List<String> LINES = List.of(
+            "dir",
+            "cd ..",
+            "copy report.txt backup\\report.txt",
+            "dir \"C:\\Program Files\\Common Files\" /s",
+            "print \"hello, world\" > greeting.txt",
+            "show log.txt | find \"ERROR\" | sort > errors.txt",
+            "mkdir build && cd build || print failed; dir",
+            "print 50^% done ^& counting >> progress.log",
+            "archive zip out.zip src docs \"release notes.md\" LICENSE README.md",
+            "compare left\\a.bin right\\a.bin && print same");
+
+    private LexerBenchmark() {}
+
+    public static void main(String[] args)
+    {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        run((long) (seconds * 1e9 / 3));
+
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long lines = run((long) (seconds * 1e9));
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+        System.out.printf("%d lines in %.2f s: %.1f ns/line, %.1f bytes allocated/line%n",
+                lines, elapsed / 1e9, (double) elapsed / lines, (double) allocated / lines);
+    }
+
+    private static long run(long nanos)
+    {
+        long deadline = System.nanoTime() + nanos;
+        long lines = 0;
+        long sink = 0;
+        while (System.nanoTime() < deadline)
+        {
+            for (String line : LINES)
+            {
+                CommandLexer.Tokens tokens = CommandLexer.lex(line);
+                for (int i = 0; i < tokens.size(); i++)
+                    if (tokens.type(i) == CommandLexer.WORD)
+                        sink += tokens.text(i).length();
+            }
+            lines += LINES.size();
+        }
+        if (sink == 42)
+            System.out.println();
+        return lines;
+    }
+}
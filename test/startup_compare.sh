@@ -0,0 +1,56 @@
+#!/bin/sh
+# Compares start-up time and peak memory of the native executable with the
+# fat jar, with and without its AOT cache, running one headless command.
+# Build first with `mvn -Pnative package`, then run from this directory:
+#   ./startup_compare.sh [runs]
+# Peak memory needs GNU time at /usr/bin/time.
+
+RUNS=${1:-10}
+JAVA=${JAVA:-java}
+JAR=${JAR:-../target/Jcmdshell-fat.jar}
+AOT=${AOT:-../target/Jcmdshell-fat.aot}
+NATIVE=${NATIVE:-../target/jcmdshell}
+COMMAND=${COMMAND:-print ok}
+
+median_ms()
+{
+    i=0
+    while [ "$i" -lt "$RUNS" ]; do
+        start=$(date +%s%N)
+        "$@" -e "$COMMAND" </dev/null >/dev/null 2>&1
+        end=$(date +%s%N)
+        echo $(( (end - start) / 1000000 ))
+        i=$((i + 1))
+    done | sort -n | awk '{ t[NR] = $1 } END { print t[int((NR + 1) / 2)] }'
+}
+
+peak_kib()
+{
+    if [ -x /usr/bin/time ]; then
+        /usr/bin/time -f %M "$@" -e "$COMMAND" </dev/null 2>&1 >/dev/null | tail -n 1
+    else
+        echo "n/a"
+    fi
+}
+
+report()
+{
+    label=$1
+    shift
+    printf '%-22s %8s ms %10s KiB\n' "$label" "$(median_ms "$@")" "$(peak_kib "$@")"
+}
+
+printf '%-22s %11s %14s\n' "" "median" "peak RSS"
+if [ -f "$JAR" ]; then
+    report "JVM jar" "$JAVA" --enable-native-access=ALL-UNNAMED -jar "$JAR"
+    if [ -f "$AOT" ]; then
+        report "JVM jar + AOT cache" "$JAVA" -XX:AOTCache="$AOT" --enable-native-access=ALL-UNNAMED -jar "$JAR"
+    fi
+else
+    echo "$JAR not found, build it with mvn package" >&2
+fi
+if [ -x "$NATIVE" ]; then
+    report "native image" "$NATIVE"
+else
+    echo "$NATIVE not found, build it with mvn -Pnative package" >&2
+fi